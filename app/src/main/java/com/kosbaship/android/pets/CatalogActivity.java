@@ -15,25 +15,42 @@
  */
 package com.kosbaship.android.pets;
 
+import android.app.AlertDialog;
 import android.app.LoaderManager;
+import android.content.AsyncQueryHandler;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.CursorLoader;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.Loader;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.SystemClock;
 import android.support.design.widget.FloatingActionButton;
+import android.support.design.widget.Snackbar;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
-import android.widget.AdapterView;
-import android.widget.ListView;
+import android.widget.TextView;
+import android.widget.Toast;
 
+import com.kosbaship.android.pets.data.PetChangeObserver;
 import com.kosbaship.android.pets.data.PetContract.PetEntry;
+import com.kosbaship.android.pets.data.PetContract.SummaryEntry;
+import com.kosbaship.android.pets.data.PetImporter;
+import com.kosbaship.android.pets.data.PetWriter;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 
 //                          (106)
 // (107) Go to PetProvider.java
@@ -44,17 +61,191 @@ import com.kosbaship.android.pets.data.PetContract.PetEntry;
  * Displays list of pets that were entered and stored in the app.
  */
 public class CatalogActivity extends AppCompatActivity implements
-        LoaderManager.LoaderCallbacks<Cursor> {
+        LoaderManager.LoaderCallbacks<PetPage> {
     //(106 - A) initialize the loader
-    /** Identifier for the pet data loader */
+    /**
+     * Identifier for the loader of the first page of pet data.
+     * The loader of page n uses the identifier PET_LOADER + n.
+     */
     private static final int PET_LOADER = 0;
 
+    /** Number of pets loaded at a time */
+    private static final int PAGE_SIZE = 50;
+
+    /** The next page starts loading when the list is scrolled this close to its end */
+    private static final int PREFETCH_DISTANCE = 20;
+
+    /** Loader arguments for the name of the last pet on the previous page */
+    private static final String ARG_AFTER_NAME = "after_name";
+
+    /** Loader arguments for the ID of the last pet on the previous page */
+    private static final String ARG_AFTER_ID = "after_id";
+
+    /** Loader arguments for the breed of the last pet on the previous page */
+    private static final String ARG_AFTER_BREED = "after_breed";
+
+    /** Loader arguments for the weight of the last pet on the previous page */
+    private static final String ARG_AFTER_WEIGHT = "after_weight";
+
+    /** Heaviest weight of a light pet, for the weight filter */
+    private static final int MAX_LIGHT_WEIGHT = 9;
+
+    /** Heaviest weight of a medium pet, for the weight filter */
+    private static final int MAX_MEDIUM_WEIGHT = 30;
+
+    /** Saved state keys of the sort order and filters */
+    private static final String STATE_SORT = "sort";
+    private static final String STATE_GENDER = "gender";
+    private static final String STATE_MIN_WEIGHT = "min_weight";
+    private static final String STATE_MAX_WEIGHT = "max_weight";
+    private static final String STATE_BREED = "breed";
+
+    /** Identifier for the loader of the search results */
+    private static final int SEARCH_LOADER = -1;
+
+    /** Loader arguments for the search term */
+    private static final String ARG_SEARCH_TERM = "search_term";
+
+    /** Maximum number of search results shown */
+    private static final int SEARCH_LIMIT = 100;
+
+    /** Identifier for the loader of the number of pets */
+    private static final int COUNT_LOADER = -2;
+
+    /** Request code for picking the file to import */
+    private static final int IMPORT_REQUEST = 1;
+
+    /** The import running in the background, null if there is none */
+    private PetImporter mImporter;
+
+    /** Shows the progress of {@link #mImporter} in the app bar */
+    private final PetImporter.Listener mImportListener = new PetImporter.Listener() {
+        @Override
+        public void onProgress(PetImporter.Progress progress) {
+            getSupportActionBar().setSubtitle(getString(R.string.import_progress,
+                    progress.petsImported, Math.round(progress.petsPerSecond)));
+        }
+
+        @Override
+        public void onFinished(PetImporter.Progress progress) {
+            mImporter = null;
+            getSupportActionBar().setSubtitle(null);
+            Toast.makeText(CatalogActivity.this, getString(R.string.import_finished,
+                    progress.petsImported, progress.recordsSkipped), Toast.LENGTH_LONG).show();
+        }
+
+        @Override
+        public void onFailed(PetImporter.Progress progress, Exception e) {
+            mImporter = null;
+            getSupportActionBar().setSubtitle(null);
+            // Don't try again on the next start, the file would most likely fail the same way
+            PetImporter.clearInterruptedImport(CatalogActivity.this);
+            Toast.makeText(CatalogActivity.this, getString(R.string.import_failed,
+                    progress.petsImported), Toast.LENGTH_LONG).show();
+        }
+    };
+
+    /** The term the user is searching for, null when the whole catalog is shown */
+    private String mSearchTerm;
+
+    /** Results of the current search, null while they are loading */
+    private PetPage mSearchResults;
+
+    /** Order of the catalog, one of the SORT constants of {@link PetEntry} */
+    private String mSort = PetEntry.SORT_NAME;
+
+    /** Filters of the catalog, null when they are off */
+    private Integer mGender;
+    private Integer mMinWeight;
+    private Integer mMaxWeight;
+    private String mBreed;
+
+    /** Content URI of the catalog in its order and with its filters, the pages come from it */
+    private Uri mCatalogUri;
+
+    /** Content URI of the catalog a cold start shows, by name and without filters */
+    private static final Uri DEFAULT_CATALOG_URI =
+            PetEntry.buildCatalogUri(PetEntry.SORT_NAME, null, null, null, null);
+
+    /** The first page last saved with {@link PetPageFile}, or read from it */
+    private PetPage mSavedFirstPage;
+
+    /** When the activity was created, to log how long the first pets took to show */
+    private long mCreateTime;
+
+    /** Whether the first pets were shown, and whether they came from the provider */
+    private boolean mShownSaved;
+    private boolean mShownLoaded;
+
+    /** Pages of the catalog in order, null while a page is loading for the first time */
+    private final ArrayList<PetPage> mPages = new ArrayList<>();
+
+    /** Arguments that the loader of each page was started with */
+    private final ArrayList<Bundle> mPageArgs = new ArrayList<>();
+
+    /** Token of the queries that read the current rows of changed pets */
+    private static final int PATCH_QUERY = 0;
+
+    /** Token of the query that reads the breeds to filter by */
+    private static final int BREEDS_QUERY = 1;
+
+    /** Reads the current rows of changed pets, and the breeds, on a background thread */
+    private CatalogQueryHandler mQueryHandler;
+
+    /** Patches the loaded pages when a few pets change, reloads them all otherwise */
+    private final PetChangeObserver mChangeObserver = new PetChangeObserver(new Handler()) {
+        @Override
+        public void onPetsChanged(String change, long[] ids) {
+            patchPets(ids);
+        }
+
+        @Override
+        public void onPetsInvalidated() {
+            reloadPages();
+        }
+    };
+
     //(105 - B)
-    /** Adapter for the ListView */
+    /** Adapter for the RecyclerView */
     PetCursorAdapter mCursorAdapter;
 
+    /** Lays out the list of pets, it knows which of them are on screen */
+    private LinearLayoutManager mLayoutManager;
+
+    /** Shown instead of the list when there are no pets */
+    private View mEmptyView;
+
+    /** Header with the number of pets */
+    private TextView mCountView;
+
+    /**
+     * Loads the number of pets for the header and the empty view. The count comes from the
+     * summary the database keeps, so it doesn't depend on how many pages are loaded.
+     */
+    private final LoaderManager.LoaderCallbacks<Cursor> mCountCallbacks =
+            new LoaderManager.LoaderCallbacks<Cursor>() {
+        @Override
+        public Loader<Cursor> onCreateLoader(int id, Bundle args) {
+            return new CursorLoader(CatalogActivity.this, PetEntry.buildCountUri(mCatalogUri),
+                    new String[] { PetEntry._COUNT }, null, null, null);
+        }
+
+        @Override
+        public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
+            if (cursor != null && cursor.moveToFirst()) {
+                showCount(cursor.getInt(0));
+            }
+        }
+
+        @Override
+        public void onLoaderReset(Loader<Cursor> loader) {
+            showCount(-1);
+        }
+    };
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        mCreateTime = SystemClock.uptimeMillis();
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_catalog);
 
@@ -70,29 +261,28 @@ public class CatalogActivity extends AppCompatActivity implements
 
 
         //(105 - E)
-        // Find the ListView which will be populated with the pet data
-        ListView petListView = (ListView) findViewById(R.id.list);
+        // Find the RecyclerView which will be populated with the pet data
+        RecyclerView petListView = (RecyclerView) findViewById(R.id.list);
+        mLayoutManager = new LinearLayoutManager(this);
+        petListView.setLayoutManager(mLayoutManager);
 
-        // Find and set empty view on the ListView, so that it only shows when the list has 0 items.
-        View emptyView = findViewById(R.id.empty_view);
-        petListView.setEmptyView(emptyView);
+        // Find the empty view, so that it only shows when there are 0 pets, and the header
+        mEmptyView = findViewById(R.id.empty_view);
+        mCountView = (TextView) findViewById(R.id.pet_count);
 
         // (106 - G)
         // Setup an Adapter to create a list item for each row of pet data in the Cursor.
-        // There is no pet data yet (until the loader finishes) so pass in null for the Cursor.
-        mCursorAdapter = new PetCursorAdapter(this, null);
-        petListView.setAdapter(mCursorAdapter);
-
+        // There is no pet data yet (until the loader finishes) so there is no Cursor yet.
         //                                (108)
         //(108 - B) Go to EditorActivity.java
         //(108 - A)
         // Setup the item click listener
-        petListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        mCursorAdapter = new PetCursorAdapter(this, new PetCursorAdapter.OnPetClickListener() {
             // long id:
             // this is the id of the item and we know that the id of the item is the same id
             // of the raw on the cursor
             @Override
-            public void onItemClick(AdapterView<?> adapterView, View view, int position, long id) {
+            public void onPetClick(long id) {
                 // Create new intent to go to {@link EditorActivity}
                 Intent intent = new Intent(CatalogActivity.this, EditorActivity.class);
 
@@ -111,12 +301,259 @@ public class CatalogActivity extends AppCompatActivity implements
                 startActivity(intent);
             }
         });
+        petListView.setAdapter(mCursorAdapter);
+
+        // Load more pets when the list got shorter than the screen
+        mCursorAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onChanged() {
+                maybeLoadNextPage();
+            }
+
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                maybeLoadNextPage();
+            }
+
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                maybeLoadNextPage();
+            }
+        });
 
+        // Load the next page before the user reaches the end of the list
+        petListView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                maybeLoadNextPage();
+            }
+        });
+
+        // Keep the order and the filters the user chose
+        if (savedInstanceState != null) {
+            mSort = savedInstanceState.getString(STATE_SORT, PetEntry.SORT_NAME);
+            mGender = getInteger(savedInstanceState, STATE_GENDER);
+            mMinWeight = getInteger(savedInstanceState, STATE_MIN_WEIGHT);
+            mMaxWeight = getInteger(savedInstanceState, STATE_MAX_WEIGHT);
+            mBreed = savedInstanceState.getString(STATE_BREED);
+        }
+        mCatalogUri = PetEntry.buildCatalogUri(mSort, mGender, mMinWeight, mMaxWeight, mBreed);
 
         // (106 - F)
-        // Kick off the loader
+        // Kick off the loader of the first page
+        mPages.add(null);
+        mPageArgs.add(null);
+        if (savedInstanceState == null && DEFAULT_CATALOG_URI.equals(mCatalogUri)) {
+            // Show the first page of the last run until the loader has the current one, which
+            // takes opening the database on a cold start
+            PetPage saved = PetPageFile.read(this, mCatalogUri);
+            if (saved != null) {
+                mSavedFirstPage = saved;
+                mPages.set(0, saved);
+                showPages();
+                logFirstPage(true);
+            }
+        }
         getLoaderManager().initLoader(PET_LOADER, null, this);
+        getLoaderManager().initLoader(COUNT_LOADER, null, mCountCallbacks);
 
+        // Follow the changes to the pets from now on
+        mQueryHandler = new CatalogQueryHandler(this);
+        mChangeObserver.register(getContentResolver());
+
+        // Carry on with an import that was interrupted, when the activity was destroyed or the
+        // app was killed
+        Uri interruptedImport = PetImporter.getInterruptedImport(this);
+        if (interruptedImport != null) {
+            startImport(interruptedImport);
+        }
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putString(STATE_SORT, mSort);
+        putInteger(outState, STATE_GENDER, mGender);
+        putInteger(outState, STATE_MIN_WEIGHT, mMinWeight);
+        putInteger(outState, STATE_MAX_WEIGHT, mMaxWeight);
+        outState.putString(STATE_BREED, mBreed);
+    }
+
+    private static Integer getInteger(Bundle bundle, String key) {
+        return bundle.containsKey(key) ? bundle.getInt(key) : null;
+    }
+
+    private static void putInteger(Bundle bundle, String key, Integer value) {
+        if (value != null) {
+            bundle.putInt(key, value);
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        mChangeObserver.unregister(getContentResolver());
+        mQueryHandler.cancelOperation(PATCH_QUERY);
+        mQueryHandler.cancelOperation(BREEDS_QUERY);
+        if (mImporter != null) {
+            // The import keeps its checkpoint, the next activity resumes it
+            mImporter.cancel();
+        }
+        super.onDestroy();
+    }
+
+    /**
+     * Let the user pick a CSV or JSON file of pets to import.
+     */
+    private void pickImportFile() {
+        Intent intent;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            // A document can be opened again after a restart, to resume the import
+            intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+        } else {
+            intent = new Intent(Intent.ACTION_GET_CONTENT);
+        }
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        intent.setType("*/*");
+        intent.putExtra(Intent.EXTRA_MIME_TYPES,
+                new String[] { PetEntry.EXPORT_CSV_TYPE, PetEntry.EXPORT_JSON_TYPE });
+        startActivityForResult(intent, IMPORT_REQUEST);
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        if (requestCode == IMPORT_REQUEST) {
+            if (resultCode == RESULT_OK && data != null && data.getData() != null) {
+                Uri source = data.getData();
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                    try {
+                        getContentResolver().takePersistableUriPermission(source,
+                                Intent.FLAG_GRANT_READ_URI_PERMISSION);
+                    } catch (SecurityException e) {
+                        // The import can still run, it just can't resume after a restart
+                        Log.w("CatalogActivity", "Cannot keep access to " + source, e);
+                    }
+                }
+                startImport(source);
+            }
+            return;
+        }
+        super.onActivityResult(requestCode, resultCode, data);
+    }
+
+    /**
+     * Import the pets of the given file in the background, after the import running now.
+     */
+    private void startImport(Uri source) {
+        if (mImporter != null) {
+            mImporter.cancel();
+        }
+        mImporter = new PetImporter(this, source, mImportListener);
+        mImporter.start();
+    }
+
+    /**
+     * Bring the loaded pages up to date after the given pets changed, by reading the current
+     * rows of just these pets.
+     */
+    private void patchPets(long[] ids) {
+        if (mSearchTerm != null) {
+            // The ranking of the results may change, so search again
+            getLoaderManager().restartLoader(SEARCH_LOADER, searchArgs(mSearchTerm), this);
+        }
+
+        StringBuilder selection = new StringBuilder(PetEntry._ID + " IN (");
+        String[] selectionArgs = new String[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            selection.append(i == 0 ? "?" : ",?");
+            selectionArgs[i] = String.valueOf(ids[i]);
+        }
+        selection.append(')');
+
+        // The queries run one after the other, so the patches are applied in the same order
+        // as the changes were made. The filters of the catalog leave out the pets that no
+        // longer pass them. The pages put the rows in order, so they aren't sorted here.
+        Uri uri = PetEntry.buildCatalogUri(null, mGender, mMinWeight, mMaxWeight, mBreed);
+        mQueryHandler.startQuery(PATCH_QUERY, ids, uri, PetPage.PROJECTION,
+                selection.toString(), selectionArgs, null);
+    }
+
+    /**
+     * Replace the given pets on the loaded pages with their current rows.
+     *
+     * @param ids  IDs of the pets that changed
+     * @param rows current rows of these pets, the deleted ones are missing
+     */
+    private void applyPatch(long[] ids, PetPage rows) {
+        boolean changed = false;
+        for (int i = 0; i < mPages.size(); i++) {
+            PetPage page = mPages.get(i);
+            if (page == null) {
+                // The page is still loading, it will come with the change
+                continue;
+            }
+            PetPage patched = page.patch(ids, rows);
+            if (patched != page) {
+                mPages.set(i, patched);
+                // Keep the loader in step, it delivers its page again when the activity restarts
+                Loader<PetPage> loader = getLoaderManager().getLoader(PET_LOADER + i);
+                if (loader != null) {
+                    ((PetPageLoader) loader).updatePage(patched);
+                }
+                changed = true;
+            }
+        }
+        if (changed) {
+            showPages();
+        }
+    }
+
+    /**
+     * Load all the pages again, when too many pets changed to patch them.
+     */
+    private void reloadPages() {
+        if (mSearchTerm != null) {
+            getLoaderManager().restartLoader(SEARCH_LOADER, searchArgs(mSearchTerm), this);
+        }
+        for (int i = 0; i < mPages.size(); i++) {
+            getLoaderManager().restartLoader(PET_LOADER + i, mPageArgs.get(i), this);
+        }
+    }
+
+    /**
+     * Reads the current rows of changed pets for {@link #patchPets} and hands them to
+     * {@link #applyPatch}, and reads the breeds for {@link #showBreedDialog}, on the main thread.
+     */
+    private static class CatalogQueryHandler extends AsyncQueryHandler {
+
+        private final WeakReference<CatalogActivity> mActivity;
+
+        CatalogQueryHandler(CatalogActivity activity) {
+            super(activity.getContentResolver());
+            mActivity = new WeakReference<>(activity);
+        }
+
+        @Override
+        protected void onQueryComplete(int token, Object cookie, Cursor cursor) {
+            CatalogActivity activity = mActivity.get();
+            if (token == BREEDS_QUERY) {
+                if (cursor != null) {
+                    if (activity != null) {
+                        activity.showBreedDialog(cursor);
+                    }
+                    cursor.close();
+                }
+                return;
+            }
+
+            PetPage rows = PetPage.EMPTY;
+            if (cursor != null) {
+                rows = PetPage.fromCursor(cursor, 0);
+                cursor.close();
+            }
+            if (activity != null) {
+                activity.applyPatch((long[]) cookie, rows);
+            }
+        }
     }
 
     /**
@@ -137,7 +574,8 @@ public class CatalogActivity extends AppCompatActivity implements
         // Use the {@link PetEntry#CONTENT_URI} to indicate that we want to insert
         // into the pets database table.
         // Receive the new content URI that will allow us to access Max's data in the future.
-        Uri newUri = getContentResolver().insert(PetEntry.CONTENT_URI, values);
+        // The write runs in the background, the catalog picks up the new pet when it's notified.
+        PetWriter.getInstance(this).insert(values, null);
     }
     //                      (108 - F)
     //(108 - G - Last) go to PetCursorAdapter.java
@@ -146,8 +584,28 @@ public class CatalogActivity extends AppCompatActivity implements
      * Helper method to delete all pets in the database.
      */
     private void deleteAllPets() {
-        int rowsDeleted = getContentResolver().delete(PetEntry.CONTENT_URI, null, null);
-        Log.v("CatalogActivity", rowsDeleted + " rows deleted from pet database");
+        // The pets are kept for a while after the delete, so it can be undone
+        final long deletedSince = System.currentTimeMillis();
+        PetWriter.getInstance(this).delete(PetEntry.CONTENT_URI, new PetWriter.Callback() {
+            @Override
+            public void onWriteComplete(Uri uri, int rowsDeleted) {
+                Log.v("CatalogActivity", rowsDeleted + " rows deleted from pet database");
+                if (rowsDeleted == 0 || isFinishing()) {
+                    return;
+                }
+                Snackbar.make(findViewById(R.id.list), getResources().getQuantityString(
+                        R.plurals.pets_deleted, rowsDeleted, rowsDeleted), Snackbar.LENGTH_LONG)
+                        .setAction(R.string.action_undo, new View.OnClickListener() {
+                            @Override
+                            public void onClick(View view) {
+                                PetWriter.getInstance(CatalogActivity.this).update(
+                                        PetEntry.buildRestoreUri(deletedSince),
+                                        new ContentValues(), null);
+                            }
+                        })
+                        .show();
+            }
+        });
     }
 
     @Override
@@ -155,9 +613,57 @@ public class CatalogActivity extends AppCompatActivity implements
         // Inflate the menu options from the res/menu/menu_catalog.xml file.
         // This adds menu items to the app bar.
         getMenuInflater().inflate(R.menu.menu_catalog, menu);
+
+        // Search the pets as the user types
+        SearchView searchView = (SearchView) menu.findItem(R.id.action_search).getActionView();
+        searchView.setQueryHint(getString(R.string.search_hint));
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                search(query);
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                search(newText);
+                return true;
+            }
+        });
         return true;
     }
 
+    /**
+     * Show the pets matching the given term instead of the whole catalog, or go back to the
+     * whole catalog if the term is empty.
+     */
+    private void search(String term) {
+        term = term.trim();
+        if (term.isEmpty()) {
+            if (mSearchTerm != null) {
+                mSearchTerm = null;
+                mSearchResults = null;
+                getLoaderManager().destroyLoader(SEARCH_LOADER);
+                showPages();
+            }
+            return;
+        }
+        if (term.equals(mSearchTerm)) {
+            return;
+        }
+        mSearchTerm = term;
+        getLoaderManager().restartLoader(SEARCH_LOADER, searchArgs(term), this);
+    }
+
+    /**
+     * Returns the loader arguments to search for the given term.
+     */
+    private static Bundle searchArgs(String term) {
+        Bundle args = new Bundle();
+        args.putString(ARG_SEARCH_TERM, term);
+        return args;
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         // User clicked on a menu option in the app bar overflow menu
@@ -172,43 +678,346 @@ public class CatalogActivity extends AppCompatActivity implements
                 //(108 - F - 1)
                 deleteAllPets();
                 return true;
+            // Respond to a click on the "Import pets" menu option
+            case R.id.action_import_pets:
+                pickImportFile();
+                return true;
+            // Respond to the sort and filter options
+            case R.id.sort_name:
+                mSort = PetEntry.SORT_NAME;
+                break;
+            case R.id.sort_breed:
+                mSort = PetEntry.SORT_BREED;
+                break;
+            case R.id.sort_weight:
+                mSort = PetEntry.SORT_WEIGHT;
+                break;
+            case R.id.filter_any_gender:
+                mGender = null;
+                break;
+            case R.id.filter_male:
+                mGender = PetEntry.GENDER_MALE;
+                break;
+            case R.id.filter_female:
+                mGender = PetEntry.GENDER_FEMALE;
+                break;
+            case R.id.filter_unknown_gender:
+                mGender = PetEntry.GENDER_UNKNOWN;
+                break;
+            case R.id.filter_any_weight:
+                mMinWeight = null;
+                mMaxWeight = null;
+                break;
+            case R.id.filter_light:
+                mMinWeight = null;
+                mMaxWeight = MAX_LIGHT_WEIGHT;
+                break;
+            case R.id.filter_medium:
+                mMinWeight = MAX_LIGHT_WEIGHT + 1;
+                mMaxWeight = MAX_MEDIUM_WEIGHT;
+                break;
+            case R.id.filter_heavy:
+                mMinWeight = MAX_MEDIUM_WEIGHT + 1;
+                mMaxWeight = null;
+                break;
+            case R.id.filter_breed:
+                if (mBreed != null) {
+                    mBreed = null;
+                    break;
+                }
+                // Let the user pick one of the breeds in the shelter first
+                mQueryHandler.cancelOperation(BREEDS_QUERY);
+                mQueryHandler.startQuery(BREEDS_QUERY, null, SummaryEntry.CONTENT_BREEDS_URI,
+                        new String[] { SummaryEntry.COLUMN_BREED }, null, null, null);
+                return true;
+            default:
+                return super.onOptionsItemSelected(item);
         }
-        return super.onOptionsItemSelected(item);
+        reloadCatalog();
+        return true;
+    }
+
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        super.onPrepareOptionsMenu(menu);
+        // Check the options that are in use
+        switch (mSort) {
+            case PetEntry.SORT_BREED:
+                menu.findItem(R.id.sort_breed).setChecked(true);
+                break;
+            case PetEntry.SORT_WEIGHT:
+                menu.findItem(R.id.sort_weight).setChecked(true);
+                break;
+            default:
+                menu.findItem(R.id.sort_name).setChecked(true);
+                break;
+        }
+        int genderItem = R.id.filter_any_gender;
+        if (mGender != null) {
+            switch (mGender) {
+                case PetEntry.GENDER_MALE:
+                    genderItem = R.id.filter_male;
+                    break;
+                case PetEntry.GENDER_FEMALE:
+                    genderItem = R.id.filter_female;
+                    break;
+                default:
+                    genderItem = R.id.filter_unknown_gender;
+                    break;
+            }
+        }
+        menu.findItem(genderItem).setChecked(true);
+        int weightItem = R.id.filter_any_weight;
+        if (mMaxWeight != null && mMaxWeight == MAX_LIGHT_WEIGHT) {
+            weightItem = R.id.filter_light;
+        } else if (mMaxWeight != null) {
+            weightItem = R.id.filter_medium;
+        } else if (mMinWeight != null) {
+            weightItem = R.id.filter_heavy;
+        }
+        menu.findItem(weightItem).setChecked(true);
+        menu.findItem(R.id.filter_breed).setChecked(mBreed != null);
+        return true;
     }
 
+    /**
+     * Let the user pick the breed to filter by, from the breeds of the given cursor over the
+     * breed summaries.
+     */
+    private void showBreedDialog(Cursor cursor) {
+        final String[] breeds = new String[cursor.getCount()];
+        String[] labels = new String[breeds.length];
+        for (int i = 0; cursor.moveToNext(); i++) {
+            // The pets without a breed are filtered by an empty breed
+            breeds[i] = cursor.isNull(0) ? "" : cursor.getString(0);
+            labels[i] = cursor.isNull(0) ? getString(R.string.unknown_breed) : breeds[i];
+        }
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.filter_breed)
+                .setItems(labels, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        mBreed = breeds[which];
+                        reloadCatalog();
+                    }
+                })
+                .show();
+    }
+
+    /**
+     * Load the catalog again from its first page, after its order or its filters changed.
+     */
+    private void reloadCatalog() {
+        mCatalogUri = PetEntry.buildCatalogUri(mSort, mGender, mMinWeight, mMaxWeight, mBreed);
+        invalidateOptionsMenu();
+
+        // Patches that are on their way were read with the old filters
+        mQueryHandler.cancelOperation(PATCH_QUERY);
+
+        // The pages after the first one start after pets of the old order, drop them. The list
+        // keeps showing the old pages until the new first page is loaded.
+        for (int i = mPages.size() - 1; i > 0; i--) {
+            mPages.remove(i);
+            mPageArgs.remove(i);
+            getLoaderManager().destroyLoader(PET_LOADER + i);
+        }
+        mPages.set(0, null);
+        getLoaderManager().restartLoader(PET_LOADER, null, this);
+        getLoaderManager().restartLoader(COUNT_LOADER, null, mCountCallbacks);
+    }
+
+
+    /**
+     * Show the number of pets in the header, or the empty view if there are none.
+     *
+     * @param count the number of pets, or -1 if it isn't known
+     */
+    private void showCount(int count) {
+        mEmptyView.setVisibility(count == 0 ? View.VISIBLE : View.GONE);
+        if (count > 0) {
+            mCountView.setText(getResources().getQuantityString(R.plurals.pet_count, count,
+                    count));
+            mCountView.setVisibility(View.VISIBLE);
+        } else {
+            mCountView.setVisibility(View.GONE);
+        }
+    }
+
+    /**
+     * Load the next page if the list is scrolled close enough to its end.
+     */
+    private void maybeLoadNextPage() {
+        int lastVisible = mLayoutManager.findLastVisibleItemPosition();
+        if (lastVisible >= mCursorAdapter.getItemCount() - PREFETCH_DISTANCE) {
+            loadNextPage();
+        }
+    }
+
+    /**
+     * Start loading the page after the last one, unless the last page is still loading or
+     * it is the end of the catalog.
+     */
+    private void loadNextPage() {
+        if (mSearchTerm != null) {
+            // Search results come in a single page
+            return;
+        }
+        int last = mPages.size() - 1;
+        PetPage lastPage = mPages.get(last);
+        if (lastPage == null || !lastPage.hasMore()) {
+            return;
+        }
+        Bundle args = argsAfter(lastPage);
+        mPages.add(null);
+        mPageArgs.add(args);
+        getLoaderManager().initLoader(PET_LOADER + last + 1, args, this);
+    }
+
+    /**
+     * Returns the loader arguments for the page that comes after the given one.
+     */
+    private static Bundle argsAfter(PetPage page) {
+        PetPage.Key end = page.getEnd();
+        Bundle args = new Bundle();
+        args.putString(ARG_AFTER_NAME, end.name);
+        args.putString(ARG_AFTER_BREED, end.breed);
+        args.putInt(ARG_AFTER_WEIGHT, end.weight);
+        args.putLong(ARG_AFTER_ID, end.id);
+        return args;
+    }
+
+    /**
+     * Returns the pet the page with the given loader arguments starts after.
+     */
+    private static PetPage.Key keyOf(Bundle args) {
+        return new PetPage.Key(args.getString(ARG_AFTER_NAME), args.getString(ARG_AFTER_BREED),
+                args.getInt(ARG_AFTER_WEIGHT), args.getLong(ARG_AFTER_ID));
+    }
+
+    /**
+     * Show the pages that are loaded so far, up to the first one that is still loading.
+     * While the user is searching, show the search results instead.
+     */
+    private void showPages() {
+        ArrayList<PetPage> loaded = new ArrayList<>();
+        if (mSearchTerm != null) {
+            if (mSearchResults != null) {
+                loaded.add(mSearchResults);
+            }
+        } else {
+            for (PetPage page : mPages) {
+                if (page == null) {
+                    break;
+                }
+                loaded.add(page);
+            }
+        }
+        // The pages are copies, so the cursor on them holds nothing that needs closing
+        mCursorAdapter.swapCursor(new CatalogCursor(loaded));
+
+        PetPage firstPage = mPages.isEmpty() ? null : mPages.get(0);
+        if (firstPage != null && firstPage != mSavedFirstPage
+                && DEFAULT_CATALOG_URI.equals(mCatalogUri)) {
+            mSavedFirstPage = firstPage;
+            PetPageFile.write(this, mCatalogUri, firstPage);
+        }
+    }
+
+    /**
+     * Log how long the first page took to show from the creation of the activity, once from
+     * the saved page and once from the provider. This is the time to the first frame with pets
+     * in it, and the time until the catalog is up to date.
+     */
+    private void logFirstPage(boolean saved) {
+        if (saved ? mShownSaved : mShownLoaded) {
+            return;
+        }
+        if (saved) {
+            mShownSaved = true;
+        } else {
+            mShownLoaded = true;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                reportFullyDrawn();
+            }
+        }
+        Log.i("CatalogActivity", "First page from the " + (saved ? "saved page" : "provider")
+                + " in " + (SystemClock.uptimeMillis() - mCreateTime) + " ms");
+    }
 
     //(106 - B)
     // initialize the loader to load the data in the background thread
-    // be careful alt + enter and override content cursorloader
     @Override
-    public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
-        // Define a projection that specifies the columns from the table we care about.
-        String[] projection = {
-                PetEntry._ID,
-                PetEntry.COLUMN_PET_NAME,
-                PetEntry.COLUMN_PET_BREED };
-
-        // This loader will execute the ContentProvider's query method on a background thread
-        // be careful alt + enter and override content cursorloader
-        return new CursorLoader(this,   // Parent activity context
-                PetEntry.CONTENT_URI,   // Provider content URI to query
-                projection,             // Columns to include in the resulting Cursor
-                null,                   // No selection clause
-                null,                   // No selection arguments
-                null);                  // Default sort order
+    public Loader<PetPage> onCreateLoader(int id, Bundle args) {
+        // This loader will query one page of the ContentProvider on a background thread
+        Uri uri;
+        if (id == SEARCH_LOADER) {
+            uri = PetEntry.buildSearchUri(args.getString(ARG_SEARCH_TERM), SEARCH_LIMIT);
+        } else if (args == null) {
+            uri = PetEntry.buildPageUri(mCatalogUri, PAGE_SIZE);
+        } else {
+            PetPage.Key after = keyOf(args);
+            uri = PetEntry.buildPageUri(mCatalogUri, after.name, after.breed, after.weight,
+                    after.id, PAGE_SIZE);
+        }
+        return new PetPageLoader(this, uri);
     }
     //(106 - C)
     @Override
-    public void onLoadFinished(android.content.Loader<Cursor> loader, Cursor data) {
-        // Update {@link PetCursorAdapter} with this new cursor containing updated pet data
-        mCursorAdapter.swapCursor(data);
+    public void onLoadFinished(Loader<PetPage> loader, PetPage page) {
+        if (loader.getId() == SEARCH_LOADER) {
+            mSearchResults = page;
+            showPages();
+            return;
+        }
+
+        int index = loader.getId() - PET_LOADER;
+        if (index >= mPages.size()) {
+            // The page was dropped while it was loading
+            return;
+        }
+        mPages.set(index, page);
+        if (index == 0) {
+            logFirstPage(false);
+        }
+
+        // The pages after this one start where it ends, so they have to follow it when it changes
+        int next = index + 1;
+        if (next < mPages.size()) {
+            if (!page.hasMore()) {
+                // This is the end of the catalog now, drop the pages after it
+                for (int i = mPages.size() - 1; i >= next; i--) {
+                    mPages.remove(i);
+                    mPageArgs.remove(i);
+                    getLoaderManager().destroyLoader(PET_LOADER + i);
+                }
+            } else {
+                Bundle args = argsAfter(page);
+                if (!page.getEnd().equals(keyOf(mPageArgs.get(next)))) {
+                    // Keep showing the old page until the new one is loaded
+                    mPageArgs.set(next, args);
+                    getLoaderManager().restartLoader(PET_LOADER + next, args, this);
+                }
+            }
+        }
+
+        // Update {@link PetCursorAdapter} with the pages containing updated pet data
+        showPages();
     }
     //(106 - D)
     //(106 - E) go and remove         displayDatabaseInfo();
     @Override
-    public void onLoaderReset(android.content.Loader<Cursor> loader) {
+    public void onLoaderReset(Loader<PetPage> loader) {
         // Callback called when the data needs to be deleted
-        mCursorAdapter.swapCursor(null);
+        if (loader.getId() == SEARCH_LOADER) {
+            mSearchResults = null;
+            showPages();
+            return;
+        }
+        int index = loader.getId() - PET_LOADER;
+        if (index < mPages.size()) {
+            mPages.set(index, null);
+        }
+        showPages();
     }
 
 
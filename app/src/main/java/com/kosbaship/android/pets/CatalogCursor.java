@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kosbaship.android.pets;
+
+import android.database.AbstractCursor;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Read-only {@link android.database.Cursor} over the loaded pages of the catalog, with the
+ * columns of {@link PetPage#PROJECTION}. The pages are shown one after the other, without
+ * copying them.
+ */
+public class CatalogCursor extends AbstractCursor {
+
+    private static final int COLUMN_ID = 0;
+    private static final int COLUMN_NAME = 1;
+    private static final int COLUMN_BREED = 2;
+
+    /** The non-empty pages, in order */
+    private final PetPage[] mPages;
+
+    /** Cursor position of the first pet of each page */
+    private final int[] mStarts;
+
+    /** Total number of pets on all the pages */
+    private final int mCount;
+
+    /** Page of the current row */
+    private PetPage mPage;
+
+    /** Position of the current row on {@link #mPage} */
+    private int mRow;
+
+    /**
+     * Constructs a new {@link CatalogCursor}.
+     *
+     * @param pages the pages to show, in order
+     */
+    public CatalogCursor(List<PetPage> pages) {
+        PetPage[] nonEmpty = new PetPage[pages.size()];
+        int[] starts = new int[pages.size()];
+        int pageCount = 0;
+        int count = 0;
+        for (PetPage page : pages) {
+            if (page.size() == 0) {
+                continue;
+            }
+            nonEmpty[pageCount] = page;
+            starts[pageCount] = count;
+            pageCount++;
+            count += page.size();
+        }
+        mPages = Arrays.copyOf(nonEmpty, pageCount);
+        mStarts = Arrays.copyOf(starts, pageCount);
+        mCount = count;
+    }
+
+    @Override
+    public int getCount() {
+        return mCount;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return PetPage.PROJECTION;
+    }
+
+    @Override
+    public boolean onMove(int oldPosition, int newPosition) {
+        int index = pageIndexOf(newPosition);
+        mPage = mPages[index];
+        mRow = newPosition - mStarts[index];
+        return true;
+    }
+
+    /**
+     * Returns the index of the page that holds the given position.
+     */
+    private int pageIndexOf(int position) {
+        // Find the last page that starts at or before the position
+        int index = Arrays.binarySearch(mStarts, position);
+        if (index < 0) {
+            index = -index - 2;
+        }
+        return index;
+    }
+
+    /**
+     * Returns the ID of the pet at the given position. Unlike the column getters, this doesn't
+     * depend on the position of the cursor, so it can be called from any thread.
+     */
+    public long getId(int position) {
+        int index = pageIndexOf(position);
+        return mPages[index].getId(position - mStarts[index]);
+    }
+
+    /**
+     * Returns the name of the pet at the given position, from any thread.
+     */
+    public String getName(int position) {
+        int index = pageIndexOf(position);
+        return mPages[index].getName(position - mStarts[index]);
+    }
+
+    /**
+     * Returns the breed of the pet at the given position, from any thread. It may be null.
+     */
+    public String getBreed(int position) {
+        int index = pageIndexOf(position);
+        return mPages[index].getBreed(position - mStarts[index]);
+    }
+
+    @Override
+    public String getString(int column) {
+        switch (column) {
+            case COLUMN_ID:
+                return Long.toString(mPage.getId(mRow));
+            case COLUMN_NAME:
+                return mPage.getName(mRow);
+            case COLUMN_BREED:
+                return mPage.getBreed(mRow);
+            default:
+                throw new IllegalArgumentException("Unknown column " + column);
+        }
+    }
+
+    @Override
+    public long getLong(int column) {
+        if (column == COLUMN_ID) {
+            return mPage.getId(mRow);
+        }
+        return Long.parseLong(getString(column));
+    }
+
+    @Override
+    public int getInt(int column) {
+        return (int) getLong(column);
+    }
+
+    @Override
+    public short getShort(int column) {
+        return (short) getLong(column);
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return Float.parseFloat(getString(column));
+    }
+
+    @Override
+    public double getDouble(int column) {
+        return Double.parseDouble(getString(column));
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return getString(column) == null;
+    }
+
+    @Override
+    public int getType(int column) {
+        if (column == COLUMN_ID) {
+            return FIELD_TYPE_INTEGER;
+        }
+        return isNull(column) ? FIELD_TYPE_NULL : FIELD_TYPE_STRING;
+    }
+}
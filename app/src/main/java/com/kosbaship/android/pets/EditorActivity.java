@@ -18,6 +18,7 @@ package com.kosbaship.android.pets;
 import android.app.AlertDialog;
 import android.app.LoaderManager;
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.CursorLoader;
 import android.content.DialogInterface;
 import android.content.Intent;
@@ -39,6 +40,7 @@ import android.widget.Spinner;
 import android.widget.Toast;
 
 import com.kosbaship.android.pets.data.PetContract.PetEntry;
+import com.kosbaship.android.pets.data.PetWriter;
 //(108 - B - 4)
 //implements LoaderManager.LoaderCallbacks<Cursor>
 // override LoaderCallbacks<Cursor> methods
@@ -238,36 +240,18 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
             // Insert a new pet into the provider, returning the content URI for the new pet.
             // This is a NEW pet, so insert a new pet into the provider,
             // returning the content URI for the new pet.
-            Uri newUri = getContentResolver().insert(PetEntry.CONTENT_URI, values);
-
-            // Show a toast message depending on whether or not the insertion was successful.
-            if (newUri == null) {
-                // If the new content URI is null, then there was an error with insertion.
-                Toast.makeText(this, getString(R.string.editor_insert_pet_failed),
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                // Otherwise, the insertion was successful and we can display a toast.
-                Toast.makeText(this, getString(R.string.editor_insert_pet_successful),
-                        Toast.LENGTH_SHORT).show();
-            }
+            // The write runs in the background and the toast is shown when it's done, so the
+            // editor can close right away.
+            PetWriter.getInstance(this).insert(values, new ResultToast(this,
+                    R.string.editor_insert_pet_successful, R.string.editor_insert_pet_failed));
         } else {
             // Otherwise this is an EXISTING pet, so update the pet with content URI: mCurrentPetUri
             // and pass in the new ContentValues. Pass in null for the selection and selection args
             // because mCurrentPetUri will already identify the correct row in the database that
             // we want to modify.
-            int rowsAffected = getContentResolver().update(mCurrentPetUri, values, null, null);
-            // (101 - J - 2)
-            // Show a toast message depending on whether or not the insertion was successful
-            // Show a toast message depending on whether or not the update was successful.
-            if (rowsAffected == 0) {
-                // If no rows were affected, then there was an error with the update.
-                Toast.makeText(this, getString(R.string.editor_update_pet_failed),
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                // Otherwise, the update was successful and we can display a toast.
-                Toast.makeText(this, getString(R.string.editor_update_pet_successful),
-                        Toast.LENGTH_SHORT).show();
-            }
+            // Saving the same pet again before this write starts merges both into one write.
+            PetWriter.getInstance(this).update(mCurrentPetUri, values, new ResultToast(this,
+                    R.string.editor_update_pet_successful, R.string.editor_update_pet_failed));
         }
 
     }
@@ -530,21 +514,36 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
             // Call the ContentResolver to delete the pet at the given content URI.
             // Pass in null for the selection and selection args because the mCurrentPetUri
             // content URI already identifies the pet that we want.
-            int rowsDeleted = getContentResolver().delete(mCurrentPetUri, null, null);
-
-            // Show a toast message depending on whether or not the delete was successful.
-            if (rowsDeleted == 0) {
-                // If no rows were deleted, then there was an error with the delete.
-                Toast.makeText(this, getString(R.string.editor_delete_pet_failed),
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                // Otherwise, the delete was successful and we can display a toast.
-                Toast.makeText(this, getString(R.string.editor_delete_pet_successful),
-                        Toast.LENGTH_SHORT).show();
-            }
+            // The delete runs in the background, and shows its toast after the editor is closed.
+            PetWriter.getInstance(this).delete(mCurrentPetUri, new ResultToast(this,
+                    R.string.editor_delete_pet_successful, R.string.editor_delete_pet_failed));
         }
 
         // Close the activity
         finish();
     }
-}
\ No newline at end of file
+
+    /**
+     * Shows a toast message depending on whether or not a write was successful. It only holds
+     * on to the application context, so it can outlive the editor.
+     */
+    private static class ResultToast implements PetWriter.Callback {
+
+        private final Context mContext;
+        private final int mSuccessMessage;
+        private final int mFailureMessage;
+
+        ResultToast(Context context, int successMessage, int failureMessage) {
+            mContext = context.getApplicationContext();
+            mSuccessMessage = successMessage;
+            mFailureMessage = failureMessage;
+        }
+
+        @Override
+        public void onWriteComplete(Uri uri, int rowsAffected) {
+            // If no rows were affected, then there was an error with the write.
+            int message = rowsAffected == 0 ? mFailureMessage : mSuccessMessage;
+            Toast.makeText(mContext, mContext.getString(message), Toast.LENGTH_SHORT).show();
+        }
+    }
+}
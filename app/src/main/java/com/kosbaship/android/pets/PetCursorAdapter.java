@@ -16,91 +16,250 @@
 package com.kosbaship.android.pets;
 
 import android.content.Context;
-import android.database.Cursor;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
 import android.text.TextUtils;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.CursorAdapter;
 import android.widget.TextView;
 
 import com.kosbaship.android.pets.data.PetContract.*;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 //                                      (103)
 // (104) Go to activity_catalog.xml
-// create this adapter then extend CursorAdapter and override the needed methods
+// create this adapter then extend RecyclerView.Adapter and override the needed methods
 // to bind the cursor that coming from the db with the views on the screen
 /**
- * {@link PetCursorAdapter} is an adapter for a list or grid view
- * that uses a {@link Cursor} of pet data as its data source. This adapter knows
- * how to create list items for each row of pet data in the {@link Cursor}.
+ * {@link PetCursorAdapter} is an adapter for a {@link RecyclerView}
+ * that uses a {@link CatalogCursor} of pet data as its data source. This adapter knows
+ * how to create list items for each row of pet data in the {@link CatalogCursor}.
+ *
+ * Each item is identified by the ID of its pet. When a new cursor is swapped in, the difference
+ * with the current one is worked out on a background thread, so only the rows that changed
+ * are bound again and the scroll position is kept.
  */
-public class PetCursorAdapter extends CursorAdapter {
+public class PetCursorAdapter extends RecyclerView.Adapter<PetCursorAdapter.PetViewHolder> {
+
+    /**
+     * Interface for receiving clicks on the pets of the list.
+     */
+    public interface OnPetClickListener {
+        /**
+         * Called when the pet with the given ID has been clicked.
+         */
+        void onPetClick(long id);
+    }
+
+    /** Works out the difference between two cursors, one swap at a time */
+    private static final Executor DIFF_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    /** Hands the result of a difference back to the main thread */
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /** Text shown when the breed of a pet is unknown */
+    private final String mUnknownBreed;
+
+    /** Listener for clicks on the pets */
+    private final OnPetClickListener mListener;
+
+    /** The cursor currently shown */
+    private CatalogCursor mCursor;
+
+    /** Index of the name column in {@link #mCursor} */
+    private int mNameColumnIndex;
+
+    /** Index of the breed column in {@link #mCursor} */
+    private int mBreedColumnIndex;
+
+    /** Number of the latest swap, a difference worked out for an older one is dropped */
+    private int mGeneration;
 
     /**
      * Constructs a new {@link PetCursorAdapter}.
      *
-     * @param context The context
-     * @param c       The cursor from which to get the data.
+     * @param context  The context
+     * @param listener Listener for clicks on the pets
      */
-    public PetCursorAdapter(Context context, Cursor c) {
-        super(context, c, 0 /* flags */);
+    public PetCursorAdapter(Context context, OnPetClickListener listener) {
+        mUnknownBreed = context.getString(R.string.unknown_breed);
+        mListener = listener;
+        setHasStableIds(true);
+    }
+
+    /**
+     * Show a new cursor of pet data. The rows that changed since the current cursor are
+     * updated once their difference has been worked out in the background.
+     *
+     * @param cursor the new cursor, or null to show nothing
+     */
+    public void swapCursor(final CatalogCursor cursor) {
+        final int generation = ++mGeneration;
+        final CatalogCursor oldCursor = mCursor;
+        if (oldCursor == null || cursor == null) {
+            // Nothing to compare with
+            setCursor(cursor);
+            notifyDataSetChanged();
+            return;
+        }
+
+        DIFF_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                final DiffUtil.DiffResult result =
+                        DiffUtil.calculateDiff(new CatalogDiff(oldCursor, cursor));
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation != mGeneration) {
+                            // Another cursor was swapped in meanwhile, its own difference
+                            // is on the way
+                            return;
+                        }
+                        setCursor(cursor);
+                        result.dispatchUpdatesTo(PetCursorAdapter.this);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Make the given cursor the one the adapter reads from.
+     */
+    private void setCursor(CatalogCursor cursor) {
+        mCursor = cursor;
+        if (cursor != null) {
+            //(103 - B - 2)
+            // Find the COLUMN of pet attributes that we're interested in, once per cursor
+            mNameColumnIndex = cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_NAME);
+            mBreedColumnIndex = cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_BREED);
+        }
+    }
+
+    @Override
+    public int getItemCount() {
+        return mCursor == null ? 0 : mCursor.getCount();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return mCursor.getId(position);
     }
 
     /**
      * Makes a new blank list item view. No data is set (or bound) to the views yet.
      *
-     * @param context app context
-     * @param cursor  The cursor from which to get the data. The cursor is already
-     *                moved to the correct position.
-     * @param parent  The parent to which the new view is attached to
-     * @return the newly created list item view.
+     * @param parent   The parent to which the new view is attached to
+     * @param viewType The view type of the new view
+     * @return the view holder of the newly created list item view.
      */
     @Override
-    public View newView(Context context, Cursor cursor, ViewGroup parent) {
+    public PetViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
         //(103 - A)
         // Inflate a list item view using the layout specified in list_item.xml
-        return LayoutInflater.from(context).inflate(R.layout.list_item, parent, false);
+        View view = LayoutInflater.from(parent.getContext())
+                .inflate(R.layout.list_item, parent, false);
+        final PetViewHolder holder = new PetViewHolder(view);
+        view.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                int position = holder.getAdapterPosition();
+                if (position != RecyclerView.NO_POSITION) {
+                    mListener.onPetClick(getItemId(position));
+                }
+            }
+        });
+        return holder;
     }
 
     /**
-     * This method binds the pet data (in the current row pointed to by cursor) to the given
+     * This method binds the pet data (in the row at the given position) to the given
      * list item layout. For example, the name for the current pet can be set on the name TextView
      * in the list item layout.
      *
-     * @param view    Existing view, returned earlier by newView() method
-     * @param context app context
-     * @param cursor  The cursor from which to get the data. The cursor is already moved to the
-     *                correct row.
+     * @param holder   The view holder of an existing list item
+     * @param position The position of the row in the cursor
      */
     @Override
-    public void bindView(View view, Context context, Cursor cursor) {
+    public void onBindViewHolder(PetViewHolder holder, int position) {
         //(103 - B)
-        //(103 - B - 1)
-        // Find individual views that we want to modify in the list item layout
-        TextView nameTextView = (TextView) view.findViewById(R.id.name);
-        TextView summaryTextView = (TextView) view.findViewById(R.id.summary);
-
-        //(103 - B - 2)
-        // Find the COLUMN of pet attributes that we're interested in
-        int nameColumnIndex = cursor.getColumnIndex(PetEntry.COLUMN_PET_NAME);
-        int breedColumnIndex = cursor.getColumnIndex(PetEntry.COLUMN_PET_BREED);
+        mCursor.moveToPosition(position);
 
         //(103 - B - 3)
         // Read the pet attributes from the Cursor for the current pet
-        String petName = cursor.getString(nameColumnIndex);
-        String petBreed = cursor.getString(breedColumnIndex);
+        String petName = mCursor.getString(mNameColumnIndex);
+        String petBreed = mCursor.getString(mBreedColumnIndex);
 
         //(108 - G - Last)
         //Hint: TextUtils.isEmpty(String s) returns true if the input String is null or empty.
         // If the pet breed is empty string or null, then use some default text
         // that says "Unknown breed", so the TextView isn't blank.
         if (TextUtils.isEmpty(petBreed)) {
-            petBreed = context.getString(R.string.unknown_breed);
+            petBreed = mUnknownBreed;
         }
 
         //(103 - B - 4)
         // Update the TextViews with the attributes for the current pet
-        nameTextView.setText(petName);
-        summaryTextView.setText(petBreed);
+        holder.nameTextView.setText(petName);
+        holder.summaryTextView.setText(petBreed);
+    }
+
+    /**
+     * Holds the views of a list item, so they are only looked up once.
+     */
+    static class PetViewHolder extends RecyclerView.ViewHolder {
+
+        //(103 - B - 1)
+        // Individual views that we want to modify in the list item layout
+        final TextView nameTextView;
+        final TextView summaryTextView;
+
+        PetViewHolder(View view) {
+            super(view);
+            nameTextView = (TextView) view.findViewById(R.id.name);
+            summaryTextView = (TextView) view.findViewById(R.id.summary);
+        }
+    }
+
+    /**
+     * Compares the rows of two cursors by pet ID, and then by name and breed.
+     * It only uses the thread safe getters of {@link CatalogCursor}, so the cursor on screen
+     * can keep being read while the difference is worked out.
+     */
+    private static class CatalogDiff extends DiffUtil.Callback {
+
+        private final CatalogCursor mOld;
+        private final CatalogCursor mNew;
+
+        CatalogDiff(CatalogCursor oldCursor, CatalogCursor newCursor) {
+            mOld = oldCursor;
+            mNew = newCursor;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOld.getCount();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNew.getCount();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldPosition, int newPosition) {
+            return mOld.getId(oldPosition) == mNew.getId(newPosition);
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldPosition, int newPosition) {
+            return TextUtils.equals(mOld.getName(oldPosition), mNew.getName(newPosition))
+                    && TextUtils.equals(mOld.getBreed(oldPosition), mNew.getBreed(newPosition));
+        }
     }
 }
@@ -0,0 +1,375 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kosbaship.android.pets;
+
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.kosbaship.android.pets.data.PetContract.PetEntry;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * One page of the catalog: the ID, name, breed and weight of a run of pets, in catalog order.
+ * A page is a copy of the rows, so it never has to be closed and never changes once it's built.
+ * Changes to the pets are applied by building a new page with {@link #patch}.
+ */
+public final class PetPage {
+
+    /** Columns a page is built from */
+    public static final String[] PROJECTION = {
+            PetEntry._ID,
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_WEIGHT };
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** A page without any pets */
+    public static final PetPage EMPTY = new PetPage(new long[0], new String[0], new String[0],
+            new int[0], PetEntry.SORT_NAME, null, null, false);
+
+    /**
+     * The place of a pet in catalog order: the values of the pet that the sort orders use.
+     */
+    public static final class Key {
+
+        public final String name;
+        public final String breed;
+        public final int weight;
+        public final long id;
+
+        public Key(String name, String breed, int weight, long id) {
+            this.name = name;
+            this.breed = breed;
+            this.weight = weight;
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return id == other.id && weight == other.weight && name.equals(other.name)
+                    && (breed == null ? other.breed == null : breed.equals(other.breed));
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (id ^ (id >>> 32));
+        }
+    }
+
+    private final long[] mIds;
+    private final String[] mNames;
+    private final String[] mBreeds;
+    private final int[] mWeights;
+
+    /** Sort order of the page, one of the SORT constants of {@link PetEntry} */
+    private final String mSort;
+
+    /** The pet this page starts after, null for the first page */
+    private final Key mStart;
+
+    /** The last pet the page was loaded up to, the next page starts after it */
+    private final Key mEnd;
+
+    /** Whether there may be more pets after this page */
+    private final boolean mHasMore;
+
+    private PetPage(long[] ids, String[] names, String[] breeds, int[] weights, String sort,
+                    Key start, Key end, boolean hasMore) {
+        mIds = ids;
+        mNames = names;
+        mBreeds = breeds;
+        mWeights = weights;
+        mSort = sort;
+        mStart = start;
+        mEnd = end;
+        mHasMore = hasMore;
+    }
+
+    /**
+     * Copy all the rows of the given cursor into a new page. The cursor must contain the
+     * columns of {@link #PROJECTION}, it is left open.
+     *
+     * @param limit the limit the cursor was queried with, or 0 if it holds all the pets it can
+     */
+    public static PetPage fromCursor(Cursor cursor, int limit) {
+        return fromCursor(cursor, limit, PetEntry.SORT_NAME, null);
+    }
+
+    /**
+     * Copy all the rows of the given cursor into a new page. The cursor must contain the
+     * columns of {@link #PROJECTION}, it is left open.
+     *
+     * @param uri the content URI the cursor was queried with, it gives the limit, the sort
+     *            order and the pet the page starts after
+     */
+    public static PetPage fromCursor(Cursor cursor, Uri uri) {
+        String limit = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_LIMIT);
+        String sort = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_SORT);
+        Key start = null;
+        String afterId = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_AFTER_ID);
+        if (afterId != null) {
+            String afterWeight = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_AFTER_WEIGHT);
+            start = new Key(uri.getQueryParameter(PetEntry.QUERY_PARAMETER_AFTER_NAME),
+                    uri.getQueryParameter(PetEntry.QUERY_PARAMETER_AFTER_BREED),
+                    afterWeight == null ? 0 : Integer.parseInt(afterWeight),
+                    Long.parseLong(afterId));
+        }
+        return fromCursor(cursor, limit == null ? 0 : Integer.parseInt(limit),
+                sort == null ? PetEntry.SORT_NAME : sort, start);
+    }
+
+    private static PetPage fromCursor(Cursor cursor, int limit, String sort, Key start) {
+        int idColumnIndex = cursor.getColumnIndexOrThrow(PetEntry._ID);
+        int nameColumnIndex = cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_NAME);
+        int breedColumnIndex = cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_BREED);
+        int weightColumnIndex = cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_WEIGHT);
+
+        int count = cursor.getCount();
+        long[] ids = new long[count];
+        String[] names = new String[count];
+        String[] breeds = new String[count];
+        int[] weights = new int[count];
+
+        cursor.moveToPosition(-1);
+        for (int i = 0; i < count && cursor.moveToNext(); i++) {
+            ids[i] = cursor.getLong(idColumnIndex);
+            names[i] = cursor.getString(nameColumnIndex);
+            breeds[i] = cursor.getString(breedColumnIndex);
+            weights[i] = cursor.getInt(weightColumnIndex);
+        }
+
+        if (count == 0) {
+            return new PetPage(ids, names, breeds, weights, sort, start, null, false);
+        }
+        Key end = new Key(names[count - 1], breeds[count - 1], weights[count - 1],
+                ids[count - 1]);
+        return new PetPage(ids, names, breeds, weights, sort, start, end,
+                limit > 0 && count >= limit);
+    }
+
+    /**
+     * Write the rows of this page in the binary form that {@link #readFrom} reads. Each pet is
+     * its ID, its weight, and its name and breed as UTF-8 bytes after their length.
+     */
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeBoolean(mHasMore);
+        out.writeInt(mIds.length);
+        for (int i = 0; i < mIds.length; i++) {
+            out.writeLong(mIds[i]);
+            out.writeInt(mWeights[i]);
+            writeString(out, mNames[i]);
+            writeString(out, mBreeds[i]);
+        }
+    }
+
+    /**
+     * Read a page written by {@link #writeTo}, as the first page of the catalog.
+     *
+     * @param sort the sort order of the catalog the page was written from
+     * @throws java.nio.BufferUnderflowException if the page is cut short
+     * @throws IllegalArgumentException          if it isn't a page
+     */
+    static PetPage readFrom(ByteBuffer buffer, String sort) {
+        boolean hasMore = buffer.get() != 0;
+        int count = buffer.getInt();
+        // Each pet takes at least 20 bytes, a larger count is garbage
+        if (count < 0 || count > buffer.remaining() / 20) {
+            throw new IllegalArgumentException("Invalid page size " + count);
+        }
+        long[] ids = new long[count];
+        String[] names = new String[count];
+        String[] breeds = new String[count];
+        int[] weights = new int[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = buffer.getLong();
+            weights[i] = buffer.getInt();
+            names[i] = readString(buffer);
+            breeds[i] = readString(buffer);
+            if (names[i] == null) {
+                throw new IllegalArgumentException("Pet " + ids[i] + " has no name");
+            }
+        }
+        if (count == 0) {
+            return new PetPage(ids, names, breeds, weights, sort, null, null, false);
+        }
+        Key end = new Key(names[count - 1], breeds[count - 1], weights[count - 1],
+                ids[count - 1]);
+        return new PetPage(ids, names, breeds, weights, sort, null, end, hasMore);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length == -1) {
+            return null;
+        }
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IllegalArgumentException("Invalid string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    /** Returns the number of pets on this page. */
+    public int size() {
+        return mIds.length;
+    }
+
+    /** Returns the ID of the pet at the given position on this page. */
+    public long getId(int position) {
+        return mIds[position];
+    }
+
+    /** Returns the name of the pet at the given position on this page. */
+    public String getName(int position) {
+        return mNames[position];
+    }
+
+    /** Returns the breed of the pet at the given position on this page, it may be null. */
+    public String getBreed(int position) {
+        return mBreeds[position];
+    }
+
+    /** Returns whether there may be more pets after this page. */
+    public boolean hasMore() {
+        return mHasMore;
+    }
+
+    /** Returns the pet the next page starts after, null if the page is empty. */
+    public Key getEnd() {
+        return mEnd;
+    }
+
+    /**
+     * Returns a copy of this page with some of its pets replaced by their current rows.
+     * The pets with the given IDs are taken off the page, then the given rows that sort within
+     * the range of the page are put in their place in catalog order. The range of the page
+     * stays the same.
+     *
+     * @param ids  IDs of the pets that changed
+     * @param rows current rows of those pets, pets that were deleted or no longer pass the
+     *             filters of the catalog are missing
+     * @return the patched page, or this page if the change doesn't affect it
+     */
+    public PetPage patch(long[] ids, PetPage rows) {
+        long[] changed = Arrays.copyOf(ids, ids.length);
+        Arrays.sort(changed);
+
+        int count = 0;
+        long[] newIds = new long[mIds.length + rows.size()];
+        String[] newNames = new String[newIds.length];
+        String[] newBreeds = new String[newIds.length];
+        int[] newWeights = new int[newIds.length];
+
+        // Keep the pets that didn't change, they are already in order
+        for (int i = 0; i < mIds.length; i++) {
+            if (Arrays.binarySearch(changed, mIds[i]) < 0) {
+                newIds[count] = mIds[i];
+                newNames[count] = mNames[i];
+                newBreeds[count] = mBreeds[i];
+                newWeights[count] = mWeights[i];
+                count++;
+            }
+        }
+        boolean removed = count != mIds.length;
+
+        // Insert the current rows that belong on this page
+        boolean added = false;
+        for (int i = 0; i < rows.size(); i++) {
+            Key key = rows.keyAt(i);
+            if (mStart != null && compare(key, mStart) <= 0) {
+                continue;
+            }
+            if (mHasMore && compare(key, mEnd) > 0) {
+                continue;
+            }
+            int position = count;
+            while (position > 0 && compare(new Key(newNames[position - 1],
+                    newBreeds[position - 1], newWeights[position - 1], newIds[position - 1]),
+                    key) > 0) {
+                newIds[position] = newIds[position - 1];
+                newNames[position] = newNames[position - 1];
+                newBreeds[position] = newBreeds[position - 1];
+                newWeights[position] = newWeights[position - 1];
+                position--;
+            }
+            newIds[position] = key.id;
+            newNames[position] = key.name;
+            newBreeds[position] = key.breed;
+            newWeights[position] = key.weight;
+            count++;
+            added = true;
+        }
+
+        if (!removed && !added) {
+            return this;
+        }
+        return new PetPage(Arrays.copyOf(newIds, count), Arrays.copyOf(newNames, count),
+                Arrays.copyOf(newBreeds, count), Arrays.copyOf(newWeights, count), mSort,
+                mStart, mEnd, mHasMore);
+    }
+
+    private Key keyAt(int position) {
+        return new Key(mNames[position], mBreeds[position], mWeights[position], mIds[position]);
+    }
+
+    /**
+     * Compare two pets in the sort order of this page, the same order as the provider's.
+     */
+    private int compare(Key key1, Key key2) {
+        int result;
+        if (PetEntry.SORT_WEIGHT.equals(mSort)) {
+            result = key1.weight < key2.weight ? -1 : (key1.weight == key2.weight ? 0 : 1);
+        } else {
+            result = 0;
+            if (PetEntry.SORT_BREED.equals(mSort)) {
+                // The pets without a breed come first
+                if (key1.breed == null || key2.breed == null) {
+                    result = key1.breed == null ? (key2.breed == null ? 0 : -1) : 1;
+                } else {
+                    result = key1.breed.compareTo(key2.breed);
+                }
+            }
+            if (result == 0) {
+                result = key1.name.compareTo(key2.name);
+            }
+        }
+        if (result != 0) {
+            return result;
+        }
+        return key1.id < key2.id ? -1 : (key1.id == key2.id ? 0 : 1);
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kosbaship.android.pets;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+
+import com.kosbaship.android.pets.data.PetContract.PetEntry;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * The first page of the catalog, saved in a small binary file each time it changes. On a cold
+ * start the catalog shows it straight away, while the database opens and the first page is
+ * loaded again, instead of showing nothing until then.
+ *
+ * The file is read through a memory map, so showing it costs no more than the few pages of the
+ * file that are touched, and it's replaced as a whole so a reader never sees half of it.
+ */
+public final class PetPageFile {
+
+    private static final String LOG_TAG = PetPageFile.class.getSimpleName();
+
+    /** Name of the file, in the cache directory since it can always be loaded again */
+    private static final String FILE_NAME = "catalog_first_page";
+
+    /** First bytes of the file, "Pet" and the version of the format */
+    private static final int MAGIC = 0x50657401;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** Writes the file in the background, one page after the other */
+    private static final Executor WRITE_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    private PetPageFile() {
+    }
+
+    /**
+     * Returns the saved first page of the given catalog, or null if the saved page belongs to
+     * another catalog or there is none.
+     */
+    public static PetPage read(Context context, Uri catalogUri) {
+        File file = new File(context.getCacheDir(), FILE_NAME);
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            ByteBuffer buffer;
+            RandomAccessFile input = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = input.getChannel();
+                // The mapping stays valid after the file is closed
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } finally {
+                input.close();
+            }
+
+            if (buffer.getInt() != MAGIC) {
+                return null;
+            }
+            int length = buffer.getInt();
+            if (length < 0 || length > buffer.remaining()) {
+                return null;
+            }
+            byte[] uri = new byte[length];
+            buffer.get(uri);
+            if (!catalogUri.toString().equals(new String(uri, UTF_8))) {
+                return null;
+            }
+            String sort = catalogUri.getQueryParameter(PetEntry.QUERY_PARAMETER_SORT);
+            return PetPage.readFrom(buffer, sort == null ? PetEntry.SORT_NAME : sort);
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException e) {
+            // Written by a crashed run or an older format, the page is loaded anyway
+            Log.w(LOG_TAG, "Ignoring the saved first page", e);
+            return null;
+        }
+    }
+
+    /**
+     * Save the given first page of the given catalog, on a background thread.
+     */
+    public static void write(Context context, final Uri catalogUri, final PetPage page) {
+        final File directory = context.getCacheDir();
+        WRITE_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                File file = new File(directory, FILE_NAME);
+                File newFile = new File(directory, FILE_NAME + ".new");
+                try {
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                            new FileOutputStream(newFile)));
+                    try {
+                        out.writeInt(MAGIC);
+                        byte[] uri = catalogUri.toString().getBytes(UTF_8);
+                        out.writeInt(uri.length);
+                        out.write(uri);
+                        page.writeTo(out);
+                    } finally {
+                        out.close();
+                    }
+                    // Replace the old file in one step
+                    if (!newFile.renameTo(file)) {
+                        throw new IOException("Cannot rename " + newFile);
+                    }
+                } catch (IOException e) {
+                    Log.w(LOG_TAG, "Failed to save the first page", e);
+                    newFile.delete();
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kosbaship.android.pets;
+
+import android.content.AsyncTaskLoader;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.kosbaship.android.pets.data.PetContract.PetEntry;
+
+/**
+ * Loads one {@link PetPage} of pets on a background thread.
+ *
+ * The loader doesn't watch the pet data: its owner follows the changes with a
+ * {@link com.kosbaship.android.pets.data.PetChangeObserver}, patches the page and hands it back
+ * with {@link #updatePage}, or restarts the loader when too much has changed.
+ */
+public class PetPageLoader extends AsyncTaskLoader<PetPage> {
+
+    /** Content URI of the page */
+    private final Uri mUri;
+
+    /** The last page that was loaded */
+    private PetPage mPage;
+
+    /**
+     * Constructs a new {@link PetPageLoader}.
+     *
+     * @param context of the activity
+     * @param uri     content URI of the page, for example from {@link PetEntry#buildPageUri}
+     */
+    public PetPageLoader(Context context, Uri uri) {
+        super(context);
+        mUri = uri;
+    }
+
+    @Override
+    public PetPage loadInBackground() {
+        Cursor cursor = getContext().getContentResolver().query(mUri, PetPage.PROJECTION,
+                null, null, null);
+        if (cursor == null) {
+            return PetPage.EMPTY;
+        }
+        try {
+            return PetPage.fromCursor(cursor, mUri);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Override
+    public void deliverResult(PetPage page) {
+        if (isReset()) {
+            return;
+        }
+        mPage = page;
+        if (isStarted()) {
+            super.deliverResult(page);
+        }
+    }
+
+    /**
+     * Replace the loaded page with a patched copy, so it is the one delivered again when the
+     * loader restarts.
+     */
+    public void updatePage(PetPage page) {
+        if (mPage != null) {
+            mPage = page;
+        }
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (mPage != null) {
+            deliverResult(mPage);
+        }
+        if (takeContentChanged() || mPage == null) {
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        onStopLoading();
+        mPage = null;
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kosbaship.android.pets.data;
+
+import android.content.ContentResolver;
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.os.Handler;
+
+import com.kosbaship.android.pets.data.PetContract.PetEntry;
+
+/**
+ * Observes the pets in {@link PetProvider} and tells which pets changed and how.
+ *
+ * The provider notifies small changes with the IDs of the pets and the kind of change, see
+ * {@link PetEntry#buildChangeUri}. Changes to more than {@link PetEntry#MAX_CHANGED_IDS} pets,
+ * or notifications that don't say which pets changed, are reported as
+ * {@link #onPetsInvalidated()}.
+ */
+public abstract class PetChangeObserver extends ContentObserver {
+
+    /**
+     * Constructs a new {@link PetChangeObserver}.
+     *
+     * @param handler to run the callbacks on, or null to run them on a binder thread
+     */
+    public PetChangeObserver(Handler handler) {
+        super(handler);
+    }
+
+    /**
+     * Start observing the pets.
+     */
+    public void register(ContentResolver resolver) {
+        resolver.registerContentObserver(PetEntry.CONTENT_URI, true, this);
+    }
+
+    /**
+     * Stop observing the pets.
+     */
+    public void unregister(ContentResolver resolver) {
+        resolver.unregisterContentObserver(this);
+    }
+
+    @Override
+    public final void onChange(boolean selfChange) {
+        // Before Jelly Bean, the URI of the change isn't passed to observers
+        onChange(selfChange, null);
+    }
+
+    @Override
+    public final void onChange(boolean selfChange, Uri uri) {
+        long[] ids = uri == null ? null : PetEntry.getChangedIds(uri);
+        if (ids == null) {
+            onPetsInvalidated();
+        } else if (ids.length != 0) {
+            onPetsChanged(uri.getQueryParameter(PetEntry.QUERY_PARAMETER_CHANGE), ids);
+        }
+    }
+
+    /**
+     * Called when the given pets have changed.
+     *
+     * @param change the kind of change, for example {@link PetEntry#CHANGE_UPDATE}
+     * @param ids    IDs of the pets that changed
+     */
+    public abstract void onPetsChanged(String change, long[] ids);
+
+    /**
+     * Called when any of the pets may have changed.
+     */
+    public abstract void onPetsInvalidated();
+}
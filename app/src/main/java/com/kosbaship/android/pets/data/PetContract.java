@@ -66,6 +66,50 @@ public final class PetContract {
      */
     public static final String PATH_PETS = "pets";
 
+    /**
+     * Path appended to the pets content URI to search the pets by name and breed.
+     * For instance, content://com.example.android.pets/pets/search/max finds the pets
+     * named "Max" or "Maxine".
+     */
+    public static final String PATH_SEARCH = "search";
+
+    /**
+     * Path appended to the pets content URI to read the statistics of the content provider.
+     * For instance, content://com.example.android.pets/pets/_stats.
+     */
+    public static final String PATH_STATS = "_stats";
+
+    /**
+     * Path appended to the pets content URI to count the pets.
+     * For instance, content://com.example.android.pets/pets/count.
+     */
+    public static final String PATH_COUNT = "count";
+
+    /**
+     * Path appended to the pets content URI for the summary of all the pets: how many there are
+     * of each gender and how much they weigh. For instance,
+     * content://com.example.android.pets/pets/stats.
+     */
+    public static final String PATH_SUMMARY = "stats";
+
+    /**
+     * Path appended to the summary URI for the summary of each breed.
+     * For instance, content://com.example.android.pets/pets/stats/breeds/Tabby.
+     */
+    public static final String PATH_BREEDS = "breeds";
+
+    /**
+     * Path appended to the pets content URI to export all the pets as a file.
+     * For instance, content://com.example.android.pets/pets/export/csv.
+     */
+    public static final String PATH_EXPORT = "export";
+
+    /**
+     * Path appended to the pets content URI for the deleted pets that aren't purged yet, which
+     * an update restores. For instance, content://com.example.android.pets/pets/deleted.
+     */
+    public static final String PATH_DELETED = "deleted";
+
     /**
      * Inner class that defines constant values for the pets database table.
      * Each entry in the table represents a single pet.
@@ -77,6 +121,23 @@ public final class PetContract {
         // to the path segment (pets).
         /** The content URI to access the pet data in the provider */
         public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_PETS);
+        /**
+         * The content URI to search the pets. Append the search term to it as a path segment,
+         * or use {@link #buildSearchUri}.
+         */
+        public static final Uri CONTENT_SEARCH_URI = Uri.withAppendedPath(CONTENT_URI, PATH_SEARCH);
+        /**
+         * The content URI to count the pets. The cursor has a single row with a single column,
+         * {@link #_COUNT}.
+         */
+        public static final Uri CONTENT_COUNT_URI = Uri.withAppendedPath(CONTENT_URI, PATH_COUNT);
+        /**
+         * The content URI of the deleted pets. Deleted pets are kept for a while before they
+         * are purged, and updating this URI with empty values restores them. Use
+         * {@link #buildRestoreUri} to restore only the pets deleted since a given time.
+         */
+        public static final Uri CONTENT_DELETED_URI =
+                Uri.withAppendedPath(CONTENT_URI, PATH_DELETED);
 //------------------------------------MIME type-----------------------------------------------------
         //(101 - N - 2)
         //(101 - N - 3) go to PetProvider.java
@@ -93,6 +154,374 @@ public final class PetContract {
                 ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_PETS;
 
 //------------------------------------MIME type-----------------------------------------------------
+
+        /**
+         * Query parameter on {@link #CONTENT_URI}: the order of the pets, one of
+         * {@link #SORT_NAME}, {@link #SORT_BREED} or {@link #SORT_WEIGHT}. Each order has an index
+         * behind it, so it also applies to pages. Can't be combined with a sort order argument.
+         */
+        public static final String QUERY_PARAMETER_SORT = "sort";
+
+        /** Sort order: by {@link #COLUMN_PET_NAME}, then {@link #_ID}. The default for pages. */
+        public static final String SORT_NAME = "name";
+
+        /**
+         * Sort order: by {@link #COLUMN_PET_BREED}, then {@link #COLUMN_PET_NAME} and {@link #_ID}.
+         * The pets without a breed come first.
+         */
+        public static final String SORT_BREED = "breed";
+
+        /** Sort order: by {@link #COLUMN_PET_WEIGHT}, then {@link #_ID} */
+        public static final String SORT_WEIGHT = "weight";
+
+        /**
+         * Query parameter on {@link #CONTENT_URI} and {@link #CONTENT_COUNT_URI}: only the pets of
+         * this gender, one of the GENDER constants.
+         */
+        public static final String QUERY_PARAMETER_GENDER = "gender";
+
+        /**
+         * Query parameter on {@link #CONTENT_URI} and {@link #CONTENT_COUNT_URI}: only the pets
+         * that weigh at least this much.
+         */
+        public static final String QUERY_PARAMETER_MIN_WEIGHT = "min_weight";
+
+        /**
+         * Query parameter on {@link #CONTENT_URI} and {@link #CONTENT_COUNT_URI}: only the pets
+         * that weigh at most this much.
+         */
+        public static final String QUERY_PARAMETER_MAX_WEIGHT = "max_weight";
+
+        /**
+         * Query parameter on {@link #CONTENT_URI} and {@link #CONTENT_COUNT_URI}: only the pets
+         * of this breed. An empty breed stands for the pets without a breed.
+         */
+        public static final String QUERY_PARAMETER_BREED = "breed";
+
+        /**
+         * Returns the content URI for the pets in the given order that pass all the given
+         * filters. Pages of it are built with {@link #buildPageUri(Uri, int)}, and the same filters
+         * work on {@link #CONTENT_COUNT_URI} with {@link #buildCountUri}.
+         *
+         * @param sort      one of the SORT constants, or null for the default order
+         * @param gender    the gender of the pets, or null for any gender
+         * @param minWeight the lowest weight of the pets, or null for no lower bound
+         * @param maxWeight the highest weight of the pets, or null for no upper bound
+         * @param breed     the breed of the pets, "" for the pets without a breed, or null for
+         *                  any breed
+         */
+        public static Uri buildCatalogUri(String sort, Integer gender, Integer minWeight,
+                                          Integer maxWeight, String breed) {
+            Uri.Builder builder = CONTENT_URI.buildUpon();
+            if (sort != null) {
+                builder.appendQueryParameter(QUERY_PARAMETER_SORT, sort);
+            }
+            if (gender != null) {
+                builder.appendQueryParameter(QUERY_PARAMETER_GENDER, String.valueOf(gender));
+            }
+            if (minWeight != null) {
+                builder.appendQueryParameter(QUERY_PARAMETER_MIN_WEIGHT,
+                        String.valueOf(minWeight));
+            }
+            if (maxWeight != null) {
+                builder.appendQueryParameter(QUERY_PARAMETER_MAX_WEIGHT,
+                        String.valueOf(maxWeight));
+            }
+            if (breed != null) {
+                builder.appendQueryParameter(QUERY_PARAMETER_BREED, breed);
+            }
+            return builder.build();
+        }
+
+        /**
+         * Returns the content URI that counts the pets of the given catalog URI, from
+         * {@link #buildCatalogUri}.
+         */
+        public static Uri buildCountUri(Uri catalogUri) {
+            Uri.Builder builder = CONTENT_COUNT_URI.buildUpon();
+            for (String name : new String[] { QUERY_PARAMETER_GENDER, QUERY_PARAMETER_MIN_WEIGHT,
+                    QUERY_PARAMETER_MAX_WEIGHT, QUERY_PARAMETER_BREED }) {
+                String value = catalogUri.getQueryParameter(name);
+                if (value != null) {
+                    builder.appendQueryParameter(name, value);
+                }
+            }
+            return builder.build();
+        }
+
+        /**
+         * Query parameter on {@link #CONTENT_URI} for the maximum number of pets to return.
+         * When it is present the pets come back one page at a time, in the order of
+         * {@link #QUERY_PARAMETER_SORT}.
+         */
+        public static final String QUERY_PARAMETER_LIMIT = "limit";
+
+        /**
+         * Query parameter on {@link #CONTENT_URI} for the ID of the last pet on the previous page.
+         * When it is present only the pets that sort after that pet are returned, the rest of
+         * its sort key is given by {@link #QUERY_PARAMETER_AFTER_NAME},
+         * {@link #QUERY_PARAMETER_AFTER_BREED} and {@link #QUERY_PARAMETER_AFTER_WEIGHT}.
+         */
+        public static final String QUERY_PARAMETER_AFTER_ID = "after_id";
+
+        /** Query parameter on {@link #CONTENT_URI}: name of the last pet on the previous page */
+        public static final String QUERY_PARAMETER_AFTER_NAME = "after_name";
+
+        /**
+         * Query parameter on {@link #CONTENT_URI}: the breed of the last pet on the previous page,
+         * left out if it has no breed.
+         */
+        public static final String QUERY_PARAMETER_AFTER_BREED = "after_breed";
+
+        /** Query parameter on {@link #CONTENT_URI}: weight of the last pet on the previous page */
+        public static final String QUERY_PARAMETER_AFTER_WEIGHT = "after_weight";
+
+        /**
+         * Returns the content URI for one page of pets, sorted by name.
+         *
+         * @param afterName name of the last pet on the previous page, or null for the first page
+         * @param afterId   ID of the last pet on the previous page
+         * @param limit     maximum number of pets on the page
+         */
+        public static Uri buildPageUri(String afterName, long afterId, int limit) {
+            Uri.Builder builder = CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit));
+            if (afterName != null) {
+                builder.appendQueryParameter(QUERY_PARAMETER_AFTER_NAME, afterName)
+                        .appendQueryParameter(QUERY_PARAMETER_AFTER_ID, String.valueOf(afterId));
+            }
+            return builder.build();
+        }
+
+        /**
+         * Returns the content URI for the first page of the given catalog URI, from
+         * {@link #buildCatalogUri}.
+         *
+         * @param limit maximum number of pets on the page
+         */
+        public static Uri buildPageUri(Uri catalogUri, int limit) {
+            return catalogUri.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit))
+                    .build();
+        }
+
+        /**
+         * Returns the content URI for the page of the given catalog URI that comes after the
+         * given pet.
+         *
+         * @param catalogUri  from {@link #buildCatalogUri}
+         * @param afterName   name of the last pet on the previous page
+         * @param afterBreed  breed of the last pet on the previous page, may be null
+         * @param afterWeight weight of the last pet on the previous page
+         * @param afterId     ID of the last pet on the previous page
+         * @param limit       maximum number of pets on the page
+         */
+        public static Uri buildPageUri(Uri catalogUri, String afterName, String afterBreed,
+                                       int afterWeight, long afterId, int limit) {
+            Uri.Builder builder = catalogUri.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit))
+                    .appendQueryParameter(QUERY_PARAMETER_AFTER_ID, String.valueOf(afterId))
+                    .appendQueryParameter(QUERY_PARAMETER_AFTER_NAME, afterName)
+                    .appendQueryParameter(QUERY_PARAMETER_AFTER_WEIGHT,
+                            String.valueOf(afterWeight));
+            if (afterBreed != null) {
+                builder.appendQueryParameter(QUERY_PARAMETER_AFTER_BREED, afterBreed);
+            }
+            return builder.build();
+        }
+
+        /**
+         * Query parameter on the URIs that {@link #CONTENT_URI} observers are notified with:
+         * the kind of change, one of {@link #CHANGE_INSERT}, {@link #CHANGE_UPDATE} or
+         * {@link #CHANGE_DELETE}. Use {@link PetChangeObserver} to read these notifications.
+         */
+        public static final String QUERY_PARAMETER_CHANGE = "change";
+
+        /**
+         * Query parameter on the URIs that {@link #CONTENT_URI} observers are notified with:
+         * the comma separated IDs of the pets that changed.
+         */
+        public static final String QUERY_PARAMETER_IDS = "ids";
+
+        /** Kind of change: the pets were inserted */
+        public static final String CHANGE_INSERT = "insert";
+
+        /** Kind of change: the pets were updated */
+        public static final String CHANGE_UPDATE = "update";
+
+        /** Kind of change: the pets were deleted */
+        public static final String CHANGE_DELETE = "delete";
+
+        /**
+         * Maximum number of pet IDs in a change notification. When more pets change at once,
+         * observers are notified with the plain {@link #CONTENT_URI}, meaning that anything
+         * may have changed.
+         */
+        public static final int MAX_CHANGED_IDS = 100;
+
+        /**
+         * Returns the URI that observers are notified with when the given pets change.
+         *
+         * @param change the kind of change, for example {@link #CHANGE_UPDATE}
+         * @param ids    IDs of the pets that changed, at most {@link #MAX_CHANGED_IDS}
+         */
+        public static Uri buildChangeUri(String change, long[] ids) {
+            StringBuilder idList = new StringBuilder();
+            for (long id : ids) {
+                if (idList.length() > 0) {
+                    idList.append(',');
+                }
+                idList.append(id);
+            }
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_CHANGE, change)
+                    .appendQueryParameter(QUERY_PARAMETER_IDS, idList.toString())
+                    .build();
+        }
+
+        /**
+         * Returns the IDs of the pets that changed, from a URI built by {@link #buildChangeUri},
+         * or null if the URI doesn't say which pets changed.
+         */
+        public static long[] getChangedIds(Uri uri) {
+            String idList = uri.getQueryParameter(QUERY_PARAMETER_IDS);
+            if (idList == null || uri.getQueryParameter(QUERY_PARAMETER_CHANGE) == null) {
+                return null;
+            }
+            if (idList.isEmpty()) {
+                return new long[0];
+            }
+            String[] parts = idList.split(",");
+            long[] ids = new long[parts.length];
+            try {
+                for (int i = 0; i < parts.length; i++) {
+                    ids[i] = Long.parseLong(parts[i]);
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            return ids;
+        }
+
+        /**
+         * Query parameter of {@link #CONTENT_DELETED_URI}: only the pets deleted at or after
+         * this time, in milliseconds since the epoch.
+         */
+        public static final String QUERY_PARAMETER_DELETED_SINCE = "since";
+
+        /**
+         * Returns the URI to update with empty values to restore the pets deleted at or after
+         * the given time, as long as they aren't purged yet.
+         *
+         * @param since time in milliseconds since the epoch, as given by
+         *              {@link System#currentTimeMillis()}
+         */
+        public static Uri buildRestoreUri(long since) {
+            return CONTENT_DELETED_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_DELETED_SINCE, String.valueOf(since))
+                    .build();
+        }
+
+        /**
+         * Method of {@link ContentResolver#call} on {@link #CONTENT_URI} that reads many pets
+         * with a single call, instead of a query of each pet. Put their IDs in
+         * {@link #EXTRA_IDS}. The result holds the pets that exist, once each and in ID order, as
+         * arrays in the same order: {@link #EXTRA_IDS}, {@link #EXTRA_NAMES},
+         * {@link #EXTRA_BREEDS}, {@link #EXTRA_GENDERS} and {@link #EXTRA_WEIGHTS}.
+         */
+        public static final String METHOD_GET_PETS_BY_IDS = "getPetsByIds";
+
+        /**
+         * Method of {@link ContentResolver#call} on {@link #CONTENT_URI} that changes the weight
+         * of many pets at once. Put their IDs in {@link #EXTRA_IDS} and their new weights in
+         * {@link #EXTRA_WEIGHTS}, in the same order; a pet given twice gets the first weight.
+         * The result holds the IDs of the pets that were updated in {@link #EXTRA_IDS}.
+         */
+        public static final String METHOD_UPDATE_WEIGHTS = "updateWeights";
+
+        /**
+         * Method of {@link ContentResolver#call} on {@link #CONTENT_URI} that deletes many pets
+         * at once. Put their IDs in {@link #EXTRA_IDS}. The result holds the IDs of the pets that
+         * were deleted in {@link #EXTRA_IDS}, they can be restored like any deleted pet.
+         */
+        public static final String METHOD_DELETE_BY_IDS = "deleteByIds";
+
+        /**
+         * Method of {@link ContentResolver#call} on {@link #CONTENT_URI} that inserts many pets
+         * at once, like {@link ContentResolver#bulkInsert} but telling which rows failed. Put
+         * their values in {@link #EXTRA_VALUES}. The valid rows are inserted in one transaction
+         * and the others are left out. The result holds the ID of the new pet of each row in
+         * {@link #EXTRA_IDS}, -1 for a row that wasn't inserted, and the indexes of those rows
+         * in {@link #EXTRA_FAILED_ROWS}.
+         */
+        public static final String METHOD_BULK_INSERT = "bulkInsert";
+
+        /** Extra of the pet methods: the IDs of the pets, a long array */
+        public static final String EXTRA_IDS = "ids";
+
+        /** Extra of the pet methods: the names of the pets, a String array */
+        public static final String EXTRA_NAMES = "names";
+
+        /** Extra of the pet methods: the breeds of the pets, a String array */
+        public static final String EXTRA_BREEDS = "breeds";
+
+        /** Extra of the pet methods: the genders of the pets, an int array */
+        public static final String EXTRA_GENDERS = "genders";
+
+        /** Extra of the pet methods: the weights of the pets, an int array */
+        public static final String EXTRA_WEIGHTS = "weights";
+
+        /** Extra of the pet methods: the values of the pets, a ContentValues array */
+        public static final String EXTRA_VALUES = "values";
+
+        /** Extra of the pet methods: the indexes of the rows that failed, an int array */
+        public static final String EXTRA_FAILED_ROWS = "failedRows";
+
+        /**
+         * Returns the content URI to search the pets whose name or breed has a word starting with
+         * each word of the given term. The results come back with the best matches first.
+         *
+         * @param term  the words to look for
+         * @param limit maximum number of pets to return
+         */
+        public static Uri buildSearchUri(String term, int limit) {
+            return CONTENT_SEARCH_URI.buildUpon()
+                    .appendPath(term)
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit))
+                    .build();
+        }
+
+        /**
+         * The content URI to export all the pets, to open with
+         * {@link ContentResolver#openTypedAssetFileDescriptor} with the MIME type of the format,
+         * {@link #EXPORT_CSV_TYPE} or {@link #EXPORT_JSON_TYPE}. Opened as a plain file, it gives
+         * CSV. The data is streamed through a pipe while the pets are read.
+         */
+        public static final Uri CONTENT_EXPORT_URI = Uri.withAppendedPath(CONTENT_URI,
+                PATH_EXPORT);
+
+        /** Export format: comma separated values, with a header line */
+        public static final String EXPORT_FORMAT_CSV = "csv";
+
+        /** Export format: a JSON array with an object for each pet */
+        public static final String EXPORT_FORMAT_JSON = "json";
+
+        /** The MIME type of the CSV export */
+        public static final String EXPORT_CSV_TYPE = "text/csv";
+
+        /** The MIME type of the JSON export */
+        public static final String EXPORT_JSON_TYPE = "application/json";
+
+        /**
+         * Returns the content URI to export all the pets in the given format, which can be
+         * opened with {@link ContentResolver#openInputStream}.
+         *
+         * @param format {@link #EXPORT_FORMAT_CSV} or {@link #EXPORT_FORMAT_JSON}
+         */
+        public static Uri buildExportUri(String format) {
+            return CONTENT_EXPORT_URI.buildUpon().appendPath(format).build();
+        }
+
         /** Name of database table for pets */
         public final static String TABLE_NAME = "pets";
 
@@ -160,5 +589,201 @@ public final class PetContract {
         }
     }
 
+    /**
+     * Summary of the pets: how many there are of each gender and how much they weigh, for all
+     * the pets and for each breed. The summary is kept up to date by the database as the pets
+     * change, so reading it doesn't go through the pets.
+     */
+    public static final class SummaryEntry implements BaseColumns {
+
+        private SummaryEntry() {}
+
+        /** The content URI for the summary of all the pets, the cursor has a single row */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(PetEntry.CONTENT_URI,
+                PATH_SUMMARY);
+
+        /**
+         * The content URI for the summary of each breed, one row per breed sorted by breed.
+         * Append a breed to it for the summary of that breed only, or use
+         * {@link #buildBreedUri}.
+         */
+        public static final Uri CONTENT_BREEDS_URI = Uri.withAppendedPath(CONTENT_URI,
+                PATH_BREEDS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_BREEDS_URI}.
+         */
+        public static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE
+                + "/" + CONTENT_AUTHORITY + "/" + PATH_SUMMARY;
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} and of a single breed.
+         */
+        public static final String CONTENT_ITEM_TYPE = ContentResolver.CURSOR_ITEM_BASE_TYPE
+                + "/" + CONTENT_AUTHORITY + "/" + PATH_SUMMARY;
+
+        /**
+         * Returns the content URI for the summary of the given breed. The cursor is empty if
+         * there is no pet of that breed.
+         */
+        public static Uri buildBreedUri(String breed) {
+            return CONTENT_BREEDS_URI.buildUpon().appendPath(breed).build();
+        }
+
+        /** Name of database table for the summary */
+        public final static String TABLE_NAME = "pets_summary";
+
+        /**
+         * The breed, or null in the summary of all the pets and of the pets of unknown breed.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_BREED = "breed";
+
+        /**
+         * Number of pets.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_PET_COUNT = "pet_count";
+
+        /**
+         * Number of male pets.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_MALE_COUNT = "male_count";
+
+        /**
+         * Number of female pets.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_FEMALE_COUNT = "female_count";
+
+        /**
+         * Number of pets of unknown gender.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_UNKNOWN_GENDER_COUNT = "unknown_gender_count";
+
+        /**
+         * Total weight of the pets.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_TOTAL_WEIGHT = "total_weight";
+
+        /**
+         * Average weight of the pets, null if there are none. Only for reading, it isn't stored.
+         *
+         * Type: REAL
+         */
+        public final static String COLUMN_AVERAGE_WEIGHT = "average_weight";
+    }
+
+    /**
+     * Statistics of the calls to the content provider since it started or since they were
+     * last reset. Query {@link #CONTENT_URI} to read them, one row for each route and operation
+     * that was called, and delete it to reset them.
+     */
+    public static final class StatsEntry {
+
+        private StatsEntry() {}
+
+        /** The content URI to access the statistics */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(PetEntry.CONTENT_URI,
+                PATH_STATS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI}.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_STATS;
+
+        /**
+         * URI pattern the calls were made to, for example "pets/#", or "call/" and the method
+         * for the calls of {@link ContentResolver#call}, for example "call/getPetsByIds".
+         *
+         * Type: TEXT
+         */
+        public static final String COLUMN_ROUTE = "route";
+
+        /**
+         * The operation, one of "query", "insert", "bulk_insert", "update", "delete" or "call".
+         * The route "pets/#" also has the operations {@link #OPERATION_CACHE_HIT} and
+         * {@link #OPERATION_CACHE_MISS}, which only count calls.
+         *
+         * Type: TEXT
+         */
+        public static final String COLUMN_OPERATION = "operation";
+
+        /**
+         * Number of calls that completed.
+         *
+         * Type: INTEGER
+         */
+        public static final String COLUMN_CALLS = "calls";
+
+        /**
+         * Number of rows inserted, updated or deleted by the calls.
+         *
+         * Type: INTEGER
+         */
+        public static final String COLUMN_ROWS_AFFECTED = "rows_affected";
+
+        /**
+         * Number of rows returned by the calls. For queries, the rows the callers read, which
+         * are counted when they close the cursors.
+         *
+         * Type: INTEGER
+         */
+        public static final String COLUMN_ROWS_RETURNED = "rows_returned";
+
+        /**
+         * Total time spent in the calls, in microseconds. For queries, the time until the
+         * cursor was returned: the database reads the rows as the caller moves through them.
+         *
+         * Type: INTEGER
+         */
+        public static final String COLUMN_TOTAL_LATENCY_US = "total_latency_us";
+
+        /**
+         * Time spent in the slowest call, in microseconds.
+         *
+         * Type: INTEGER
+         */
+        public static final String COLUMN_MAX_LATENCY_US = "max_latency_us";
+
+        /**
+         * Histogram of the time spent in the calls: {@link #HISTOGRAM_BUCKETS} comma separated
+         * counts. Bucket 0 counts the calls that took less than 1 microsecond, bucket i the ones
+         * that took from 2^(i-1) up to 2^i microseconds, and the last bucket all the slower ones.
+         *
+         * Type: TEXT
+         */
+        public static final String COLUMN_HISTOGRAM = "histogram";
+
+        /** Number of buckets in {@link #COLUMN_HISTOGRAM} */
+        public static final int HISTOGRAM_BUCKETS = 22;
+
+        /** Operation counting the single pet queries answered from memory */
+        public static final String OPERATION_CACHE_HIT = "cache_hit";
+
+        /** Operation counting the single pet queries that had to read the database */
+        public static final String OPERATION_CACHE_MISS = "cache_miss";
+
+        /** All the columns of the statistics, in order */
+        public static final String[] COLUMNS = {
+                COLUMN_ROUTE,
+                COLUMN_OPERATION,
+                COLUMN_CALLS,
+                COLUMN_ROWS_AFFECTED,
+                COLUMN_ROWS_RETURNED,
+                COLUMN_TOTAL_LATENCY_US,
+                COLUMN_MAX_LATENCY_US,
+                COLUMN_HISTOGRAM };
+    }
 }
 
@@ -15,11 +15,20 @@
  */
 package com.kosbaship.android.pets.data;
 
+import android.annotation.TargetApi;
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+import android.os.CancellationSignal;
 
 import com.kosbaship.android.pets.data.PetContract.PetEntry;
+import com.kosbaship.android.pets.data.PetContract.SummaryEntry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
 
 /**
  * Database helper for Pets app. Manages database creation and version management.
@@ -34,15 +43,790 @@ public class PetDbHelper extends SQLiteOpenHelper {
     /**
      * Database version. If you change the database schema, you must increment the database version.
      */
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = 11;
+
+    /** Name of the table of breeds, which the pets refer to by ID */
+    static final String BREEDS_TABLE_NAME = "breeds";
+
+    /** Column of the pets and the breeds tables with the ID of the breed */
+    static final String COLUMN_BREED_ID = "breed_id";
+
+    /** ID of the breed row of the pets without a breed, its breed is null */
+    static final long NO_BREED_ID = 0;
 
     /**
-     * Constructs a new instance of {@link PetDbHelper}.
+     * The pets joined with their breeds, which has the columns of {@link PetEntry} under their
+     * usual names. Every pet has a breed row, so it's an inner join and SQLite is free to start
+     * from either table.
+     */
+    static final String PETS_WITH_BREEDS = PetEntry.TABLE_NAME + " JOIN " + BREEDS_TABLE_NAME
+            + " USING (" + COLUMN_BREED_ID + ")";
+
+    /**
+     * Column of the pets table with the time the pet was deleted at, in milliseconds since the
+     * epoch, or 0 if it wasn't. A deleted pet stays in the table as a tombstone until
+     * {@link PetPurger} removes it, so the delete can be undone meanwhile.
+     */
+    static final String COLUMN_DELETED = "deleted";
+
+    /**
+     * View of the pets that aren't deleted, joined with their breeds, which has the columns of
+     * {@link PetEntry} under their usual names and the breed ID of the breeds table. All the
+     * reads of the pets go through it.
+     */
+    static final String LIVE_PETS = "live_pets";
+
+    /**
+     * {@link #LIVE_PETS} read from the breeds to the pets, which the pets sorted by breed are
+     * read from. Left to itself, SQLite starts the join from the pets and sorts them all.
+     */
+    static final String LIVE_PETS_BY_BREED = "live_pets_by_breed";
+
+    /** The columns of {@link #LIVE_PETS} */
+    private static final String LIVE_PETS_COLUMNS =
+            PetEntry.TABLE_NAME + "." + PetEntry._ID + " AS " + PetEntry._ID + ", "
+            + PetEntry.TABLE_NAME + "." + PetEntry.COLUMN_PET_NAME + " AS "
+            + PetEntry.COLUMN_PET_NAME + ", "
+            + BREEDS_TABLE_NAME + "." + PetEntry.COLUMN_PET_BREED + " AS "
+            + PetEntry.COLUMN_PET_BREED + ", "
+            + PetEntry.TABLE_NAME + "." + PetEntry.COLUMN_PET_GENDER + " AS "
+            + PetEntry.COLUMN_PET_GENDER + ", "
+            + PetEntry.TABLE_NAME + "." + PetEntry.COLUMN_PET_WEIGHT + " AS "
+            + PetEntry.COLUMN_PET_WEIGHT + ", "
+            + BREEDS_TABLE_NAME + "." + COLUMN_BREED_ID + " AS " + COLUMN_BREED_ID;
+
+    /**
+     * The unary plus keeps SQLite from using the index of the deleted column for the live
+     * pets, as almost all of them pass the test. Without statistics it would take that index
+     * over the ones the catalog is sorted by, and sort the whole table for every page.
+     */
+    private static final String SQL_CREATE_LIVE_PETS_VIEW = "CREATE VIEW IF NOT EXISTS "
+            + LIVE_PETS + " AS SELECT " + LIVE_PETS_COLUMNS + " FROM " + PETS_WITH_BREEDS
+            + " WHERE +" + PetEntry.TABLE_NAME + "." + COLUMN_DELETED + " = 0;";
+
+    /**
+     * A cross join keeps the order of its tables, so the breeds come in breed order from the
+     * breed index and the pets of each breed in name order from the breed index of the pets.
+     */
+    private static final String SQL_CREATE_LIVE_PETS_BY_BREED_VIEW = "CREATE VIEW IF NOT EXISTS "
+            + LIVE_PETS_BY_BREED + " AS SELECT " + LIVE_PETS_COLUMNS + " FROM "
+            + BREEDS_TABLE_NAME + " CROSS JOIN " + PetEntry.TABLE_NAME + " USING ("
+            + COLUMN_BREED_ID + ") WHERE +" + PetEntry.TABLE_NAME + "." + COLUMN_DELETED
+            + " = 0;";
+
+    /**
+     * Name of the pets table that {@link #MOVE_BREEDS} copies the pets of a database older than
+     * version 7 into, with their breed IDs, and which then takes the place of the pets table
+     */
+    private static final String MOVED_PETS_TABLE_NAME = PetEntry.TABLE_NAME + "_new";
+
+    /**
+     * Breed ID of the pets in the pets table of a database older than version 7 whose breed is
+     * still in the breed column, until the table is replaced by {@link #MOVED_PETS_TABLE_NAME}.
+     * The pets the app writes meanwhile get a breed ID of the breeds table.
+     */
+    private static final long UNRESOLVED_BREED_ID = -1;
+
+    /**
+     * {@link #LIVE_PETS} while the breeds are being moved, which reads the breed from the breed
+     * column of the pets that don't have a breed ID yet. The pets without a breed show the breed
+     * ID of the pets without a breed whether they have it yet or not.
+     */
+    private static final String MOVING_LIVE_PETS_SELECT = "SELECT "
+            + PetEntry.TABLE_NAME + "." + PetEntry._ID + " AS " + PetEntry._ID + ", "
+            + PetEntry.TABLE_NAME + "." + PetEntry.COLUMN_PET_NAME + " AS "
+            + PetEntry.COLUMN_PET_NAME + ", CASE WHEN "
+            + PetEntry.TABLE_NAME + "." + COLUMN_BREED_ID + " < 0 THEN "
+            + PetEntry.TABLE_NAME + "." + PetEntry.COLUMN_PET_BREED + " ELSE "
+            + BREEDS_TABLE_NAME + "." + PetEntry.COLUMN_PET_BREED + " END AS "
+            + PetEntry.COLUMN_PET_BREED + ", "
+            + PetEntry.TABLE_NAME + "." + PetEntry.COLUMN_PET_GENDER + " AS "
+            + PetEntry.COLUMN_PET_GENDER + ", "
+            + PetEntry.TABLE_NAME + "." + PetEntry.COLUMN_PET_WEIGHT + " AS "
+            + PetEntry.COLUMN_PET_WEIGHT + ", "
+            + "CASE WHEN " + PetEntry.TABLE_NAME + "." + COLUMN_BREED_ID + " < 0 AND IFNULL("
+            + PetEntry.TABLE_NAME + "." + PetEntry.COLUMN_PET_BREED + ", '') = '' THEN "
+            + NO_BREED_ID + " ELSE " + PetEntry.TABLE_NAME + "." + COLUMN_BREED_ID + " END AS "
+            + COLUMN_BREED_ID + " FROM " + PetEntry.TABLE_NAME + " LEFT JOIN "
+            + BREEDS_TABLE_NAME + " USING (" + COLUMN_BREED_ID + ") WHERE +"
+            + PetEntry.TABLE_NAME + "." + COLUMN_DELETED + " = 0";
+
+    /** Creates {@link #LIVE_PETS} while the breeds are being moved */
+    private static final String SQL_CREATE_MOVING_LIVE_PETS_VIEW = "CREATE VIEW IF NOT EXISTS "
+            + LIVE_PETS + " AS " + MOVING_LIVE_PETS_SELECT + ";";
+
+    /**
+     * {@link #LIVE_PETS_BY_BREED} while the breeds are being moved, the pets that don't have a
+     * breed ID yet have no breed row to start from.
+     */
+    private static final String SQL_CREATE_MOVING_LIVE_PETS_BY_BREED_VIEW =
+            "CREATE VIEW IF NOT EXISTS " + LIVE_PETS_BY_BREED + " AS "
+                    + MOVING_LIVE_PETS_SELECT + ";";
+
+    /**
+     * Triggers that make the same changes to {@link #MOVED_PETS_TABLE_NAME} as the app makes to
+     * the pets table while the breeds are being moved. A pet the copy hasn't reached yet is
+     * copied over again when it is.
+     */
+    private static final String[] SQL_CREATE_MOVE_TRIGGERS = {
+            "CREATE TRIGGER IF NOT EXISTS pets_move_insert AFTER INSERT ON "
+                    + PetEntry.TABLE_NAME + " BEGIN INSERT OR REPLACE INTO "
+                    + MOVED_PETS_TABLE_NAME + " (" + PetEntry._ID + ", "
+                    + PetEntry.COLUMN_PET_NAME + ", " + COLUMN_BREED_ID + ", "
+                    + PetEntry.COLUMN_PET_GENDER + ", " + PetEntry.COLUMN_PET_WEIGHT + ", "
+                    + COLUMN_DELETED + ") VALUES (new." + PetEntry._ID + ", new."
+                    + PetEntry.COLUMN_PET_NAME + ", " + resolvedBreedId("new") + ", new."
+                    + PetEntry.COLUMN_PET_GENDER + ", new." + PetEntry.COLUMN_PET_WEIGHT
+                    + ", new." + COLUMN_DELETED + "); END;",
+            "CREATE TRIGGER IF NOT EXISTS pets_move_update AFTER UPDATE ON "
+                    + PetEntry.TABLE_NAME + " BEGIN UPDATE " + MOVED_PETS_TABLE_NAME + " SET "
+                    + PetEntry.COLUMN_PET_NAME + " = new." + PetEntry.COLUMN_PET_NAME + ", "
+                    + COLUMN_BREED_ID + " = " + resolvedBreedId("new") + ", "
+                    + PetEntry.COLUMN_PET_GENDER + " = new." + PetEntry.COLUMN_PET_GENDER + ", "
+                    + PetEntry.COLUMN_PET_WEIGHT + " = new." + PetEntry.COLUMN_PET_WEIGHT + ", "
+                    + COLUMN_DELETED + " = new." + COLUMN_DELETED
+                    + " WHERE " + PetEntry._ID + " = new." + PetEntry._ID + "; END;",
+            "CREATE TRIGGER IF NOT EXISTS pets_move_delete AFTER DELETE ON "
+                    + PetEntry.TABLE_NAME + " BEGIN DELETE FROM " + MOVED_PETS_TABLE_NAME
+                    + " WHERE " + PetEntry._ID + " = old." + PetEntry._ID + "; END;" };
+
+    /**
+     * Each distinct breed once. The unique constraint is also the index the pets are sorted
+     * and filtered by breed with.
+     */
+    private static final String SQL_CREATE_BREEDS_TABLE = "CREATE TABLE IF NOT EXISTS "
+            + BREEDS_TABLE_NAME + " ("
+            + COLUMN_BREED_ID + " INTEGER PRIMARY KEY, "
+            + PetEntry.COLUMN_PET_BREED + " TEXT UNIQUE);";
+
+    /** The breed row of the pets without a breed */
+    private static final String SQL_INSERT_NO_BREED = "INSERT OR IGNORE INTO " + BREEDS_TABLE_NAME
+            + " (" + COLUMN_BREED_ID + ", " + PetEntry.COLUMN_PET_BREED + ") VALUES ("
+            + NO_BREED_ID + ", NULL);";
+
+    /** Index on the pet name, used to sort the catalog and page through it */
+    private static final String SQL_CREATE_NAME_INDEX = "CREATE INDEX IF NOT EXISTS "
+            + "pets_name_index ON " + PetEntry.TABLE_NAME + " (" + PetEntry.COLUMN_PET_NAME + ");";
+
+    /** Index on the breed, for finding the pets of a breed in catalog order */
+    private static final String SQL_CREATE_BREED_INDEX = "CREATE INDEX IF NOT EXISTS "
+            + "pets_breed_index ON " + PetEntry.TABLE_NAME + " ("
+            + COLUMN_BREED_ID + ", " + PetEntry.COLUMN_PET_NAME + ");";
+
+    /** Index on the gender, for finding the pets of a gender in catalog order */
+    private static final String SQL_CREATE_GENDER_INDEX = "CREATE INDEX IF NOT EXISTS "
+            + "pets_gender_index ON " + PetEntry.TABLE_NAME + " ("
+            + PetEntry.COLUMN_PET_GENDER + ", " + PetEntry.COLUMN_PET_NAME + ");";
+
+    /** Index on the weight, for weight ranges and sorting by weight */
+    private static final String SQL_CREATE_WEIGHT_INDEX = "CREATE INDEX IF NOT EXISTS "
+            + "pets_weight_index ON " + PetEntry.TABLE_NAME + " ("
+            + PetEntry.COLUMN_PET_WEIGHT + ");";
+
+    /** Index on the gender and weight, for the pets of a gender sorted by weight */
+    private static final String SQL_CREATE_GENDER_WEIGHT_INDEX = "CREATE INDEX IF NOT EXISTS "
+            + "pets_gender_weight_index ON " + PetEntry.TABLE_NAME + " ("
+            + PetEntry.COLUMN_PET_GENDER + ", " + PetEntry.COLUMN_PET_WEIGHT + ");";
+
+    /** Index on the deletion time, for finding the tombstones to purge or restore */
+    private static final String SQL_CREATE_DELETED_INDEX = "CREATE INDEX IF NOT EXISTS "
+            + "pets_deleted_index ON " + PetEntry.TABLE_NAME + " (" + COLUMN_DELETED + ");";
+
+    /** All the indexes of the pets table, the ones the catalog is read by first */
+    private static final String[] SQL_CREATE_PETS_INDEXES = {
+            SQL_CREATE_NAME_INDEX,
+            SQL_CREATE_BREED_INDEX,
+            SQL_CREATE_GENDER_INDEX,
+            SQL_CREATE_WEIGHT_INDEX,
+            SQL_CREATE_GENDER_WEIGHT_INDEX,
+            SQL_CREATE_DELETED_INDEX };
+
+    /** Name of the full-text index over the pet names and breeds */
+    static final String SEARCH_TABLE_NAME = "pets_fts";
+
+    /**
+     * Full-text index over the pet names and breeds. The docid of each row is the _id of the pet.
+     * Where SQLite supports it, the 2 and 3 letter prefixes of every word are indexed too, so
+     * short prefix searches don't have to merge the results of many words.
+     */
+    private static final String SQL_CREATE_SEARCH_TABLE = "CREATE VIRTUAL TABLE IF NOT EXISTS "
+            + SEARCH_TABLE_NAME + " USING fts4("
+            + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED
+            + (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN ? ", prefix=\"2,3\"" : "")
+            + ");";
+
+    /** Names of the triggers that keep {@link #SEARCH_TABLE_NAME} in step */
+    private static final String[] SEARCH_TRIGGERS = {
+            "pets_fts_insert",
+            "pets_fts_update",
+            "pets_fts_delete" };
+
+    /** Name of the table of the migrations that are scheduled or half done */
+    static final String MIGRATIONS_TABLE_NAME = "migrations";
+
+    /** Column of the migrations table with the name of the migration */
+    static final String MIGRATION_COLUMN_NAME = "name";
+
+    /** Column of the migrations table with the position the last chunk reached */
+    static final String MIGRATION_COLUMN_POSITION = "position";
+
+    /** Column of the migrations table with the position the migration ends at */
+    static final String MIGRATION_COLUMN_END = "end_position";
+
+    /** Migrations scheduled by {@link #onUpgrade}, see {@link PetMigrator} */
+    private static final String SQL_CREATE_MIGRATIONS_TABLE = "CREATE TABLE IF NOT EXISTS "
+            + MIGRATIONS_TABLE_NAME + " ("
+            + MIGRATION_COLUMN_NAME + " TEXT PRIMARY KEY, "
+            + MIGRATION_COLUMN_POSITION + " INTEGER NOT NULL DEFAULT 0, "
+            + MIGRATION_COLUMN_END + " INTEGER NOT NULL DEFAULT 0);";
+
+    /** Name of the table of what each maintenance task did the last time it ran */
+    static final String MAINTENANCE_TABLE_NAME = "maintenance";
+
+    /** Column of the maintenance table with the name of the task */
+    static final String MAINTENANCE_COLUMN_TASK = "task";
+
+    /** Column of the maintenance table with the time the task ran at, in milliseconds */
+    static final String MAINTENANCE_COLUMN_TIME = "time";
+
+    /** Column of the maintenance table with how long the task took, in milliseconds */
+    static final String MAINTENANCE_COLUMN_DURATION = "duration";
+
+    /** Column of the maintenance table with the amount of work the task did */
+    static final String MAINTENANCE_COLUMN_AMOUNT = "amount";
+
+    /** Column of the maintenance table with what the task found, null if there's nothing */
+    static final String MAINTENANCE_COLUMN_RESULT = "result";
+
+    /** Last run of each task of {@link PetMaintenance} */
+    private static final String SQL_CREATE_MAINTENANCE_TABLE = "CREATE TABLE IF NOT EXISTS "
+            + MAINTENANCE_TABLE_NAME + " ("
+            + MAINTENANCE_COLUMN_TASK + " TEXT PRIMARY KEY, "
+            + MAINTENANCE_COLUMN_TIME + " INTEGER NOT NULL, "
+            + MAINTENANCE_COLUMN_DURATION + " INTEGER NOT NULL, "
+            + MAINTENANCE_COLUMN_AMOUNT + " INTEGER NOT NULL DEFAULT 0, "
+            + MAINTENANCE_COLUMN_RESULT + " TEXT);";
+
+    /** Value of PRAGMA auto_vacuum when the free pages are only given back on request */
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    /**
+     * Copies the pets of a database older than version 7 into {@link #MOVED_PETS_TABLE_NAME}
+     * with their breed IDs, in runs of pet IDs, adding their breeds to the breeds table on the
+     * way. The triggers of {@link #startMovingBreeds} copy the changes the app makes meanwhile.
+     * Once all the pets are copied, the last chunk drops the old table and renames the new one,
+     * which takes as long as giving the pages of the old table back to the free list.
+     */
+    private static final PetMigration MOVE_BREEDS = new PetMigration("move_breeds") {
+        @Override
+        long getEnd(SQLiteDatabase database) {
+            return getLastPetId(database);
+        }
+
+        @Override
+        long runChunk(SQLiteDatabase database, long position, long end, int maxRows) {
+            long last = getChunkEnd(database, position, end, maxRows);
+            if (last == -1) {
+                replaceMovedPets(database);
+                return DONE;
+            }
+            Object[] range = { position, last };
+            // An empty breed is no breed, those pets get the breed ID of the pets without one
+            database.execSQL("INSERT OR IGNORE INTO " + BREEDS_TABLE_NAME + " ("
+                    + PetEntry.COLUMN_PET_BREED + ") SELECT DISTINCT "
+                    + PetEntry.COLUMN_PET_BREED + " FROM " + PetEntry.TABLE_NAME + " WHERE "
+                    + PetEntry._ID + ">? AND " + PetEntry._ID + "<=? AND " + COLUMN_BREED_ID
+                    + " < 0 AND " + PetEntry.COLUMN_PET_BREED + " <> '';", range);
+            // The pets the app changed meanwhile were copied by the triggers, the copy
+            // replaces them with the same values
+            database.execSQL("INSERT OR REPLACE INTO " + MOVED_PETS_TABLE_NAME + " ("
+                    + PetEntry._ID + ", " + PetEntry.COLUMN_PET_NAME + ", " + COLUMN_BREED_ID
+                    + ", " + PetEntry.COLUMN_PET_GENDER + ", " + PetEntry.COLUMN_PET_WEIGHT
+                    + ", " + COLUMN_DELETED + ") SELECT " + PetEntry._ID + ", "
+                    + PetEntry.COLUMN_PET_NAME + ", " + resolvedBreedId(PetEntry.TABLE_NAME)
+                    + ", " + PetEntry.COLUMN_PET_GENDER + ", " + PetEntry.COLUMN_PET_WEIGHT
+                    + ", " + COLUMN_DELETED + " FROM " + PetEntry.TABLE_NAME + " WHERE "
+                    + PetEntry._ID + ">? AND " + PetEntry._ID + "<=?;", range);
+            return last;
+        }
+    };
+
+    /**
+     * Creates the indexes of the pets table that an upgrade added, one index per chunk, in the
+     * order of {@link #SQL_CREATE_PETS_INDEXES}, the position is the number of them done. The
+     * indexes that already exist take no time.
+     */
+    private static final PetMigration BUILD_INDEXES = new PetMigration("build_indexes") {
+        @Override
+        long runChunk(SQLiteDatabase database, long position, long end, int maxRows) {
+            database.execSQL(SQL_CREATE_PETS_INDEXES[(int) position]);
+            return position + 1 < SQL_CREATE_PETS_INDEXES.length ? position + 1 : DONE;
+        }
+    };
+
+    /**
+     * Fills {@link #SEARCH_TABLE_NAME} with the pets that were in the database when it was
+     * created, in runs of pet IDs. Changes to the pets after that are made by the triggers: an
+     * update or a delete of a pet that isn't in the index yet changes nothing, and the pet is
+     * then copied as it is.
+     */
+    private static final PetMigration FILL_SEARCH_TABLE = new PetMigration("fill_search") {
+        @Override
+        long getEnd(SQLiteDatabase database) {
+            return getLastPetId(database);
+        }
+
+        @Override
+        long runChunk(SQLiteDatabase database, long position, long end, int maxRows) {
+            long last = getChunkEnd(database, position, end, maxRows);
+            if (last == -1) {
+                return DONE;
+            }
+            database.execSQL("INSERT INTO " + SEARCH_TABLE_NAME + " (docid, "
+                    + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED + ") SELECT "
+                    + PetEntry._ID + ", " + PetEntry.COLUMN_PET_NAME + ", "
+                    + PetEntry.COLUMN_PET_BREED + " FROM " + PETS_WITH_BREEDS + " WHERE "
+                    + PetEntry._ID + ">? AND " + PetEntry._ID + "<=?",
+                    new Object[] { position, last });
+            return last;
+        }
+    };
+
+    /**
+     * Sums up the pets that were in the database when {@link SummaryEntry#TABLE_NAME} was
+     * created, in runs of pet IDs, adding each run to the summary rows. Meanwhile the triggers
+     * leave out the pets it hasn't reached yet, see {@link #isCounted}, and its last chunk
+     * replaces them with triggers that count every pet.
+     */
+    private static final PetMigration FILL_SUMMARY_TABLE = new PetMigration("fill_summary") {
+        @Override
+        long getEnd(SQLiteDatabase database) {
+            return getLastPetId(database);
+        }
+
+        @Override
+        long runChunk(SQLiteDatabase database, long position, long end, int maxRows) {
+            long last = getChunkEnd(database, position, end, maxRows);
+            if (last == -1) {
+                // The breeds were moved first, see onUpgrade
+                createSummaryTriggers(database, false, false);
+                return DONE;
+            }
+            long[] all = new long[SUMMARY_COUNT_COLUMNS.length];
+            Cursor cursor = database.rawQuery(SQL_SUMMARIZE_PETS, new String[] {
+                    String.valueOf(position), String.valueOf(last) });
+            try {
+                while (cursor.moveToNext()) {
+                    long[] counts = new long[all.length];
+                    for (int i = 0; i < counts.length; i++) {
+                        counts[i] = cursor.getLong(i + 1);
+                        all[i] += counts[i];
+                    }
+                    addToSummary(database, SUMMARY_SCOPE_BREED, cursor.getString(0), counts);
+                }
+            } finally {
+                cursor.close();
+            }
+            addToSummary(database, SUMMARY_SCOPE_ALL, "", all);
+            return last;
+        }
+    };
+
+    /**
+     * Gives the pets of a database older than version 11 whose breed is empty the breed ID of
+     * the pets without a breed, in runs of pet IDs, and then drops the empty breed. The app
+     * shows both as an unknown breed, and with a single breed ID the pets without a breed come
+     * in name order from the breed index. The app no longer writes the empty breed meanwhile,
+     * see {@link PetStatements#getBreedId}.
+     */
+    private static final PetMigration FOLD_EMPTY_BREED = new PetMigration("fold_empty_breed") {
+        @Override
+        long getEnd(SQLiteDatabase database) {
+            return getLastPetId(database);
+        }
+
+        @Override
+        long runChunk(SQLiteDatabase database, long position, long end, int maxRows) {
+            long last = getChunkEnd(database, position, end, maxRows);
+            if (last == -1) {
+                database.execSQL("DELETE FROM " + BREEDS_TABLE_NAME + " WHERE "
+                        + PetEntry.COLUMN_PET_BREED + " = '';");
+                return DONE;
+            }
+            // Both breeds are the same summary row, so the summary doesn't change
+            database.execSQL("UPDATE " + PetEntry.TABLE_NAME + " SET " + COLUMN_BREED_ID + " = "
+                    + NO_BREED_ID + " WHERE " + PetEntry._ID + ">? AND " + PetEntry._ID
+                    + "<=? AND " + COLUMN_BREED_ID + " = (SELECT " + COLUMN_BREED_ID + " FROM "
+                    + BREEDS_TABLE_NAME + " WHERE " + PetEntry.COLUMN_PET_BREED + " = '');",
+                    new Object[] { position, last });
+            return last;
+        }
+    };
+
+    /**
+     * Gathers statistics on the indexes of the pets and breeds for the query planner. Each
+     * chunk analyzes one index, it reads all of it, and the position is the number of indexes
+     * done so far in name order. So the writers wait for one index at a time rather than for
+     * all of them.
+     */
+    private static final PetMigration ANALYZE = new PetMigration("analyze") {
+        @Override
+        long runChunk(SQLiteDatabase database, long position, long end, int maxRows) {
+            ArrayList<String> indexes = getAnalyzeTargets(database);
+            if (position >= indexes.size()) {
+                return DONE;
+            }
+            analyze(database, indexes.get((int) position));
+            return position + 1 < indexes.size() ? position + 1 : DONE;
+        }
+    };
+
+    /** All the migrations, by which {@link #getMigration} finds them */
+    private static final PetMigration[] MIGRATIONS = {
+            MOVE_BREEDS, BUILD_INDEXES, FILL_SEARCH_TABLE, FILL_SUMMARY_TABLE, FOLD_EMPTY_BREED,
+            ANALYZE };
+
+    /**
+     * Column of the summary table telling what a row sums up: {@link #SUMMARY_SCOPE_ALL} or
+     * {@link #SUMMARY_SCOPE_BREED}.
+     */
+    static final String SUMMARY_COLUMN_SCOPE = "scope";
+
+    /** Summary scope: the single row that sums up all the pets, its breed is empty */
+    static final int SUMMARY_SCOPE_ALL = 0;
+
+    /** Summary scope: a row that sums up the pets of its breed, which is empty if unknown */
+    static final int SUMMARY_SCOPE_BREED = 1;
+
+    /**
+     * Summary of the pets, for all of them and for each breed. Unknown breeds, both null and
+     * empty, are summed up under the empty breed so that the key is never null.
+     */
+    private static final String SQL_CREATE_SUMMARY_TABLE = "CREATE TABLE IF NOT EXISTS "
+            + SummaryEntry.TABLE_NAME + " ("
+            + SUMMARY_COLUMN_SCOPE + " INTEGER NOT NULL, "
+            + SummaryEntry.COLUMN_BREED + " TEXT NOT NULL, "
+            + SummaryEntry.COLUMN_PET_COUNT + " INTEGER NOT NULL DEFAULT 0, "
+            + SummaryEntry.COLUMN_MALE_COUNT + " INTEGER NOT NULL DEFAULT 0, "
+            + SummaryEntry.COLUMN_FEMALE_COUNT + " INTEGER NOT NULL DEFAULT 0, "
+            + SummaryEntry.COLUMN_UNKNOWN_GENDER_COUNT + " INTEGER NOT NULL DEFAULT 0, "
+            + SummaryEntry.COLUMN_TOTAL_WEIGHT + " INTEGER NOT NULL DEFAULT 0, "
+            + "PRIMARY KEY (" + SUMMARY_COLUMN_SCOPE + ", " + SummaryEntry.COLUMN_BREED + "));";
+
+    /** Names of the triggers that keep {@link SummaryEntry#TABLE_NAME} in step */
+    private static final String[] SUMMARY_TRIGGERS = {
+            "pets_summary_insert",
+            "pets_summary_update",
+            "pets_summary_delete",
+            "pets_summary_tombstone",
+            "pets_summary_restore" };
+
+    /** Columns of the summary table with the counts and the total weight of its pets */
+    private static final String[] SUMMARY_COUNT_COLUMNS = {
+            SummaryEntry.COLUMN_PET_COUNT,
+            SummaryEntry.COLUMN_MALE_COUNT,
+            SummaryEntry.COLUMN_FEMALE_COUNT,
+            SummaryEntry.COLUMN_UNKNOWN_GENDER_COUNT,
+            SummaryEntry.COLUMN_TOTAL_WEIGHT };
+
+    /** The row of all the pets, which always exists */
+    private static final String SQL_INSERT_SUMMARY_ALL = "INSERT OR IGNORE INTO "
+            + SummaryEntry.TABLE_NAME + " (" + SUMMARY_COLUMN_SCOPE + ", "
+            + SummaryEntry.COLUMN_BREED + ") VALUES (" + SUMMARY_SCOPE_ALL + ", '');";
+
+    /**
+     * Sums up the pets that aren't deleted between two pet IDs by breed, in the order of
+     * {@link #SUMMARY_COUNT_COLUMNS} after the summary key of the breed.
+     */
+    private static final String SQL_SUMMARIZE_PETS = "SELECT "
+            + breedKey(PetEntry.COLUMN_PET_BREED) + ", COUNT(*), "
+            + "SUM(" + PetEntry.COLUMN_PET_GENDER + " = " + PetEntry.GENDER_MALE + "), "
+            + "SUM(" + PetEntry.COLUMN_PET_GENDER + " = " + PetEntry.GENDER_FEMALE + "), "
+            + "SUM(" + PetEntry.COLUMN_PET_GENDER + " = " + PetEntry.GENDER_UNKNOWN + "), "
+            + "SUM(" + PetEntry.COLUMN_PET_WEIGHT + ") FROM " + PETS_WITH_BREEDS + " WHERE "
+            + PetEntry.TABLE_NAME + "." + COLUMN_DELETED + " = 0 AND "
+            + PetEntry._ID + ">? AND " + PetEntry._ID + "<=? GROUP BY "
+            + breedKey(PetEntry.COLUMN_PET_BREED);
+
+    /** PRAGMA synchronous level: never wait for the disk */
+    public static final String SYNCHRONOUS_OFF = "OFF";
+
+    /** PRAGMA synchronous level: wait for the disk at the critical moments only */
+    public static final String SYNCHRONOUS_NORMAL = "NORMAL";
+
+    /** PRAGMA synchronous level: wait for the disk on every commit */
+    public static final String SYNCHRONOUS_FULL = "FULL";
+
+    /** Storage settings applied each time the database is opened */
+    private final StorageProfile mProfile;
+
+    /**
+     * Constructs a new instance of {@link PetDbHelper} with the {@link StorageProfile#DURABLE}
+     * storage profile.
      *
      * @param context of the app
      */
     public PetDbHelper(Context context) {
+        this(context, StorageProfile.DURABLE);
+    }
+
+    /**
+     * Constructs a new instance of {@link PetDbHelper}.
+     *
+     * @param context of the app
+     * @param profile storage settings to open the database with
+     */
+    public PetDbHelper(Context context, StorageProfile profile) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        mProfile = profile;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            setWriteAheadLoggingEnabled(profile.writeAheadLogging);
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O_MR1) {
+            setIdleConnectionTimeout(profile.idleConnectionTimeoutMs);
+        }
+    }
+
+    /**
+     * Returns the storage settings the database is opened with.
+     */
+    public StorageProfile getStorageProfile() {
+        return mProfile;
+    }
+
+    /**
+     * Returns the summary key of the given breed expression, unknown breeds are empty.
+     */
+    private static String breedKey(String breed) {
+        return "IFNULL(" + breed + ", '')";
+    }
+
+    /**
+     * Returns the test of whether a pet in a trigger isn't deleted.
+     *
+     * @param row "new" or "old"
+     */
+    private static String isLive(String row) {
+        return "(" + row + "." + COLUMN_DELETED + " = 0)";
+    }
+
+    /**
+     * Returns the test of whether a pet in a trigger is counted in the summary already, that
+     * is whether {@link #FILL_SUMMARY_TABLE} isn't scheduled or has reached it.
+     *
+     * @param row "new" or "old"
+     */
+    private static String isCounted(String row) {
+        String id = row + "." + PetEntry._ID;
+        return "NOT EXISTS (SELECT 1 FROM " + MIGRATIONS_TABLE_NAME + " WHERE "
+                + MIGRATION_COLUMN_NAME + " = '" + FILL_SUMMARY_TABLE.name + "' AND " + id
+                + " > " + MIGRATION_COLUMN_POSITION + " AND " + id + " <= "
+                + MIGRATION_COLUMN_END + ")";
+    }
+
+    /**
+     * Returns the expression of the breed of a pet in a trigger, looked up by its breed ID.
+     *
+     * @param row    "new" or "old"
+     * @param moving whether the breeds are being moved, and the pets that don't have a breed
+     *               ID yet still have their breed in the breed column
+     */
+    private static String breedOf(String row, boolean moving) {
+        String lookup = "(SELECT " + PetEntry.COLUMN_PET_BREED + " FROM " + BREEDS_TABLE_NAME
+                + " WHERE " + COLUMN_BREED_ID + " = " + row + "." + COLUMN_BREED_ID + ")";
+        if (!moving) {
+            return lookup;
+        }
+        return "(CASE WHEN " + row + "." + COLUMN_BREED_ID + " < 0 THEN " + row + "."
+                + PetEntry.COLUMN_PET_BREED + " ELSE " + lookup + " END)";
+    }
+
+    /**
+     * Returns the expression of the breed ID of a pet of the pets table of a database older
+     * than version 7, looked up by its breed if it doesn't have one yet. A breed that isn't in
+     * the breeds table yet gives {@link #NO_BREED_ID}, which {@link #MOVE_BREEDS} replaces
+     * once it gets to the pet.
+     *
+     * @param row "new" in a trigger, or the name of the table
+     */
+    private static String resolvedBreedId(String row) {
+        return "(CASE WHEN " + row + "." + COLUMN_BREED_ID + " < 0 THEN IFNULL((SELECT "
+                + BREEDS_TABLE_NAME + "." + COLUMN_BREED_ID + " FROM " + BREEDS_TABLE_NAME
+                + " WHERE " + BREEDS_TABLE_NAME + "." + PetEntry.COLUMN_PET_BREED + " = " + row
+                + "." + PetEntry.COLUMN_PET_BREED + "), " + NO_BREED_ID + ") ELSE " + row + "."
+                + COLUMN_BREED_ID + " END)";
+    }
+
+    /**
+     * Returns the triggers that keep {@link #SEARCH_TABLE_NAME} in step with the pets table.
+     *
+     * @param moving whether the breeds are being moved, see {@link #breedOf}
+     */
+    private static String[] searchTriggers(boolean moving) {
+        return new String[] {
+                "CREATE TRIGGER " + SEARCH_TRIGGERS[0] + " AFTER INSERT ON "
+                        + PetEntry.TABLE_NAME + " BEGIN INSERT INTO " + SEARCH_TABLE_NAME
+                        + " (docid, " + PetEntry.COLUMN_PET_NAME + ", "
+                        + PetEntry.COLUMN_PET_BREED + ") VALUES (new." + PetEntry._ID + ", new."
+                        + PetEntry.COLUMN_PET_NAME + ", " + breedOf("new", moving) + "); END;",
+                "CREATE TRIGGER " + SEARCH_TRIGGERS[1] + " AFTER UPDATE OF "
+                        + PetEntry.COLUMN_PET_NAME + ", " + COLUMN_BREED_ID + " ON "
+                        + PetEntry.TABLE_NAME + " BEGIN UPDATE " + SEARCH_TABLE_NAME + " SET "
+                        + PetEntry.COLUMN_PET_NAME + " = new." + PetEntry.COLUMN_PET_NAME + ", "
+                        + PetEntry.COLUMN_PET_BREED + " = " + breedOf("new", moving)
+                        + " WHERE docid = new." + PetEntry._ID + "; END;",
+                "CREATE TRIGGER " + SEARCH_TRIGGERS[2] + " AFTER DELETE ON "
+                        + PetEntry.TABLE_NAME + " BEGIN DELETE FROM " + SEARCH_TABLE_NAME
+                        + " WHERE docid = old." + PetEntry._ID + "; END;" };
+    }
+
+    /**
+     * Returns the triggers that keep {@link SummaryEntry#TABLE_NAME} in step with the pets
+     * table. Only the pets that aren't deleted are summed up: deleting a pet takes it out of
+     * the summary and restoring it puts it back, purging its tombstone later changes nothing.
+     *
+     * @param moving  whether the breeds are being moved, see {@link #breedOf}
+     * @param filling whether {@link #FILL_SUMMARY_TABLE} is scheduled, so the triggers have to
+     *                leave out the pets it hasn't reached yet
+     */
+    private static String[] summaryTriggers(boolean moving, boolean filling) {
+        String newCounted = filling ? " AND " + isCounted("new") : "";
+        String oldCounted = filling ? " AND " + isCounted("old") : "";
+        return new String[] {
+                "CREATE TRIGGER " + SUMMARY_TRIGGERS[0] + " AFTER INSERT ON "
+                        + PetEntry.TABLE_NAME + " WHEN " + isLive("new") + newCounted
+                        + " BEGIN "
+                        + addBreedSummary("new", moving)
+                        + updateSummary("new", "+", moving)
+                        + "END;",
+                "CREATE TRIGGER " + SUMMARY_TRIGGERS[1] + " AFTER UPDATE OF "
+                        + COLUMN_BREED_ID + ", " + PetEntry.COLUMN_PET_GENDER + ", "
+                        + PetEntry.COLUMN_PET_WEIGHT + " ON " + PetEntry.TABLE_NAME
+                        + " WHEN " + isLive("old") + " AND " + isLive("new") + newCounted
+                        + " BEGIN "
+                        + addBreedSummary("new", moving)
+                        + updateSummary("old", "-", moving)
+                        + updateSummary("new", "+", moving)
+                        + removeBreedSummary("old", moving)
+                        + "END;",
+                "CREATE TRIGGER " + SUMMARY_TRIGGERS[2] + " AFTER DELETE ON "
+                        + PetEntry.TABLE_NAME + " WHEN " + isLive("old") + oldCounted
+                        + " BEGIN "
+                        + updateSummary("old", "-", moving)
+                        + removeBreedSummary("old", moving)
+                        + "END;",
+                "CREATE TRIGGER " + SUMMARY_TRIGGERS[3] + " AFTER UPDATE OF "
+                        + COLUMN_DELETED + " ON " + PetEntry.TABLE_NAME
+                        + " WHEN " + isLive("old") + " AND NOT " + isLive("new") + oldCounted
+                        + " BEGIN "
+                        + updateSummary("old", "-", moving)
+                        + removeBreedSummary("old", moving)
+                        + "END;",
+                "CREATE TRIGGER " + SUMMARY_TRIGGERS[4] + " AFTER UPDATE OF "
+                        + COLUMN_DELETED + " ON " + PetEntry.TABLE_NAME
+                        + " WHEN NOT " + isLive("old") + " AND " + isLive("new") + newCounted
+                        + " BEGIN "
+                        + addBreedSummary("new", moving)
+                        + updateSummary("new", "+", moving)
+                        + "END;" };
+    }
+
+    /**
+     * Returns the trigger statement that creates the summary row of the breed of a pet, if it
+     * doesn't exist yet.
+     *
+     * @param row    "new" or "old"
+     * @param moving whether the breeds are being moved, see {@link #breedOf}
+     */
+    private static String addBreedSummary(String row, boolean moving) {
+        return "INSERT OR IGNORE INTO " + SummaryEntry.TABLE_NAME + " (" + SUMMARY_COLUMN_SCOPE
+                + ", " + SummaryEntry.COLUMN_BREED + ") VALUES (" + SUMMARY_SCOPE_BREED + ", "
+                + breedKey(breedOf(row, moving)) + "); ";
+    }
+
+    /**
+     * Returns the trigger statement that removes the summary row of the breed of a pet, if
+     * there is no pet of that breed left.
+     *
+     * @param row    "new" or "old"
+     * @param moving whether the breeds are being moved, see {@link #breedOf}
+     */
+    private static String removeBreedSummary(String row, boolean moving) {
+        return "DELETE FROM " + SummaryEntry.TABLE_NAME + " WHERE " + SUMMARY_COLUMN_SCOPE + " = "
+                + SUMMARY_SCOPE_BREED + " AND " + SummaryEntry.COLUMN_BREED + " = "
+                + breedKey(breedOf(row, moving)) + " AND "
+                + SummaryEntry.COLUMN_PET_COUNT + " = 0; ";
+    }
+
+    /**
+     * Returns the trigger statement that adds a pet to, or takes it out of, the summary of all
+     * the pets and the summary of its breed.
+     *
+     * @param row    "new" or "old"
+     * @param sign   "+" to add the pet, "-" to take it out
+     * @param moving whether the breeds are being moved, see {@link #breedOf}
+     */
+    private static String updateSummary(String row, String sign, boolean moving) {
+        String gender = row + "." + PetEntry.COLUMN_PET_GENDER;
+        return "UPDATE " + SummaryEntry.TABLE_NAME + " SET "
+                + SummaryEntry.COLUMN_PET_COUNT + " = " + SummaryEntry.COLUMN_PET_COUNT
+                + " " + sign + " 1, "
+                + SummaryEntry.COLUMN_MALE_COUNT + " = " + SummaryEntry.COLUMN_MALE_COUNT
+                + " " + sign + " (" + gender + " = " + PetEntry.GENDER_MALE + "), "
+                + SummaryEntry.COLUMN_FEMALE_COUNT + " = " + SummaryEntry.COLUMN_FEMALE_COUNT
+                + " " + sign + " (" + gender + " = " + PetEntry.GENDER_FEMALE + "), "
+                + SummaryEntry.COLUMN_UNKNOWN_GENDER_COUNT + " = "
+                + SummaryEntry.COLUMN_UNKNOWN_GENDER_COUNT
+                + " " + sign + " (" + gender + " = " + PetEntry.GENDER_UNKNOWN + "), "
+                + SummaryEntry.COLUMN_TOTAL_WEIGHT + " = " + SummaryEntry.COLUMN_TOTAL_WEIGHT
+                + " " + sign + " " + row + "." + PetEntry.COLUMN_PET_WEIGHT
+                + " WHERE " + SUMMARY_COLUMN_SCOPE + " = " + SUMMARY_SCOPE_ALL + " OR ("
+                + SUMMARY_COLUMN_SCOPE + " = " + SUMMARY_SCOPE_BREED + " AND "
+                + SummaryEntry.COLUMN_BREED + " = "
+                + breedKey(breedOf(row, moving)) + "); ";
+    }
+
+    /**
+     * This is called when the database connection is being configured, before the database is
+     * created or upgraded.
+     */
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        applyStorageProfile(db);
+        if (db.getVersion() == 0) {
+            // The database is about to be created. Let it give the pages of the purged pets
+            // back to the file system in steps, see PetPurger. The mode can only change
+            // with a VACUUM once the file has any table, and the connection has already
+            // added its locale table, but that's all there is to copy so far.
+            db.execSQL("PRAGMA auto_vacuum=INCREMENTAL");
+            db.execSQL("VACUUM");
+        }
+    }
+
+    /**
+     * This is called when the database has been opened.
+     */
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        // onConfigure() only exists since Jelly Bean, older versions configure the database here
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            if (mProfile.writeAheadLogging) {
+                db.enableWriteAheadLogging();
+            }
+            applyStorageProfile(db);
+        }
+    }
+
+    /**
+     * Apply the pragmas of the storage profile to the given database connection.
+     */
+    private void applyStorageProfile(SQLiteDatabase db) {
+        db.execSQL("PRAGMA synchronous=" + mProfile.synchronous);
+        // A negative cache size is a number of KiB rather than a number of pages
+        db.execSQL("PRAGMA cache_size=-" + mProfile.cacheSizeKb);
+        // mmap_size answers with the size it actually used, so it has to run as a query
+        Cursor cursor = db.rawQuery("PRAGMA mmap_size=" + mProfile.mmapSize, null);
+        cursor.close();
     }
 
     /**
@@ -50,16 +834,357 @@ public class PetDbHelper extends SQLiteOpenHelper {
      */
     @Override
     public void onCreate(SQLiteDatabase db) {
+        db.execSQL(SQL_CREATE_MIGRATIONS_TABLE);
+        db.execSQL(SQL_CREATE_MAINTENANCE_TABLE);
+        db.execSQL(SQL_CREATE_BREEDS_TABLE);
+        db.execSQL(SQL_INSERT_NO_BREED);
+        // Execute the SQL statement
+        db.execSQL(createPetsTable(PetEntry.TABLE_NAME));
+        createPetsIndexes(db);
+        db.execSQL(SQL_CREATE_LIVE_PETS_VIEW);
+        db.execSQL(SQL_CREATE_LIVE_PETS_BY_BREED_VIEW);
+        createSearchTable(db);
+        createSearchTriggers(db, false);
+        createSummaryTable(db);
+        createSummaryTriggers(db, false, false);
+    }
+
+    /**
+     * Returns the SQL statement that creates the pets table under the given name.
+     */
+    private static String createPetsTable(String name) {
         // Create a String that contains the SQL statement to create the pets table
-        String SQL_CREATE_PETS_TABLE =  "CREATE TABLE " + PetEntry.TABLE_NAME + " ("
+        return "CREATE TABLE " + name + " ("
                 + PetEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
                 + PetEntry.COLUMN_PET_NAME + " TEXT NOT NULL, "
-                + PetEntry.COLUMN_PET_BREED + " TEXT, "
+                + COLUMN_BREED_ID + " INTEGER NOT NULL DEFAULT " + NO_BREED_ID + " REFERENCES "
+                + BREEDS_TABLE_NAME + " (" + COLUMN_BREED_ID + "), "
                 + PetEntry.COLUMN_PET_GENDER + " INTEGER NOT NULL, "
-                + PetEntry.COLUMN_PET_WEIGHT + " INTEGER NOT NULL DEFAULT 0);";
+                + PetEntry.COLUMN_PET_WEIGHT + " INTEGER NOT NULL DEFAULT 0, "
+                + COLUMN_DELETED + " INTEGER NOT NULL DEFAULT 0);";
+    }
 
-        // Execute the SQL statement
-        db.execSQL(SQL_CREATE_PETS_TABLE);
+    /**
+     * Create all the indexes of the pets table.
+     */
+    private static void createPetsIndexes(SQLiteDatabase db) {
+        for (String index : SQL_CREATE_PETS_INDEXES) {
+            db.execSQL(index);
+        }
+    }
+
+    /**
+     * Create the summary table with the row of all the pets. The pets already in the database
+     * are summed up by {@link #FILL_SUMMARY_TABLE}.
+     */
+    private static void createSummaryTable(SQLiteDatabase db) {
+        db.execSQL(SQL_CREATE_SUMMARY_TABLE);
+        db.execSQL(SQL_INSERT_SUMMARY_ALL);
+    }
+
+    /**
+     * Create the triggers that keep the summary table up to date, in place of the ones there
+     * are.
+     *
+     * @param moving  whether the breeds are being moved, see {@link #breedOf}
+     * @param filling whether {@link #FILL_SUMMARY_TABLE} is scheduled
+     */
+    private static void createSummaryTriggers(SQLiteDatabase db, boolean moving,
+                                              boolean filling) {
+        for (String trigger : SUMMARY_TRIGGERS) {
+            db.execSQL("DROP TRIGGER IF EXISTS " + trigger + ";");
+        }
+        for (String trigger : summaryTriggers(moving, filling)) {
+            db.execSQL(trigger);
+        }
+    }
+
+    /**
+     * Add pets to a row of the summary table, creating the row if it doesn't exist yet.
+     *
+     * @param counts the amounts to add, in the order of {@link #SUMMARY_COUNT_COLUMNS}
+     */
+    private static void addToSummary(SQLiteDatabase db, int scope, String breed,
+                                     long[] counts) {
+        db.execSQL("INSERT OR IGNORE INTO " + SummaryEntry.TABLE_NAME + " ("
+                + SUMMARY_COLUMN_SCOPE + ", " + SummaryEntry.COLUMN_BREED + ") VALUES (?, ?);",
+                new Object[] { scope, breed });
+        StringBuilder sql = new StringBuilder("UPDATE " + SummaryEntry.TABLE_NAME + " SET ");
+        Object[] args = new Object[counts.length + 2];
+        for (int i = 0; i < counts.length; i++) {
+            String column = SUMMARY_COUNT_COLUMNS[i];
+            sql.append(i > 0 ? ", " : "").append(column).append(" = ").append(column)
+                    .append(" + ?");
+            args[i] = counts[i];
+        }
+        sql.append(" WHERE " + SUMMARY_COLUMN_SCOPE + " = ? AND " + SummaryEntry.COLUMN_BREED
+                + " = ?;");
+        args[counts.length] = scope;
+        args[counts.length + 1] = breed;
+        db.execSQL(sql.toString(), args);
+    }
+
+    /**
+     * Create the full-text index over the pets. The pets already in the database are copied
+     * into it by {@link #FILL_SEARCH_TABLE}.
+     */
+    private static void createSearchTable(SQLiteDatabase db) {
+        db.execSQL(SQL_CREATE_SEARCH_TABLE);
+    }
+
+    /**
+     * Create the triggers that keep the full-text index up to date, in place of the ones
+     * there are.
+     *
+     * @param moving whether the breeds are being moved, see {@link #breedOf}
+     */
+    private static void createSearchTriggers(SQLiteDatabase db, boolean moving) {
+        for (String trigger : SEARCH_TRIGGERS) {
+            db.execSQL("DROP TRIGGER IF EXISTS " + trigger + ";");
+        }
+        for (String trigger : searchTriggers(moving)) {
+            db.execSQL(trigger);
+        }
+    }
+
+    /**
+     * Returns the migration with the given name, or null if there is none.
+     */
+    static PetMigration getMigration(String name) {
+        for (PetMigration migration : MIGRATIONS) {
+            if (migration.name.equals(name)) {
+                return migration;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Schedule a migration for {@link PetMigrator}, or start it again if it's already
+     * scheduled.
+     */
+    private static void scheduleMigration(SQLiteDatabase db, PetMigration migration) {
+        db.execSQL("INSERT OR REPLACE INTO " + MIGRATIONS_TABLE_NAME + " ("
+                + MIGRATION_COLUMN_NAME + ", " + MIGRATION_COLUMN_POSITION + ", "
+                + MIGRATION_COLUMN_END + ") VALUES (?, 0, ?);",
+                new Object[] { migration.name, migration.getEnd(db) });
+    }
+
+    /**
+     * Returns whether a migration is scheduled and not complete yet.
+     */
+    private static boolean isScheduled(SQLiteDatabase db, PetMigration migration) {
+        return DatabaseUtils.queryNumEntries(db, MIGRATIONS_TABLE_NAME,
+                MIGRATION_COLUMN_NAME + "=?", new String[] { migration.name }) > 0;
+    }
+
+    /**
+     * Returns the highest pet ID, 0 if there are no pets.
+     */
+    private static long getLastPetId(SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db, "SELECT IFNULL(MAX(" + PetEntry._ID + "), 0) FROM "
+                + PetEntry.TABLE_NAME, null);
+    }
+
+    /**
+     * Returns the pet ID a chunk of a migration in runs of pet IDs ends at: the ID of the last
+     * of the next pets after the given position, at most the given number of them and up to
+     * the end of the migration, or -1 if there are no pets left.
+     */
+    private static long getChunkEnd(SQLiteDatabase db, long position, long end, int maxRows) {
+        return DatabaseUtils.longForQuery(db, "SELECT IFNULL(MAX(" + PetEntry._ID + "), -1) "
+                + "FROM (SELECT " + PetEntry._ID + " FROM " + PetEntry.TABLE_NAME + " WHERE "
+                + PetEntry._ID + ">? AND " + PetEntry._ID + "<=? ORDER BY " + PetEntry._ID
+                + " LIMIT " + maxRows + ")",
+                new String[] { String.valueOf(position), String.valueOf(end) });
+    }
+
+    /**
+     * Returns the time and amount of work of the last run of each maintenance task, by the
+     * name of the task.
+     */
+    static HashMap<String, long[]> getMaintenanceRuns(SQLiteDatabase db) {
+        HashMap<String, long[]> runs = new HashMap<>();
+        Cursor cursor = db.query(MAINTENANCE_TABLE_NAME, new String[] {
+                MAINTENANCE_COLUMN_TASK, MAINTENANCE_COLUMN_TIME, MAINTENANCE_COLUMN_AMOUNT },
+                null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                runs.put(cursor.getString(0),
+                        new long[] { cursor.getLong(1), cursor.getLong(2) });
+            }
+        } finally {
+            cursor.close();
+        }
+        return runs;
+    }
+
+    /**
+     * Record that a maintenance task ran just now, in place of its previous run.
+     *
+     * @param amount the amount of work it did, like the number of pages it gave back
+     * @param result what it found, or null if there's nothing to tell
+     */
+    static void recordMaintenance(SQLiteDatabase db, String task, long durationMs, long amount,
+                                  String result) {
+        db.execSQL("INSERT OR REPLACE INTO " + MAINTENANCE_TABLE_NAME + " ("
+                + MAINTENANCE_COLUMN_TASK + ", " + MAINTENANCE_COLUMN_TIME + ", "
+                + MAINTENANCE_COLUMN_DURATION + ", " + MAINTENANCE_COLUMN_AMOUNT + ", "
+                + MAINTENANCE_COLUMN_RESULT + ") VALUES (?, ?, ?, ?, ?);",
+                new Object[] { task, System.currentTimeMillis(), durationMs, amount, result });
+    }
+
+    /**
+     * Returns the number of pets, as kept in the summary.
+     */
+    static long getPetCount(SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db, "SELECT IFNULL(MAX("
+                + SummaryEntry.COLUMN_PET_COUNT + "), 0) FROM " + SummaryEntry.TABLE_NAME
+                + " WHERE " + SUMMARY_COLUMN_SCOPE + " = " + SUMMARY_SCOPE_ALL, null);
+    }
+
+    /**
+     * Returns the names of the indexes that the query planner needs statistics on, which
+     * {@link #analyze} gathers one at a time.
+     */
+    static ArrayList<String> getAnalyzeTargets(SQLiteDatabase db) {
+        ArrayList<String> indexes = new ArrayList<>();
+        Cursor cursor = db.rawQuery("SELECT name FROM sqlite_master WHERE type = 'index' AND "
+                + "tbl_name IN (?, ?) ORDER BY name",
+                new String[] { PetEntry.TABLE_NAME, BREEDS_TABLE_NAME });
+        try {
+            while (cursor.moveToNext()) {
+                indexes.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return indexes;
+    }
+
+    /**
+     * Gather statistics on the given index for the query planner. The connections that are
+     * already open keep the statistics they loaded until they are closed, which the connection
+     * pool does to the idle ones after the idle timeout of the storage profile.
+     */
+    static void analyze(SQLiteDatabase db, String index) {
+        db.execSQL("ANALYZE \"" + index + "\";");
+    }
+
+    /**
+     * Copy the committed transactions of the write-ahead log into the database file, as far
+     * as it can without waiting for readers, so the log doesn't keep growing. It must not run
+     * inside a transaction.
+     *
+     * @return the number of frames in the log and how many of them are in the database file
+     *         now, both -1 if the database doesn't use a write-ahead log
+     */
+    static long[] checkpoint(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery("PRAGMA wal_checkpoint(PASSIVE)", null);
+        try {
+            if (!cursor.moveToFirst()) {
+                return new long[] { -1, -1 };
+            }
+            return new long[] { cursor.getLong(1), cursor.getLong(2) };
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns whether the database gives its free pages back to the file system on request.
+     * Databases created before version 9 never do, as changing that would take a full
+     * VACUUM.
+     */
+    static boolean isIncrementalVacuum(SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null)
+                == AUTO_VACUUM_INCREMENTAL;
+    }
+
+    /**
+     * Returns the number of free pages in the database file.
+     */
+    static long getFreePages(SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+    }
+
+    /**
+     * Give free pages back to the file system, if the database is in incremental vacuum mode.
+     *
+     * @return the number of pages given back
+     */
+    static int incrementalVacuum(SQLiteDatabase db, int pages) {
+        // The pragma returns an empty row for each page it frees, counting the rows runs it
+        Cursor cursor = db.rawQuery("PRAGMA incremental_vacuum(" + pages + ")", null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Check the database file for corruption. It reads every page, and can be cancelled.
+     *
+     * @return null if the database is fine, otherwise the first problem found
+     * @throws android.os.OperationCanceledException if the check was cancelled
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    static String quickCheck(SQLiteDatabase db, CancellationSignal cancellationSignal) {
+        Cursor cursor = db.rawQuery("PRAGMA quick_check(1)", null, cancellationSignal);
+        try {
+            String result = cursor.moveToFirst() ? cursor.getString(0) : null;
+            return "ok".equals(result) ? null : result;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Start moving the breeds of the pets of a database older than version 7 into the breeds
+     * table. SQLite can't change the type of a column, so {@link #MOVE_BREEDS} copies the pets
+     * into a new table with the breed IDs, which then takes the place of the old one. Until
+     * then the old table has a breed ID column, for the pets the app writes meanwhile, and the
+     * triggers that copy the changes to the new table.
+     */
+    private static void startMovingBreeds(SQLiteDatabase db) {
+        db.execSQL(SQL_CREATE_BREEDS_TABLE);
+        db.execSQL(SQL_INSERT_NO_BREED);
+        db.execSQL("ALTER TABLE " + PetEntry.TABLE_NAME + " ADD COLUMN " + COLUMN_BREED_ID
+                + " INTEGER NOT NULL DEFAULT " + UNRESOLVED_BREED_ID + ";");
+        db.execSQL("ALTER TABLE " + PetEntry.TABLE_NAME + " ADD COLUMN " + COLUMN_DELETED
+                + " INTEGER NOT NULL DEFAULT 0;");
+        // The indexes are created once the table is in place, see BUILD_INDEXES, so the copy
+        // doesn't have to keep them up to date
+        db.execSQL(createPetsTable(MOVED_PETS_TABLE_NAME));
+        for (String trigger : SQL_CREATE_MOVE_TRIGGERS) {
+            db.execSQL(trigger);
+        }
+        db.execSQL(SQL_CREATE_MOVING_LIVE_PETS_VIEW);
+        db.execSQL(SQL_CREATE_MOVING_LIVE_PETS_BY_BREED_VIEW);
+    }
+
+    /**
+     * Put the pets table that {@link #MOVE_BREEDS} filled in the place of the old one. The
+     * indexes and triggers of the old table are dropped with it, the triggers are created again
+     * here and the indexes by {@link #BUILD_INDEXES}, which runs next.
+     */
+    private static void replaceMovedPets(SQLiteDatabase db) {
+        // Keep the highest ID ever used, so the IDs of deleted pets are still never reused
+        db.execSQL("DELETE FROM sqlite_sequence WHERE name = '" + MOVED_PETS_TABLE_NAME + "';");
+        db.execSQL("INSERT INTO sqlite_sequence (name, seq) SELECT '" + MOVED_PETS_TABLE_NAME
+                + "', seq FROM sqlite_sequence WHERE name = '" + PetEntry.TABLE_NAME + "';");
+
+        // The views refer to the old table, so they have to go before the new one is renamed
+        db.execSQL("DROP VIEW IF EXISTS " + LIVE_PETS + ";");
+        db.execSQL("DROP VIEW IF EXISTS " + LIVE_PETS_BY_BREED + ";");
+        db.execSQL("DROP TABLE " + PetEntry.TABLE_NAME + ";");
+        db.execSQL("ALTER TABLE " + MOVED_PETS_TABLE_NAME + " RENAME TO " + PetEntry.TABLE_NAME
+                + ";");
+        db.execSQL(SQL_CREATE_LIVE_PETS_VIEW);
+        db.execSQL(SQL_CREATE_LIVE_PETS_BY_BREED_VIEW);
+        createSearchTriggers(db, false);
+        createSummaryTriggers(db, false, isScheduled(db, FILL_SUMMARY_TABLE));
     }
 
     /**
@@ -67,6 +1192,152 @@ public class PetDbHelper extends SQLiteOpenHelper {
      */
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // The database is still at version 1, so there's nothing to do be done here.
+        // The steps only change the schema, which is quick whatever the number of pets. The
+        // rewrites of the data, and the indexes, are scheduled as migrations, which run in the
+        // background once the database is open, in the order they are scheduled in.
+        if (oldVersion < 8) {
+            // The steps below schedule their migrations in here
+            db.execSQL(SQL_CREATE_MIGRATIONS_TABLE);
+        }
+        // Version 7 moved the breeds into their own table, which rebuilds the pets table with
+        // the deleted column of version 9, and with all the indexes of versions 2, 3, 6 and 9
+        boolean moving = oldVersion < 7;
+        if (moving) {
+            startMovingBreeds(db);
+        }
+        if (oldVersion < 4) {
+            createSearchTable(db);
+        }
+        if (oldVersion < 5) {
+            createSummaryTable(db);
+        }
+        if (moving) {
+            // The triggers of older versions read the breed column, and count the deleted pets
+            createSearchTriggers(db, true);
+            createSummaryTriggers(db, true, oldVersion < 5);
+        } else if (oldVersion < 9) {
+            db.execSQL("ALTER TABLE " + PetEntry.TABLE_NAME + " ADD COLUMN " + COLUMN_DELETED
+                    + " INTEGER NOT NULL DEFAULT 0;");
+            db.execSQL(SQL_CREATE_LIVE_PETS_VIEW);
+            // There are no deleted pets yet, so the summary is still right
+            createSummaryTriggers(db, false, false);
+        }
+        if (oldVersion < 10) {
+            db.execSQL(SQL_CREATE_MAINTENANCE_TABLE);
+        }
+        boolean folding = oldVersion >= 7 && oldVersion < 11;
+        if (folding && isScheduled(db, MOVE_BREEDS)) {
+            // Version 10 may have been moving the breeds, its view didn't give the pets without
+            // a breed the same breed ID
+            db.execSQL("DROP VIEW IF EXISTS " + LIVE_PETS + ";");
+            db.execSQL(SQL_CREATE_MOVING_LIVE_PETS_VIEW);
+            db.execSQL(SQL_CREATE_MOVING_LIVE_PETS_BY_BREED_VIEW);
+        } else if (folding) {
+            db.execSQL(SQL_CREATE_LIVE_PETS_BY_BREED_VIEW);
+        }
+
+        if (moving) {
+            scheduleMigration(db, MOVE_BREEDS);
+        }
+        if (oldVersion < 9) {
+            scheduleMigration(db, BUILD_INDEXES);
+        }
+        if (oldVersion < 4) {
+            scheduleMigration(db, FILL_SEARCH_TABLE);
+        }
+        if (oldVersion < 5) {
+            scheduleMigration(db, FILL_SUMMARY_TABLE);
+        }
+        if (folding) {
+            scheduleMigration(db, FOLD_EMPTY_BREED);
+        }
+        if (moving) {
+            // Gather statistics on the new tables, so the query planner can choose between
+            // starting from the pets or from the breeds
+            scheduleMigration(db, ANALYZE);
+        }
+    }
+
+    /**
+     * Storage settings for the pets database: the journal mode, how often SQLite syncs to disk,
+     * and how much memory each connection may use.
+     */
+    public static final class StorageProfile {
+
+        /**
+         * Favours keeping every committed write. Readers can run while a writer commits, and a
+         * commit is on disk before it returns.
+         */
+        public static final StorageProfile DURABLE = new StorageProfile("durable",
+                true, SYNCHRONOUS_FULL, 2 * 1024, 0, 30 * 1000);
+
+        /**
+         * Favours write and read speed. The WAL is synced only at checkpoints, so the last
+         * commits can be lost on a power failure (but the database never gets corrupted), and
+         * reads go through a memory map.
+         */
+        public static final StorageProfile THROUGHPUT = new StorageProfile("throughput",
+                true, SYNCHRONOUS_NORMAL, 8 * 1024, 64L * 1024 * 1024, 60 * 1000);
+
+        /** Name of the profile, as accepted by {@link #forName} */
+        public final String name;
+
+        /**
+         * Whether the database uses a write-ahead log, which lets readers run concurrently with
+         * a writer, instead of a rollback journal.
+         */
+        public final boolean writeAheadLogging;
+
+        /** Value of PRAGMA synchronous: how often SQLite waits for data to reach the disk */
+        public final String synchronous;
+
+        /** Size of the page cache of the connection, in KiB */
+        public final int cacheSizeKb;
+
+        /** Number of bytes of the database file that are memory mapped, 0 to turn it off */
+        public final long mmapSize;
+
+        /** Time after which an unused connection of the pool is closed, in milliseconds */
+        public final long idleConnectionTimeoutMs;
+
+        /**
+         * Constructs a new {@link StorageProfile}.
+         *
+         * @param name                    of the profile
+         * @param writeAheadLogging       whether to use WAL journaling
+         * @param synchronous             one of the SYNCHRONOUS_ values
+         * @param cacheSizeKb             page cache size in KiB
+         * @param mmapSize                memory mapped size in bytes, 0 to turn it off
+         * @param idleConnectionTimeoutMs idle connection timeout in milliseconds
+         */
+        public StorageProfile(String name, boolean writeAheadLogging, String synchronous,
+                              int cacheSizeKb, long mmapSize, long idleConnectionTimeoutMs) {
+            if (!SYNCHRONOUS_OFF.equals(synchronous) && !SYNCHRONOUS_NORMAL.equals(synchronous)
+                    && !SYNCHRONOUS_FULL.equals(synchronous)) {
+                throw new IllegalArgumentException("Invalid synchronous level " + synchronous);
+            }
+            if (cacheSizeKb <= 0 || mmapSize < 0 || idleConnectionTimeoutMs < 0) {
+                throw new IllegalArgumentException("Invalid storage profile " + name);
+            }
+            this.name = name;
+            this.writeAheadLogging = writeAheadLogging;
+            this.synchronous = synchronous;
+            this.cacheSizeKb = cacheSizeKb;
+            this.mmapSize = mmapSize;
+            this.idleConnectionTimeoutMs = idleConnectionTimeoutMs;
+        }
+
+        /**
+         * Returns the preset storage profile with the given name, "durable" or "throughput".
+         */
+        public static StorageProfile forName(String name) {
+            if (DURABLE.name.equals(name)) {
+                return DURABLE;
+            }
+            if (THROUGHPUT.name.equals(name)) {
+                return THROUGHPUT;
+            }
+            throw new IllegalArgumentException("Unknown storage profile " + name);
+        }
     }
-}
\ No newline at end of file
+}
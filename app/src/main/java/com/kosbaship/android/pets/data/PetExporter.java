@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kosbaship.android.pets.data;
+
+import android.content.ContentProvider;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+
+import com.kosbaship.android.pets.data.PetContract.PetEntry;
+
+import org.json.JSONObject;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+/**
+ * Writes all the pets into a pipe, as CSV or as a JSON array, for the export URIs of
+ * {@link PetProvider}.
+ *
+ * The pets are read in chunks of {@link #CHUNK_SIZE} rows in ID order, each chunk starting after
+ * the last ID of the previous one. So memory use doesn't depend on the number of pets, and no
+ * cursor ever has to refill its window by stepping again over the rows it already read.
+ */
+final class PetExporter implements ContentProvider.PipeDataWriter<String> {
+
+    /** Number of pets read from the database at a time */
+    private static final int CHUNK_SIZE = 500;
+
+    /** Size of the buffer in front of the pipe, in characters */
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** Columns of the export, in order */
+    private static final String[] COLUMNS = {
+            PetEntry._ID,
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_GENDER,
+            PetEntry.COLUMN_PET_WEIGHT };
+
+    private final PetDbHelper mDbHelper;
+
+    PetExporter(PetDbHelper dbHelper) {
+        mDbHelper = dbHelper;
+    }
+
+    /**
+     * Write the pets to the pipe. This runs on a background thread, until all the pets are
+     * written or the reader closes its end of the pipe.
+     *
+     * @param format {@link PetEntry#EXPORT_FORMAT_CSV} or {@link PetEntry#EXPORT_FORMAT_JSON}
+     */
+    @Override
+    public void writeDataToPipe(ParcelFileDescriptor output, Uri uri, String mimeType,
+                                Bundle opts, String format) {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(output.getFileDescriptor()), UTF_8), BUFFER_SIZE);
+        boolean json = PetEntry.EXPORT_FORMAT_JSON.equals(format);
+        int count = 0;
+        try {
+            if (json) {
+                writer.write('[');
+            } else {
+                writeCsvHeader(writer);
+            }
+
+            SQLiteDatabase database = mDbHelper.getReadableDatabase();
+            String[] selectionArgs = { "-1" };
+            while (true) {
+                Cursor cursor = database.query(PetDbHelper.LIVE_PETS, COLUMNS,
+                        PetEntry._ID + ">?", selectionArgs, null, null, PetEntry._ID,
+                        String.valueOf(CHUNK_SIZE));
+                int rows;
+                long lastId = -1;
+                try {
+                    rows = cursor.getCount();
+                    while (cursor.moveToNext()) {
+                        if (json) {
+                            writeJsonPet(writer, cursor, count == 0);
+                        } else {
+                            writeCsvPet(writer, cursor);
+                        }
+                        lastId = cursor.getLong(0);
+                        count++;
+                    }
+                } finally {
+                    cursor.close();
+                }
+                if (rows < CHUNK_SIZE) {
+                    break;
+                }
+                selectionArgs[0] = String.valueOf(lastId);
+            }
+
+            if (json) {
+                writer.write(']');
+            }
+            writer.flush();
+        } catch (IOException e) {
+            // The reader went away before the end
+            Log.w(PetProvider.LOG_TAG, "Export of " + uri + " stopped after " + count + " pets", e);
+        } finally {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                // The pipe is broken already, nothing more to do
+            }
+        }
+    }
+
+    private static void writeCsvHeader(Writer writer) throws IOException {
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            writer.write(COLUMNS[i]);
+        }
+        writer.write("\r\n");
+    }
+
+    /**
+     * Write the pet at the current position of the cursor as a CSV record.
+     */
+    private static void writeCsvPet(Writer writer, Cursor cursor) throws IOException {
+        writer.write(Long.toString(cursor.getLong(0)));
+        writer.write(',');
+        writeCsvString(writer, cursor.getString(1));
+        writer.write(',');
+        writeCsvString(writer, cursor.getString(2));
+        writer.write(',');
+        writer.write(Integer.toString(cursor.getInt(3)));
+        writer.write(',');
+        writer.write(Integer.toString(cursor.getInt(4)));
+        writer.write("\r\n");
+    }
+
+    /**
+     * Write a CSV field, quoted if it holds a separator, a quote or a line break.
+     * A null field is left empty.
+     */
+    private static void writeCsvString(Writer writer, String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\r' || c == '\n';
+        }
+        if (!quote) {
+            writer.write(value);
+            return;
+        }
+        writer.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                writer.write('"');
+            }
+            writer.write(c);
+        }
+        writer.write('"');
+    }
+
+    /**
+     * Write the pet at the current position of the cursor as a JSON object.
+     *
+     * @param first whether it's the first pet of the array
+     */
+    private static void writeJsonPet(Writer writer, Cursor cursor, boolean first)
+            throws IOException {
+        if (!first) {
+            writer.write(',');
+        }
+        writer.write("{\"" + PetEntry._ID + "\":");
+        writer.write(Long.toString(cursor.getLong(0)));
+        writer.write(",\"" + PetEntry.COLUMN_PET_NAME + "\":");
+        writer.write(JSONObject.quote(cursor.getString(1)));
+        writer.write(",\"" + PetEntry.COLUMN_PET_BREED + "\":");
+        String breed = cursor.getString(2);
+        writer.write(breed == null ? "null" : JSONObject.quote(breed));
+        writer.write(",\"" + PetEntry.COLUMN_PET_GENDER + "\":");
+        writer.write(Integer.toString(cursor.getInt(3)));
+        writer.write(",\"" + PetEntry.COLUMN_PET_WEIGHT + "\":");
+        writer.write(Integer.toString(cursor.getInt(4)));
+        writer.write('}');
+    }
+}
@@ -0,0 +1,545 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kosbaship.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.Log;
+
+import com.kosbaship.android.pets.data.PetContract.PetEntry;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Imports pets from a CSV or JSON file, in the formats of the export URIs of
+ * {@link PetProvider}. The file is parsed as it's read and the pets are inserted
+ * {@link #BATCH_SIZE} at a time, each batch in its own transaction, so memory use doesn't depend
+ * on the size of the file.
+ *
+ * After each batch a checkpoint is saved. If the import is cancelled or the app is killed, a new
+ * import of the same file, see {@link #getInterruptedImport}, skips the records that were
+ * already imported. The checkpoint is saved right after its batch commits, so at most one batch
+ * can be imported twice if the app is killed between the two.
+ *
+ * Imports run one after the other on a background thread. The listener is called on the
+ * main thread.
+ */
+public final class PetImporter {
+
+    /**
+     * Interface for following an import.
+     */
+    public interface Listener {
+        /** Called after each batch of pets is imported. */
+        void onProgress(Progress progress);
+
+        /** Called when the whole file has been imported. */
+        void onFinished(Progress progress);
+
+        /** Called when the import stopped on an error, it can be resumed. */
+        void onFailed(Progress progress, Exception e);
+    }
+
+    /**
+     * How far an import got.
+     */
+    public static final class Progress {
+
+        /** Number of records read from the file, including the ones of earlier attempts */
+        public final long recordsRead;
+
+        /** Number of pets imported, including the ones of earlier attempts */
+        public final long petsImported;
+
+        /** Number of records that weren't valid pets, including the ones of earlier attempts */
+        public final long recordsSkipped;
+
+        /** Number of pets imported per second by this attempt */
+        public final double petsPerSecond;
+
+        Progress(long recordsRead, long petsImported, long recordsSkipped, double petsPerSecond) {
+            this.recordsRead = recordsRead;
+            this.petsImported = petsImported;
+            this.recordsSkipped = recordsSkipped;
+            this.petsPerSecond = petsPerSecond;
+        }
+    }
+
+    /** Number of pets inserted in one transaction */
+    private static final int BATCH_SIZE = 500;
+
+    /** Name of the preferences file holding the checkpoint */
+    private static final String PREFERENCES_NAME = "pet_import";
+
+    // Keys of the checkpoint
+    private static final String KEY_SOURCE = "source";
+    private static final String KEY_RECORDS = "records";
+    private static final String KEY_IMPORTED = "imported";
+    private static final String KEY_SKIPPED = "skipped";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** Runs the imports one after the other */
+    private static final Executor IMPORT_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    private final Context mContext;
+    private final Uri mSource;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private volatile Listener mListener;
+    private volatile boolean mCancelled;
+
+    /**
+     * Constructs a new {@link PetImporter}.
+     *
+     * @param context  of the app
+     * @param source   the file to import, as a URI that {@link ContentResolver} can open
+     * @param listener to follow the import, may be null
+     */
+    public PetImporter(Context context, Uri source, Listener listener) {
+        mContext = context.getApplicationContext();
+        mSource = source;
+        mListener = listener;
+    }
+
+    /**
+     * Returns the file of an import that didn't finish, or null if there is none.
+     */
+    public static Uri getInterruptedImport(Context context) {
+        String source = getCheckpoint(context).getString(KEY_SOURCE, null);
+        return source == null ? null : Uri.parse(source);
+    }
+
+    /**
+     * Forget about the import that didn't finish, if any.
+     */
+    public static void clearInterruptedImport(Context context) {
+        getCheckpoint(context).edit().clear().commit();
+    }
+
+    /**
+     * Start the import in the background, after the imports started before it. If the file has
+     * a checkpoint, the import carries on from it.
+     */
+    public void start() {
+        IMPORT_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                runImport();
+            }
+        });
+    }
+
+    /**
+     * Stop the import after the batch being written, and stop calling the listener. The
+     * checkpoint is kept so the import can be resumed.
+     */
+    public void cancel() {
+        mCancelled = true;
+        mListener = null;
+    }
+
+    private static SharedPreferences getCheckpoint(Context context) {
+        return context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Import the file, on the background thread.
+     */
+    private void runImport() {
+        if (mCancelled) {
+            return;
+        }
+        SharedPreferences checkpoint = getCheckpoint(mContext);
+        long records = 0;
+        long imported = 0;
+        long skipped = 0;
+        if (mSource.toString().equals(checkpoint.getString(KEY_SOURCE, null))) {
+            records = checkpoint.getLong(KEY_RECORDS, 0);
+            imported = checkpoint.getLong(KEY_IMPORTED, 0);
+            skipped = checkpoint.getLong(KEY_SKIPPED, 0);
+        } else {
+            checkpoint.edit().clear().putString(KEY_SOURCE, mSource.toString()).commit();
+        }
+        long resumeAt = records;
+        records = 0;
+
+        ContentResolver resolver = mContext.getContentResolver();
+        long start = SystemClock.elapsedRealtime();
+        long importedAtStart = imported;
+        RecordReader reader = null;
+        try {
+            InputStream input = resolver.openInputStream(mSource);
+            if (input == null) {
+                throw new IOException("Cannot open " + mSource);
+            }
+            reader = RecordReader.open(new BufferedReader(new InputStreamReader(input, UTF_8)));
+
+            ArrayList<ContentValues> batch = new ArrayList<>(BATCH_SIZE);
+            // Records read but not yet part of a committed batch
+            long pendingRecords = 0;
+            long pendingSkipped = 0;
+            while (!mCancelled) {
+                ContentValues values = new ContentValues();
+                int result = reader.read(values);
+                if (result == RecordReader.END) {
+                    break;
+                }
+                records++;
+                if (records <= resumeAt) {
+                    // Imported by an earlier attempt
+                    continue;
+                }
+                pendingRecords++;
+                if (result == RecordReader.INVALID) {
+                    pendingSkipped++;
+                } else {
+                    batch.add(values);
+                }
+                if (batch.size() == BATCH_SIZE) {
+                    int inserted = insert(resolver, batch);
+                    imported += inserted;
+                    skipped += pendingSkipped + BATCH_SIZE - inserted;
+                    saveCheckpoint(checkpoint, resumeAt + pendingRecords, imported, skipped);
+                    resumeAt += pendingRecords;
+                    pendingRecords = 0;
+                    pendingSkipped = 0;
+                    postProgress(false, progress(resumeAt, imported, skipped, importedAtStart,
+                            start));
+                }
+            }
+            if (mCancelled) {
+                return;
+            }
+
+            // The last batch, then the import is done and the checkpoint isn't needed anymore
+            int lastBatchSize = batch.size();
+            int inserted = insert(resolver, batch);
+            imported += inserted;
+            skipped += pendingSkipped + lastBatchSize - inserted;
+            checkpoint.edit().clear().commit();
+            postProgress(true, progress(resumeAt + pendingRecords, imported, skipped,
+                    importedAtStart, start));
+        } catch (IOException | RuntimeException e) {
+            Log.e(PetProvider.LOG_TAG, "Import of " + mSource + " failed after " + records
+                    + " records", e);
+            postFailure(progress(resumeAt, imported, skipped, importedAtStart, start), e);
+        } finally {
+            if (reader != null) {
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * Insert a batch of pets in one transaction and empty the batch. The provider leaves out
+     * the records that aren't valid pets, they count as skipped.
+     *
+     * @return the number of pets inserted
+     */
+    private static int insert(ContentResolver resolver, ArrayList<ContentValues> batch) {
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        int inserted = resolver.bulkInsert(PetEntry.CONTENT_URI,
+                batch.toArray(new ContentValues[batch.size()]));
+        batch.clear();
+        return inserted;
+    }
+
+    private static void saveCheckpoint(SharedPreferences checkpoint, long records, long imported,
+                                       long skipped) {
+        checkpoint.edit()
+                .putLong(KEY_RECORDS, records)
+                .putLong(KEY_IMPORTED, imported)
+                .putLong(KEY_SKIPPED, skipped)
+                .commit();
+    }
+
+    private static Progress progress(long records, long imported, long skipped,
+                                     long importedAtStart, long start) {
+        long elapsed = SystemClock.elapsedRealtime() - start;
+        double perSecond = elapsed > 0 ? (imported - importedAtStart) * 1000.0 / elapsed : 0;
+        return new Progress(records, imported, skipped, perSecond);
+    }
+
+    private void postProgress(final boolean finished, final Progress progress) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Listener listener = mListener;
+                if (listener == null) {
+                    return;
+                }
+                if (finished) {
+                    listener.onFinished(progress);
+                } else {
+                    listener.onProgress(progress);
+                }
+            }
+        });
+    }
+
+    private void postFailure(final Progress progress, final Exception e) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Listener listener = mListener;
+                if (listener != null) {
+                    listener.onFailed(progress, e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Reads the records of a file one at a time as pet content values.
+     */
+    private abstract static class RecordReader {
+
+        /** The record was read */
+        static final int OK = 0;
+        /** The record was read but some of its values couldn't be parsed */
+        static final int INVALID = 1;
+        /** There are no more records */
+        static final int END = 2;
+
+        /**
+         * Returns a reader for the format of the file: JSON if it starts with an array,
+         * CSV otherwise.
+         */
+        static RecordReader open(BufferedReader reader) throws IOException {
+            reader.mark(1024);
+            int c;
+            do {
+                c = reader.read();
+            } while (c != -1 && Character.isWhitespace(c));
+            reader.reset();
+            if (c == '[') {
+                return new JsonRecordReader(reader);
+            }
+            return new CsvRecordReader(reader);
+        }
+
+        /**
+         * Read the next record into the given values.
+         *
+         * @return {@link #OK}, {@link #INVALID} or {@link #END}
+         */
+        abstract int read(ContentValues values) throws IOException;
+
+        abstract void close();
+
+        /**
+         * Put a column read as text into the values, converting the gender and the weight
+         * to numbers. Empty breeds are stored as unknown.
+         *
+         * @return false if the value couldn't be converted
+         */
+        static boolean put(ContentValues values, String column, String value) {
+            if (PetEntry.COLUMN_PET_GENDER.equals(column)
+                    || PetEntry.COLUMN_PET_WEIGHT.equals(column)) {
+                try {
+                    values.put(column, Integer.parseInt(value.trim()));
+                    return true;
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+            }
+            if (PetEntry.COLUMN_PET_BREED.equals(column) && value.isEmpty()) {
+                value = null;
+            }
+            values.put(column, value);
+            return true;
+        }
+
+        /**
+         * Returns whether the given column is imported, the IDs of the file are not kept.
+         */
+        static boolean isImported(String column) {
+            return PetEntry.COLUMN_PET_NAME.equals(column)
+                    || PetEntry.COLUMN_PET_BREED.equals(column)
+                    || PetEntry.COLUMN_PET_GENDER.equals(column)
+                    || PetEntry.COLUMN_PET_WEIGHT.equals(column);
+        }
+    }
+
+    /**
+     * Reads CSV with a header line, fields may be quoted with double quotes.
+     */
+    private static final class CsvRecordReader extends RecordReader {
+
+        private final Reader mReader;
+        private final StringBuilder mField = new StringBuilder();
+        private final ArrayList<String> mFields = new ArrayList<>();
+        private String[] mColumns;
+
+        CsvRecordReader(Reader reader) {
+            mReader = reader;
+        }
+
+        @Override
+        int read(ContentValues values) throws IOException {
+            if (mColumns == null) {
+                if (!readFields()) {
+                    return END;
+                }
+                mColumns = mFields.toArray(new String[mFields.size()]);
+                for (int i = 0; i < mColumns.length; i++) {
+                    mColumns[i] = mColumns[i].trim();
+                }
+            }
+            // Skip the blank lines
+            do {
+                if (!readFields()) {
+                    return END;
+                }
+            } while (mFields.size() == 1 && mFields.get(0).isEmpty());
+
+            boolean valid = mFields.size() == mColumns.length;
+            for (int i = 0; i < mColumns.length && i < mFields.size(); i++) {
+                if (RecordReader.isImported(mColumns[i])) {
+                    valid &= RecordReader.put(values, mColumns[i], mFields.get(i));
+                }
+            }
+            return valid ? OK : INVALID;
+        }
+
+        /**
+         * Read the fields of the next line into {@link #mFields}.
+         *
+         * @return false at the end of the file
+         */
+        private boolean readFields() throws IOException {
+            mFields.clear();
+            mField.setLength(0);
+            int c = mReader.read();
+            if (c == -1) {
+                return false;
+            }
+            boolean quoted = false;
+            while (true) {
+                if (quoted) {
+                    if (c == -1) {
+                        throw new IOException("Unterminated quote in CSV");
+                    }
+                    if (c == '"') {
+                        c = mReader.read();
+                        if (c != '"') {
+                            // End of the quoted part, look at the next character again
+                            quoted = false;
+                            continue;
+                        }
+                    }
+                    mField.append((char) c);
+                } else if (c == '"' && mField.length() == 0) {
+                    quoted = true;
+                } else if (c == ',') {
+                    mFields.add(mField.toString());
+                    mField.setLength(0);
+                } else if (c == '\n' || c == -1) {
+                    mFields.add(mField.toString());
+                    return true;
+                } else if (c != '\r') {
+                    mField.append((char) c);
+                }
+                c = mReader.read();
+            }
+        }
+
+        @Override
+        void close() {
+            try {
+                mReader.close();
+            } catch (IOException e) {
+                // Nothing was written, nothing is lost
+            }
+        }
+    }
+
+    /**
+     * Reads a JSON array of pet objects.
+     */
+    private static final class JsonRecordReader extends RecordReader {
+
+        private final JsonReader mReader;
+        private boolean mStarted;
+
+        JsonRecordReader(Reader reader) {
+            mReader = new JsonReader(reader);
+        }
+
+        @Override
+        int read(ContentValues values) throws IOException {
+            if (!mStarted) {
+                mReader.beginArray();
+                mStarted = true;
+            }
+            if (!mReader.hasNext()) {
+                mReader.endArray();
+                return END;
+            }
+            if (mReader.peek() != JsonToken.BEGIN_OBJECT) {
+                mReader.skipValue();
+                return INVALID;
+            }
+
+            boolean valid = true;
+            mReader.beginObject();
+            while (mReader.hasNext()) {
+                String column = mReader.nextName();
+                if (!RecordReader.isImported(column)) {
+                    mReader.skipValue();
+                } else if (mReader.peek() == JsonToken.NULL) {
+                    mReader.nextNull();
+                    values.putNull(column);
+                } else if (mReader.peek() == JsonToken.STRING
+                        || mReader.peek() == JsonToken.NUMBER) {
+                    valid &= RecordReader.put(values, column, mReader.nextString());
+                } else {
+                    mReader.skipValue();
+                    valid = false;
+                }
+            }
+            mReader.endObject();
+            return valid ? OK : INVALID;
+        }
+
+        @Override
+        void close() {
+            try {
+                mReader.close();
+            } catch (IOException e) {
+                // Nothing was written, nothing is lost
+            }
+        }
+    }
+}
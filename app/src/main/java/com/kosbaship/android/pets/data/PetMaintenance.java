@@ -0,0 +1,328 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kosbaship.android.pets.data;
+
+import android.annotation.TargetApi;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Looks after the database file while the app is idle: it checkpoints the write-ahead log,
+ * gives free pages back to the file system, gathers statistics for the query planner and checks
+ * the file for corruption, on a background thread. A run starts once the provider has neither
+ * written nor been queried for a while, and stops between two steps as soon as a write starts,
+ * a query comes in or its time budget is spent; a write also cancels an integrity check that
+ * is half done. Each task records what it did in the maintenance table, and the tasks an
+ * interrupted run didn't get to are done by the next one.
+ */
+final class PetMaintenance {
+
+    private static final String TASK_CHECKPOINT = "checkpoint";
+    private static final String TASK_VACUUM = "vacuum";
+    private static final String TASK_ANALYZE = "analyze ";
+    private static final String TASK_QUICK_CHECK = "quick_check";
+
+    /** How often the database file is checked for corruption, in milliseconds */
+    private static final long QUICK_CHECK_INTERVAL_MS = TimeUnit.DAYS.toMillis(7);
+
+    /** Number of pets from which the planner needs statistics to choose the right index */
+    private static final long ANALYZE_MIN_PETS = 1000;
+
+    /** Number of free pages each step of the vacuum gives back at most */
+    private static final int VACUUM_PAGES = 256;
+
+    private final PetDbHelper mDbHelper;
+    private final long mIdleDelayMs;
+    private final long mBudgetMs;
+
+    private final ScheduledExecutorService mExecutor = new ScheduledThreadPoolExecutor(1,
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "PetMaintenance");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    /** The next run, if one is scheduled and hasn't started yet */
+    private ScheduledFuture<?> mScheduled;
+
+    /** Cancels the integrity check that is running, if there is one */
+    private CancellationSignal mCancellationSignal;
+
+    /** Number of writes in progress */
+    private final AtomicInteger mWrites = new AtomicInteger();
+
+    /** Uptime of the last read or write of the provider, in milliseconds */
+    private volatile long mLastActivity = SystemClock.uptimeMillis();
+
+    private volatile boolean mClosed;
+
+    /**
+     * @param idleDelayMs how long the provider must be idle before maintenance runs,
+     *                    in milliseconds
+     * @param budgetMs    how long a run may take at most, in milliseconds. A single step can
+     *                    go over it, the run stops after that step.
+     */
+    PetMaintenance(PetDbHelper dbHelper, long idleDelayMs, long budgetMs) {
+        if (idleDelayMs < 0 || budgetMs < 1) {
+            throw new IllegalArgumentException("Invalid maintenance settings");
+        }
+        mDbHelper = dbHelper;
+        mIdleDelayMs = idleDelayMs;
+        mBudgetMs = budgetMs;
+    }
+
+    /**
+     * Run the maintenance once the provider has been idle for a while after it started.
+     */
+    void start() {
+        schedule(mIdleDelayMs);
+    }
+
+    /**
+     * Put the maintenance off because the provider was just queried.
+     */
+    void noteActivity() {
+        mLastActivity = SystemClock.uptimeMillis();
+    }
+
+    /**
+     * Put the maintenance off until the write that is starting ends, and stop the run that is
+     * in progress. Every call must be followed by one to {@link #endWrite()}.
+     */
+    void beginWrite() {
+        mWrites.incrementAndGet();
+        noteActivity();
+        cancelQuickCheck();
+    }
+
+    /**
+     * Run the maintenance once the provider has been idle for a while after the write.
+     */
+    void endWrite() {
+        noteActivity();
+        if (mWrites.decrementAndGet() == 0) {
+            schedule(mIdleDelayMs);
+        }
+    }
+
+    /**
+     * Stop the maintenance once the current step is done. The next run is scheduled when the
+     * provider starts again.
+     */
+    synchronized void close() {
+        mClosed = true;
+        mExecutor.shutdownNow();
+        cancelQuickCheck();
+    }
+
+    private synchronized void cancelQuickCheck() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN
+                && mCancellationSignal != null) {
+            mCancellationSignal.cancel();
+        }
+    }
+
+    private synchronized void schedule(long delayMs) {
+        // A run that is already scheduled checks how long the provider was idle when it's due,
+        // and puts itself off if it must
+        if (mClosed || mScheduled != null) {
+            return;
+        }
+        mScheduled = mExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                synchronized (PetMaintenance.this) {
+                    mScheduled = null;
+                }
+                long idleMs = SystemClock.uptimeMillis() - mLastActivity;
+                if (mWrites.get() != 0) {
+                    // The end of the write schedules the next run
+                    return;
+                }
+                if (idleMs < mIdleDelayMs) {
+                    schedule(mIdleDelayMs - idleMs);
+                    return;
+                }
+                boolean finished;
+                try {
+                    finished = maintain();
+                } catch (SQLException e) {
+                    // The next run tries again, after the next write
+                    Log.e(PetDbHelper.LOG_TAG, "Maintenance failed", e);
+                    return;
+                }
+                if (!finished) {
+                    schedule(mIdleDelayMs);
+                }
+            }
+        }, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Run the tasks that are due, until the provider gets busy or the time budget is spent.
+     *
+     * @return whether every task that was due is done
+     */
+    private boolean maintain() {
+        long start = SystemClock.uptimeMillis();
+        long deadline = start + mBudgetMs;
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        HashMap<String, long[]> lastRuns = PetDbHelper.getMaintenanceRuns(database);
+        StringBuilder done = new StringBuilder();
+        boolean finished = false;
+        try {
+            if (isInterrupted(start, deadline)) {
+                return false;
+            }
+            checkpoint(database, done);
+
+            if (PetDbHelper.isIncrementalVacuum(database)) {
+                long taskStart = SystemClock.uptimeMillis();
+                int pages = 0;
+                int chunkPages;
+                do {
+                    if (isInterrupted(start, deadline)) {
+                        if (pages != 0) {
+                            record(database, TASK_VACUUM, taskStart, pages, null, done);
+                        }
+                        return false;
+                    }
+                    chunkPages = PetDbHelper.incrementalVacuum(database, VACUUM_PAGES);
+                    pages += chunkPages;
+                } while (chunkPages == VACUUM_PAGES);
+                if (pages != 0) {
+                    record(database, TASK_VACUUM, taskStart, pages, null, done);
+                }
+            }
+
+            long pets = PetDbHelper.getPetCount(database);
+            for (String index : PetDbHelper.getAnalyzeTargets(database)) {
+                if (!isAnalyzeDue(lastRuns.get(TASK_ANALYZE + index), pets)) {
+                    continue;
+                }
+                if (isInterrupted(start, deadline)) {
+                    return false;
+                }
+                long taskStart = SystemClock.uptimeMillis();
+                PetDbHelper.analyze(database, index);
+                record(database, TASK_ANALYZE + index, taskStart, pets, null, done);
+            }
+
+            long[] lastCheck = lastRuns.get(TASK_QUICK_CHECK);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN && (lastCheck == null
+                    || lastCheck[0] + QUICK_CHECK_INTERVAL_MS < System.currentTimeMillis())) {
+                if (isInterrupted(start, deadline)) {
+                    return false;
+                }
+                quickCheck(database, done);
+            }
+            finished = true;
+            return true;
+        } catch (OperationCanceledException e) {
+            // A write started while the file was being checked
+            return false;
+        } finally {
+            if (done.length() != 0) {
+                Log.i(PetDbHelper.LOG_TAG, (finished ? "Maintenance" : "Interrupted maintenance")
+                        + " in " + (SystemClock.uptimeMillis() - start) + " ms:" + done);
+            }
+        }
+    }
+
+    /**
+     * Returns whether the run must stop before its next step, because the provider got busy
+     * since it started, its time budget is spent or the provider is shutting down.
+     */
+    private boolean isInterrupted(long start, long deadline) {
+        return mClosed || mWrites.get() != 0 || mLastActivity > start
+                || SystemClock.uptimeMillis() > deadline;
+    }
+
+    /**
+     * Returns whether an index needs new statistics: when it never had any and there are
+     * enough pets for them to matter, or when the number of pets changed by more than a
+     * quarter since it was last analyzed.
+     *
+     * @param lastRun time and number of pets of the last time it was analyzed, or null
+     */
+    private static boolean isAnalyzeDue(long[] lastRun, long pets) {
+        if (lastRun == null) {
+            return pets >= ANALYZE_MIN_PETS;
+        }
+        return Math.abs(pets - lastRun[1]) * 4 > lastRun[1];
+    }
+
+    private void checkpoint(SQLiteDatabase database, StringBuilder done) {
+        long taskStart = SystemClock.uptimeMillis();
+        long[] frames = PetDbHelper.checkpoint(database);
+        if (frames[0] > 0) {
+            // Frames that readers still need are copied by a later checkpoint
+            record(database, TASK_CHECKPOINT, taskStart, frames[1],
+                    frames[1] < frames[0] ? (frames[0] - frames[1]) + " frames left" : null,
+                    done);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void quickCheck(SQLiteDatabase database, StringBuilder done) {
+        long taskStart = SystemClock.uptimeMillis();
+        CancellationSignal cancellationSignal = new CancellationSignal();
+        synchronized (this) {
+            if (mClosed) {
+                return;
+            }
+            mCancellationSignal = cancellationSignal;
+        }
+        String problem;
+        try {
+            problem = PetDbHelper.quickCheck(database, cancellationSignal);
+        } finally {
+            synchronized (this) {
+                mCancellationSignal = null;
+            }
+        }
+        if (problem != null) {
+            Log.e(PetDbHelper.LOG_TAG, "Database check failed: " + problem);
+        }
+        record(database, TASK_QUICK_CHECK, taskStart, 0, problem, done);
+    }
+
+    private static void record(SQLiteDatabase database, String task, long taskStart,
+                               long amount, String result, StringBuilder done) {
+        long durationMs = SystemClock.uptimeMillis() - taskStart;
+        PetDbHelper.recordMaintenance(database, task, durationMs, amount, result);
+        done.append(' ').append(task.trim()).append(" (").append(amount).append(", ")
+                .append(durationMs).append(" ms)");
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kosbaship.android.pets.data;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * A data rewrite of a schema upgrade that is too slow to run while the database opens, like
+ * filling a new table from the pets. {@link PetDbHelper#onUpgrade} only makes the cheap schema
+ * changes and schedules the rewrite, and {@link PetMigrator} then runs it on a background
+ * thread, one short transaction at a time.
+ *
+ * A migration goes from one position to another, usually pet IDs. The position each chunk
+ * reaches is saved in the same transaction as the chunk, so a migration that is stopped, by the
+ * process dying for example, carries on where it left off the next time.
+ *
+ * Queries keep working while a migration runs, and see the data as far as it got. Once it's
+ * complete the provider drops its caches and tells its observers to query again.
+ */
+abstract class PetMigration {
+
+    /** Position returned by {@link #runChunk} once the migration is complete */
+    static final long DONE = -1;
+
+    /** Name the migration is scheduled and saved under */
+    final String name;
+
+    PetMigration(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Returns the position the migration ends at, called when it's scheduled. The rows added
+     * after that are left to the triggers and the code of the new version.
+     */
+    long getEnd(SQLiteDatabase database) {
+        return 0;
+    }
+
+    /**
+     * Run the next chunk of the migration, inside the transaction that saves its position.
+     * Readers keep going while it runs, and writers wait for it, so a chunk should take a
+     * fraction of a second at most.
+     *
+     * @param position the position the previous chunk reached, 0 for the first chunk
+     * @param end      the position the migration ends at, see {@link #getEnd}
+     * @param maxRows  the number of rows a chunk should change at most
+     * @return the position this chunk reached, or {@link #DONE}
+     */
+    abstract long runChunk(SQLiteDatabase database, long position, long end, int maxRows);
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kosbaship.android.pets.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.ArrayList;
+
+/**
+ * Runs the migrations that {@link PetDbHelper#onUpgrade} scheduled, on a background thread.
+ * Each chunk of a migration is a write of the {@link PetWriteQueue}, so it's committed between
+ * the writes of the provider rather than in the way of them, and readers carry on meanwhile.
+ *
+ * The thread also opens the database, so the schema upgrade itself happens here rather than
+ * on the thread of the first query, unless that query comes first.
+ *
+ * A chunk that fails rolls back and is tried again after a pause, which doubles with each
+ * failure in a row, so a migration never stays half done until the next start of the process.
+ */
+final class PetMigrator {
+
+    /**
+     * Interface for hearing about finished migrations.
+     */
+    interface Listener {
+        /** Called on the migration thread once a migration is complete. */
+        void onMigrationComplete(String name);
+    }
+
+    /** How long the migrator waits after a failure before it tries again, at first */
+    private static final long FIRST_RETRY_DELAY_MS = 1000;
+
+    /** Longest the migrator waits before it tries again, however often it failed */
+    private static final long MAX_RETRY_DELAY_MS = 60 * 1000;
+
+    private final PetDbHelper mDbHelper;
+    private final PetWriteQueue mWriteQueue;
+    private final int mChunkRows;
+    private final Listener mListener;
+
+    private volatile boolean mClosed;
+
+    /**
+     * @param chunkRows the number of rows each chunk of a migration changes at most
+     */
+    PetMigrator(PetDbHelper dbHelper, PetWriteQueue writeQueue, int chunkRows,
+                Listener listener) {
+        if (chunkRows < 1) {
+            throw new IllegalArgumentException("Invalid chunk size " + chunkRows);
+        }
+        mDbHelper = dbHelper;
+        mWriteQueue = writeQueue;
+        mChunkRows = chunkRows;
+        mListener = listener;
+    }
+
+    /**
+     * Open the database and run the scheduled migrations on a new background thread.
+     */
+    void start() {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                long retryDelayMs = FIRST_RETRY_DELAY_MS;
+                while (!mClosed) {
+                    try {
+                        runMigrations();
+                        return;
+                    } catch (RuntimeException e) {
+                        // The failed chunk rolled back, so it runs again from where the
+                        // previous chunk left off
+                        Log.e(PetDbHelper.LOG_TAG, "Migration failed, retrying in "
+                                + retryDelayMs + " ms", e);
+                    }
+                    try {
+                        Thread.sleep(retryDelayMs);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    retryDelayMs = Math.min(retryDelayMs * 2, MAX_RETRY_DELAY_MS);
+                }
+            }
+        }, "PetMigrator");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stop running migrations once the current chunk is done.
+     */
+    void close() {
+        mClosed = true;
+    }
+
+    /**
+     * Run the scheduled migrations until they are all complete or the migrator is closed.
+     *
+     * @throws RuntimeException if the database can't be opened or a chunk fails
+     */
+    private void runMigrations() {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        for (String name : getScheduled(database)) {
+            final PetMigration migration = PetDbHelper.getMigration(name);
+            if (migration == null) {
+                Log.w(PetDbHelper.LOG_TAG, "Unknown migration " + name);
+                continue;
+            }
+            long start = System.nanoTime();
+            int chunks = 0;
+            boolean complete = false;
+            while (!complete) {
+                if (mClosed) {
+                    return;
+                }
+                complete = mWriteQueue.submit(new PetWriteQueue.Write<Boolean>() {
+                    @Override
+                    public Boolean run(SQLiteDatabase database) {
+                        return runChunk(database, migration, mChunkRows);
+                    }
+                });
+                chunks++;
+            }
+            Log.i(PetDbHelper.LOG_TAG, "Migration " + name + " took " + chunks + " chunks and "
+                    + (System.nanoTime() - start) / 1000000 + " ms");
+            mListener.onMigrationComplete(name);
+        }
+    }
+
+    /**
+     * Returns the names of the scheduled migrations, in the order they were scheduled.
+     */
+    private static ArrayList<String> getScheduled(SQLiteDatabase database) {
+        ArrayList<String> names = new ArrayList<>();
+        Cursor cursor = database.query(PetDbHelper.MIGRATIONS_TABLE_NAME,
+                new String[] { PetDbHelper.MIGRATION_COLUMN_NAME }, null, null, null, null,
+                "rowid");
+        try {
+            while (cursor.moveToNext()) {
+                names.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return names;
+    }
+
+    /**
+     * Run the next chunk of a migration and save how far it got, inside the transaction of
+     * the writer thread.
+     *
+     * @return whether the migration is complete
+     */
+    private static boolean runChunk(SQLiteDatabase database, PetMigration migration,
+                                    int chunkRows) {
+        String[] name = { migration.name };
+        Cursor cursor = database.query(PetDbHelper.MIGRATIONS_TABLE_NAME, new String[] {
+                PetDbHelper.MIGRATION_COLUMN_POSITION, PetDbHelper.MIGRATION_COLUMN_END },
+                PetDbHelper.MIGRATION_COLUMN_NAME + "=?", name, null, null, null);
+        long position;
+        long end;
+        try {
+            if (!cursor.moveToFirst()) {
+                // Already complete
+                return true;
+            }
+            position = cursor.getLong(0);
+            end = cursor.getLong(1);
+        } finally {
+            cursor.close();
+        }
+
+        long reached = migration.runChunk(database, position, end, chunkRows);
+        if (reached == PetMigration.DONE) {
+            database.delete(PetDbHelper.MIGRATIONS_TABLE_NAME,
+                    PetDbHelper.MIGRATION_COLUMN_NAME + "=?", name);
+            return true;
+        }
+        database.execSQL("UPDATE " + PetDbHelper.MIGRATIONS_TABLE_NAME + " SET "
+                + PetDbHelper.MIGRATION_COLUMN_POSITION + "=? WHERE "
+                + PetDbHelper.MIGRATION_COLUMN_NAME + "=?",
+                new Object[] { reached, migration.name });
+        return false;
+    }
+}
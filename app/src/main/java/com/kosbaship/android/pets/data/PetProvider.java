@@ -15,16 +15,44 @@
  */
 package com.kosbaship.android.pets.data;
 
+import android.content.ClipDescription;
+import android.content.ComponentCallbacks2;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
+import android.content.res.AssetFileDescriptor;
+import android.content.res.Resources;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.os.Parcelable;
+import android.text.TextUtils;
 import android.util.Log;
 
+import com.kosbaship.android.pets.R;
 import com.kosbaship.android.pets.data.PetContract.PetEntry;
+import com.kosbaship.android.pets.data.PetContract.StatsEntry;
+import com.kosbaship.android.pets.data.PetContract.SummaryEntry;
+
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
 //                  (101)
 //(101 - B) got to AndroidManifest.xml
 //(101 - A)
@@ -51,6 +79,56 @@ public class PetProvider extends ContentProvider {
     private static final int PETS = 100;
     /** URI matcher code for the content URI for a single pet in the pets table */
     private static final int PET_ID = 101;
+    /** URI matcher code for the content URI to search the pets table */
+    private static final int PET_SEARCH = 102;
+    /** URI matcher code for the content URI of the provider statistics */
+    private static final int PET_STATS = 103;
+    /** URI matcher code for the content URI to count the pets */
+    private static final int PET_COUNT = 104;
+    /** URI matcher code for the content URI of the summary of all the pets */
+    private static final int PET_SUMMARY = 105;
+    /** URI matcher code for the content URI of the summary of each breed */
+    private static final int BREED_SUMMARIES = 106;
+    /** URI matcher code for the content URI of the summary of a single breed */
+    private static final int BREED_SUMMARY = 107;
+    /** URI matcher code for the content URI to export the pets in a format chosen by MIME type */
+    private static final int PET_EXPORT = 108;
+    /** URI matcher code for the content URI to export the pets in the format of the URI */
+    private static final int PET_EXPORT_FORMAT = 109;
+    /** URI matcher code for the content URI of the deleted pets that aren't purged yet */
+    private static final int PET_DELETED = 110;
+
+    // The methods of call() have no URI, these codes only keep their statistics apart
+    /** Statistics code of the {@link PetEntry#METHOD_GET_PETS_BY_IDS} calls */
+    private static final int CALL_GET_PETS_BY_IDS = 111;
+    /** Statistics code of the {@link PetEntry#METHOD_UPDATE_WEIGHTS} calls */
+    private static final int CALL_UPDATE_WEIGHTS = 112;
+    /** Statistics code of the {@link PetEntry#METHOD_DELETE_BY_IDS} calls */
+    private static final int CALL_DELETE_BY_IDS = 113;
+    /** Statistics code of the {@link PetEntry#METHOD_BULK_INSERT} calls */
+    private static final int CALL_BULK_INSERT = 114;
+
+    /**
+     * Names of the routes that the statistics are kept for. The route of a URI matcher code is
+     * its offset from {@link #PETS}, and so is the route of a statistics code of call().
+     */
+    private static final String[] ROUTES = {
+            PetContract.PATH_PETS,
+            PetContract.PATH_PETS + "/#",
+            PetContract.PATH_PETS + "/" + PetContract.PATH_SEARCH + "/*",
+            PetContract.PATH_PETS + "/" + PetContract.PATH_STATS,
+            PetContract.PATH_PETS + "/" + PetContract.PATH_COUNT,
+            PetContract.PATH_PETS + "/" + PetContract.PATH_SUMMARY,
+            PetContract.PATH_PETS + "/" + PetContract.PATH_SUMMARY + "/" + PetContract.PATH_BREEDS,
+            PetContract.PATH_PETS + "/" + PetContract.PATH_SUMMARY + "/" + PetContract.PATH_BREEDS
+                    + "/*",
+            PetContract.PATH_PETS + "/" + PetContract.PATH_EXPORT,
+            PetContract.PATH_PETS + "/" + PetContract.PATH_EXPORT + "/*",
+            PetContract.PATH_PETS + "/" + PetContract.PATH_DELETED,
+            "call/" + PetEntry.METHOD_GET_PETS_BY_IDS,
+            "call/" + PetEntry.METHOD_UPDATE_WEIGHTS,
+            "call/" + PetEntry.METHOD_DELETE_BY_IDS,
+            "call/" + PetEntry.METHOD_BULK_INSERT };
     //                          (101 - E)
     //(101 - E - 1)
     // declare this global variable
@@ -86,21 +164,201 @@ public class PetProvider extends ContentProvider {
         // For example, "content://com.example.android.pets/pets/3" matches, but
         // "content://com.example.android.pets/pets" (without a number at the end) doesn't match.
         sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY, PetContract.PATH_PETS + "/#", PET_ID);
+
+        // The content URI of the form "content://com.example.android.pets/pets/search/max" will
+        // map to the integer code {@link #PET_SEARCH}. This URI is used to find the pets whose
+        // name or breed matches the last path segment.
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_PETS + "/" + PetContract.PATH_SEARCH + "/*", PET_SEARCH);
+
+        // The content URI "content://com.example.android.pets/pets/_stats" will map to the
+        // integer code {@link #PET_STATS}. The "#" wildcard only matches numbers, so it doesn't
+        // clash with {@link #PET_ID}.
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_PETS + "/" + PetContract.PATH_STATS, PET_STATS);
+
+        // The summary URIs, "content://com.example.android.pets/pets/count",
+        // ".../pets/stats", ".../pets/stats/breeds" and ".../pets/stats/breeds/Tabby", read
+        // the summary table rather than the pets
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_PETS + "/" + PetContract.PATH_COUNT, PET_COUNT);
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_PETS + "/" + PetContract.PATH_SUMMARY, PET_SUMMARY);
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY, PetContract.PATH_PETS + "/"
+                + PetContract.PATH_SUMMARY + "/" + PetContract.PATH_BREEDS, BREED_SUMMARIES);
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY, PetContract.PATH_PETS + "/"
+                + PetContract.PATH_SUMMARY + "/" + PetContract.PATH_BREEDS + "/*", BREED_SUMMARY);
+
+        // The export URIs, "content://com.example.android.pets/pets/export" and
+        // ".../pets/export/csv", are opened as files rather than queried
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_PETS + "/" + PetContract.PATH_EXPORT, PET_EXPORT);
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_PETS + "/" + PetContract.PATH_EXPORT + "/*", PET_EXPORT_FORMAT);
+
+        // The content URI "content://com.example.android.pets/pets/deleted" is updated to
+        // restore the deleted pets
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_PETS + "/" + PetContract.PATH_DELETED, PET_DELETED);
+    }
+
+    /** Columns of the summary URIs, as computed from the summary table */
+    private static final HashMap<String, String> sSummaryProjectionMap = new HashMap<>();
+
+    static {
+        sSummaryProjectionMap.put(SummaryEntry._ID, "rowid AS " + SummaryEntry._ID);
+        // Unknown breeds are stored as empty to be part of the key, give them back as null
+        sSummaryProjectionMap.put(SummaryEntry.COLUMN_BREED, "NULLIF(" + SummaryEntry.COLUMN_BREED
+                + ", '') AS " + SummaryEntry.COLUMN_BREED);
+        String[] columns = {
+                SummaryEntry.COLUMN_PET_COUNT,
+                SummaryEntry.COLUMN_MALE_COUNT,
+                SummaryEntry.COLUMN_FEMALE_COUNT,
+                SummaryEntry.COLUMN_UNKNOWN_GENDER_COUNT,
+                SummaryEntry.COLUMN_TOTAL_WEIGHT };
+        for (String column : columns) {
+            sSummaryProjectionMap.put(column, column);
+        }
+        sSummaryProjectionMap.put(SummaryEntry.COLUMN_AVERAGE_WEIGHT, "CASE WHEN "
+                + SummaryEntry.COLUMN_PET_COUNT + " = 0 THEN NULL ELSE CAST("
+                + SummaryEntry.COLUMN_TOTAL_WEIGHT + " AS REAL) / "
+                + SummaryEntry.COLUMN_PET_COUNT + " END AS " + SummaryEntry.COLUMN_AVERAGE_WEIGHT);
+    }
+
+    /** Column of the count URI, as computed from the summary table */
+    private static final HashMap<String, String> sCountProjectionMap = new HashMap<>();
+
+    static {
+        sCountProjectionMap.put(PetEntry._COUNT,
+                SummaryEntry.COLUMN_PET_COUNT + " AS " + PetEntry._COUNT);
     }
 
+    /** How long a batch sleeps after yielding the database to other threads, in milliseconds */
+    private static final long BATCH_YIELD_DELAY_MS = 0;
+
+    /** Sort order of a page of pets, it matches the name index */
+    private static final String PAGE_SORT_ORDER =
+            PetEntry.COLUMN_PET_NAME + ", " + PetEntry._ID;
+
+    /** Maximum number of single pets kept in {@link #mRowCache} */
+    private static final int ROW_CACHE_SIZE = 64;
+
+    /** Number of matches a search with a limit ranks for each pet it returns */
+    private static final int SEARCH_CANDIDATES_PER_RESULT = 10;
+
+    /** Maximum number of arguments of a statement, SQLite's SQLITE_MAX_VARIABLE_NUMBER */
+    private static final int MAX_SQL_ARGUMENTS = 999;
+
     //(101 - C - 1)
     //(101 - D) go to PetContract.java
     // declare a PetDbHelper object
     /** Database helper object */
     private PetDbHelper mDbHelper;
 
+    /**
+     * Changes made by the {@link #applyBatch} running on the current thread. They are collected
+     * here instead of being notified straight away, and sent once the batch commits.
+     */
+    private final ThreadLocal<PendingChanges> mPendingChanges = new ThreadLocal<>();
+
+    /**
+     * Recently read and inserted pets, to answer the query of a single pet without going to the
+     * database. Every write invalidates the pets it changes.
+     */
+    private final PetRowCache mRowCache = new PetRowCache(ROW_CACHE_SIZE);
+
+    /** Compiled statements for the single pet operations */
+    private final PetStatements mStatements = new PetStatements();
+
+    /** Call counts, rows and latencies of each route and operation */
+    private final ProviderStats mStats = new ProviderStats(ROUTES);
+
+    /** Writes the pets into the pipes of the export URIs */
+    private PetExporter mExporter;
+
+    /** Single writer thread that commits the inserts, updates and deletes in batches */
+    private PetWriteQueue mWriteQueue;
+
+    /** Runs the migrations of the last schema upgrade in the background */
+    private PetMigrator mMigrator;
+
+    /** Removes the deleted pets in the background once they can't be restored any more */
+    private PetPurger mPurger;
+
+    /** Checkpoints, vacuums, analyzes and checks the database while the provider is idle */
+    private PetMaintenance mMaintenance;
+
+    /** Number of pets each transaction of a delete of many pets marks as deleted at most */
+    private int mDeleteChunkRows;
+
     @Override
     public boolean onCreate() {
         //(101 - C - 2)
         // initialize and Create a PetDbHelper object to gain access to the pets database
         mDbHelper = new PetDbHelper(getContext());
+        mExporter = new PetExporter(mDbHelper);
+        Resources resources = getContext().getResources();
+        mMaintenance = new PetMaintenance(mDbHelper,
+                resources.getInteger(R.integer.maintenance_idle_delay_ms),
+                resources.getInteger(R.integer.maintenance_budget_ms));
+        mDeleteChunkRows = resources.getInteger(R.integer.delete_chunk_rows);
+        mWriteQueue = new PetWriteQueue(mDbHelper,
+                resources.getInteger(R.integer.write_batch_window_ms),
+                resources.getInteger(R.integer.write_batch_max_size),
+                new PetWriteQueue.BatchListener() {
+                    @Override
+                    public void onBatchStart() {
+                        mMaintenance.beginWrite();
+                        // Hold the notifications back until the batch commits, like a batch
+                        // of operations does
+                        mPendingChanges.set(new PendingChanges());
+                    }
+
+                    @Override
+                    public void onBatchEnd(boolean committed) {
+                        PendingChanges pending = mPendingChanges.get();
+                        mPendingChanges.remove();
+                        mStatements.endTransaction(committed);
+                        if (committed) {
+                            pending.send();
+                        } else {
+                            // The writes may have cached rows that were rolled back
+                            mRowCache.invalidate(null);
+                        }
+                        mMaintenance.endWrite();
+                    }
+                });
+        mMigrator = new PetMigrator(mDbHelper, mWriteQueue,
+                resources.getInteger(R.integer.migration_chunk_rows),
+                new PetMigrator.Listener() {
+                    @Override
+                    public void onMigrationComplete(String name) {
+                        // The migration may have changed any pet, and the answers to the
+                        // queries that ran while it was half done
+                        mRowCache.invalidate(null);
+                        getContext().getContentResolver().notifyChange(PetEntry.CONTENT_URI,
+                                null);
+                    }
+                });
+        mMigrator.start();
+        mPurger = new PetPurger(mDbHelper, mWriteQueue,
+                resources.getInteger(R.integer.purge_delay_ms),
+                resources.getInteger(R.integer.purge_chunk_rows),
+                resources.getInteger(R.integer.purge_vacuum_pages));
+        mPurger.start();
+        mMaintenance.start();
         return true;
     }
+
+    @Override
+    public void shutdown() {
+        mMaintenance.close();
+        mPurger.close();
+        mMigrator.close();
+        mWriteQueue.close();
+        mStatements.close();
+        super.shutdown();
+    }
     //                              (101 - F)
     // (101 - G) Go to CatalogActivity
     // there is 3 major parts of this method
@@ -111,6 +369,9 @@ public class PetProvider extends ContentProvider {
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
+        long start = System.nanoTime();
+        mMaintenance.noteActivity();
+
         //(101 - F - 1)
         // Get readable database
         SQLiteDatabase database = mDbHelper.getReadableDatabase();
@@ -124,16 +385,83 @@ public class PetProvider extends ContentProvider {
         // and do not forget those codes we defined them early in the step (101 - E - 2)
         // with all possible paths
         int match = sUriMatcher.match(uri);
-        //(101 - F - 4)
-        // decide which path to go down
+        if (match == PET_STATS) {
+            return queryStats();
+        }
+        if (match == PET_ID && PetRowCache.canProject(projection)) {
+            // A plain lookup of the pet, like the one of the editor, can be answered from
+            // the cache of recently used pets
+            cursor = queryPet(database, ContentUris.parseId(uri), projection);
+        } else {
+            //(101 - F - 4)
+            // decide which path to go down, see buildQuery
+            SqlQuery query = buildQuery(uri, projection, selection, selectionArgs, sortOrder);
+            if (query == null) {
+                // Nothing to search for, so nothing can match
+                cursor = new MatrixCursor(projection != null ? projection : PetRowCache.COLUMNS);
+            } else if (match == PET_SEARCH) {
+                cursor = rankSearch(database.rawQuery(query.mSql, query.mArgs), uri, projection);
+            } else {
+                cursor = database.rawQuery(query.mSql, query.mArgs);
+            }
+        }
+        //                                   (107)
+        // (108) go to CatalogActivity.java
+        // (107 - A)
+        // Set notification URI on the Cursor,
+        // to tell it what data to watch
+        // so we know what
+        // If the data at this URI changes, then we know we need to update the Cursor.
+        cursor.setNotificationUri(getContext().getContentResolver(), uri);
+
+        // The rows are counted as the caller reads them, the query isn't run all at once here
+        cursor = mStats.recordQuery(match - PETS, start, cursor);
+
+        //(101 - F - 5)
+        // Return the cursor
+        return cursor;
+    }
+
+    /**
+     * The SQL statement of a query and its arguments.
+     */
+    static final class SqlQuery {
+
+        final String mSql;
+        final String[] mArgs;
+
+        SqlQuery(String sql, String[] args) {
+            mSql = sql;
+            mArgs = args;
+        }
+    }
+
+    /**
+     * Returns the SQL statement that {@link #query} runs for the given arguments. The plan
+     * tests read it to check that every query of the catalog goes by the indexes.
+     *
+     * @return the statement, or null if the query isn't answered with SQL: the statistics,
+     * and a search without any words
+     * @throws IllegalArgumentException if the URI or one of its parameters is invalid
+     */
+    SqlQuery buildQuery(Uri uri, String[] projection, String selection,
+                        String[] selectionArgs, String sortOrder) {
+        int match = sUriMatcher.match(uri);
         switch (match) {
             case PETS:
+                // A limit on the URI asks for a single page of pets
+                if (uri.getQueryParameter(PetEntry.QUERY_PARAMETER_LIMIT) != null) {
+                    return buildPageQuery(uri, projection, selection, selectionArgs, sortOrder);
+                }
                 // For the PETS code, query the pets table directly with the given
                 // projection, selection, selection arguments, and sort order. The cursor
                 // could contain multiple rows of the pets table.
-                cursor = database.query(PetEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder);
-                break;
+                String sort = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_SORT);
+                Selection filter = new Selection(selection, selectionArgs);
+                filter.addFilter(uri, sort);
+                return new SqlQuery(SQLiteQueryBuilder.buildQueryString(false, petsTable(sort),
+                        petProjection(projection), filter.mWhere, null, null,
+                        getSortOrder(uri, sortOrder), null), filter.mArgs);
             case PET_ID:
                 // For the PET_ID code, extract out the ID from the URI.
                 // For an example URI such as "content://com.example.android.pets/pets/3",
@@ -153,30 +481,530 @@ public class PetProvider extends ContentProvider {
 
                 // This will perform a query on the pets table where the _id equals 3 to return a
                 // Cursor containing that row of the table.
-                cursor = database.query(PetEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder);
-                break;
+                return new SqlQuery(SQLiteQueryBuilder.buildQueryString(false,
+                        PetDbHelper.LIVE_PETS, petProjection(projection), selection, null, null,
+                        sortOrder, null), selectionArgs);
+            case PET_SEARCH:
+                return buildSearchQuery(uri, projection, selection, selectionArgs);
+            case PET_STATS:
+                return null;
+            case PET_COUNT:
+                if (Selection.hasFilter(uri)) {
+                    return buildCountQuery(uri);
+                }
+                // Fall through, the count of all the pets is kept in the summary
+            case PET_SUMMARY:
+            case BREED_SUMMARIES:
+            case BREED_SUMMARY:
+                return buildSummaryQuery(uri, match, projection, selection, selectionArgs,
+                        sortOrder);
             default:
                 throw new IllegalArgumentException("Cannot query unknown URI " + uri);
         }
-        //                                   (107)
-        // (108) go to CatalogActivity.java
-        // (107 - A)
-        // Set notification URI on the Cursor,
-        // to tell it what data to watch
-        // so we know what
-        // If the data at this URI changes, then we know we need to update the Cursor.
-        cursor.setNotificationUri(getContext().getContentResolver(), uri);
+    }
 
-        //(101 - F - 5)
-        // Return the cursor
+    /**
+     * Query the summary table, which the database keeps up to date, so the answer takes a
+     * single lookup whatever the number of pets.
+     */
+    private static SqlQuery buildSummaryQuery(Uri uri, int match, String[] projection,
+                                              String selection, String[] selectionArgs,
+                                              String sortOrder) {
+        SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+        builder.setTables(SummaryEntry.TABLE_NAME);
+        builder.setProjectionMap(match == PET_COUNT ? sCountProjectionMap : sSummaryProjectionMap);
+        builder.appendWhere(PetDbHelper.SUMMARY_COLUMN_SCOPE + " = ");
+        switch (match) {
+            case PET_COUNT:
+            case PET_SUMMARY:
+                builder.appendWhere(String.valueOf(PetDbHelper.SUMMARY_SCOPE_ALL));
+                break;
+            case BREED_SUMMARIES:
+                builder.appendWhere(String.valueOf(PetDbHelper.SUMMARY_SCOPE_BREED));
+                if (sortOrder == null) {
+                    // The breed of the table rather than the one of the projection, which is
+                    // null for the unknown breed, so the rows come in the order of the key
+                    sortOrder = SummaryEntry.TABLE_NAME + "." + SummaryEntry.COLUMN_BREED;
+                }
+                break;
+            default:
+                builder.appendWhere(PetDbHelper.SUMMARY_SCOPE_BREED + " AND "
+                        + SummaryEntry.COLUMN_BREED + " = ");
+                builder.appendWhereEscapeString(uri.getLastPathSegment());
+                break;
+        }
+        return new SqlQuery(builder.buildQuery(projection, selection, null, null, sortOrder,
+                null), selectionArgs);
+    }
+
+    /**
+     * Returns a cursor over the statistics of the provider, with the columns of
+     * {@link StatsEntry#COLUMNS}.
+     */
+    private Cursor queryStats() {
+        MatrixCursor cursor = new MatrixCursor(StatsEntry.COLUMNS);
+        mStats.addRows(cursor);
+        String route = ROUTES[PET_ID - PETS];
+        cursor.newRow().add(route).add(StatsEntry.OPERATION_CACHE_HIT)
+                .add(mRowCache.getHitCount()).add(0).add(0).add(0).add(0).add(null);
+        cursor.newRow().add(route).add(StatsEntry.OPERATION_CACHE_MISS)
+                .add(mRowCache.getMissCount()).add(0).add(0).add(0).add(0).add(null);
         return cursor;
     }
+
+    /**
+     * Query a single pet, from {@link #mRowCache} if it's there. Otherwise the whole row is read
+     * from the database and cached, and the cursor is built from it.
+     */
+    private Cursor queryPet(SQLiteDatabase database, long id, String[] projection) {
+        Cursor cursor = mRowCache.query(id, projection);
+        if (cursor != null) {
+            return cursor;
+        }
+
+        long generation = mRowCache.getGeneration();
+        Object[] row;
+        Cursor rowCursor = mStatements.query(database, id);
+        try {
+            row = mRowCache.put(rowCursor, generation);
+        } finally {
+            rowCursor.close();
+        }
+        if (row == null) {
+            // There is no such pet
+            return new MatrixCursor(projection != null ? projection : PetRowCache.COLUMNS, 0);
+        }
+        return PetRowCache.project(row, projection);
+    }
+
+    /**
+     * Query one page of pets, in the order of the sort parameter. The page starts right after
+     * the key given on the URI, so the query walks the index of the order from that point
+     * instead of skipping over all the earlier rows like an OFFSET would.
+     */
+    private static SqlQuery buildPageQuery(Uri uri, String[] projection, String selection,
+                                           String[] selectionArgs, String sortOrder) {
+        if (sortOrder != null) {
+            throw new IllegalArgumentException("Pages are sorted by their sort parameter, cannot "
+                    + "sort " + uri + " by " + sortOrder);
+        }
+
+        int limit;
+        try {
+            limit = Integer.parseInt(uri.getQueryParameter(PetEntry.QUERY_PARAMETER_LIMIT));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid limit for " + uri);
+        }
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Invalid limit for " + uri);
+        }
+
+        String sort = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_SORT);
+        Selection filter = new Selection(selection, selectionArgs);
+        filter.addFilter(uri, sort != null ? sort : PetEntry.SORT_NAME);
+
+        String afterIdString = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_AFTER_ID);
+        if (afterIdString != null) {
+            String afterId;
+            try {
+                afterId = String.valueOf(Long.parseLong(afterIdString));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid after ID for " + uri);
+            }
+            // Each key starts with a plain range on the index of the sort order, the rest of it
+            // skips the pets with the same values that were already on the previous page
+            String afterName = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_AFTER_NAME);
+            if (PetEntry.SORT_WEIGHT.equals(sort)) {
+                String afterWeight;
+                try {
+                    afterWeight = String.valueOf(Integer.parseInt(
+                            uri.getQueryParameter(PetEntry.QUERY_PARAMETER_AFTER_WEIGHT)));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid after weight for " + uri);
+                }
+                filter.add(PetEntry.COLUMN_PET_WEIGHT + ">=? AND ("
+                        + PetEntry.COLUMN_PET_WEIGHT + ">? OR " + PetEntry._ID + ">?)",
+                        afterWeight, afterWeight, afterId);
+            } else if (afterName == null) {
+                throw new IllegalArgumentException("Missing after name for " + uri);
+            } else if (PetEntry.SORT_BREED.equals(sort)) {
+                String afterBreed = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_AFTER_BREED);
+                String nameKey = "(" + PetEntry.COLUMN_PET_NAME + ">? OR ("
+                        + PetEntry.COLUMN_PET_NAME + "=? AND " + PetEntry._ID + ">?))";
+                if (afterBreed == null) {
+                    // The pets without a breed come first, all the others are after them
+                    filter.add(PetEntry.COLUMN_PET_BREED + " IS NOT NULL OR " + nameKey,
+                            afterName, afterName, afterId);
+                } else {
+                    filter.add(PetEntry.COLUMN_PET_BREED + ">=? AND ("
+                            + PetEntry.COLUMN_PET_BREED + ">? OR " + nameKey + ")",
+                            afterBreed, afterBreed, afterName, afterName, afterId);
+                }
+            } else {
+                filter.add(PetEntry.COLUMN_PET_NAME + ">=? AND ("
+                        + PetEntry.COLUMN_PET_NAME + ">? OR " + PetEntry._ID + ">?)",
+                        afterName, afterName, afterId);
+            }
+        }
+
+        String order = getSortOrder(uri, null);
+        return new SqlQuery(SQLiteQueryBuilder.buildQueryString(false, petsTable(sort),
+                petProjection(projection), filter.mWhere, null, null,
+                order != null ? order : PAGE_SORT_ORDER, String.valueOf(limit)), filter.mArgs);
+    }
+
+    /**
+     * Returns the given projection of the pets, or the columns of {@link PetEntry} if it's
+     * null. The pets are read from the view of the live pets, where all the columns would
+     * include the breed ID.
+     */
+    private static String[] petProjection(String[] projection) {
+        return projection != null ? projection : PetRowCache.COLUMNS;
+    }
+
+    /**
+     * Returns a selection of the pets table that picks the same pets as the given selection of
+     * the live pets, which may test the breed. The deleted pets are never picked.
+     */
+    private static String selectPets(String selection) {
+        if (TextUtils.isEmpty(selection)) {
+            return PetDbHelper.COLUMN_DELETED + "=0";
+        }
+        return PetEntry._ID + " IN (SELECT " + PetEntry._ID + " FROM "
+                + PetDbHelper.LIVE_PETS + " WHERE " + selection + ")";
+    }
+
+    /**
+     * Returns the given content values as columns of the pets table, where the breed is
+     * stored as a breed ID.
+     */
+    private ContentValues toPetColumns(SQLiteDatabase database, ContentValues values) {
+        if (!values.containsKey(PetEntry.COLUMN_PET_BREED)) {
+            return values;
+        }
+        ContentValues columns = new ContentValues(values);
+        columns.remove(PetEntry.COLUMN_PET_BREED);
+        columns.put(PetDbHelper.COLUMN_BREED_ID, mStatements.getBreedId(database,
+                values.getAsString(PetEntry.COLUMN_PET_BREED)));
+        return columns;
+    }
+
+    /**
+     * Returns the ORDER BY clause for the sort parameter of the given URI, or the given sort
+     * order if the URI has no sort parameter.
+     *
+     * @throws IllegalArgumentException if the sort parameter is unknown, or if both a sort
+     *                                  parameter and a sort order are given
+     */
+    private static String getSortOrder(Uri uri, String sortOrder) {
+        String sort = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_SORT);
+        if (sort == null) {
+            return sortOrder;
+        }
+        if (sortOrder != null) {
+            throw new IllegalArgumentException("Cannot sort " + uri + " by " + sortOrder);
+        }
+        // The last column of every order is the ID, which each index holds as well, so the
+        // pets come straight out of the index without sorting them
+        switch (sort) {
+            case PetEntry.SORT_NAME:
+                return PAGE_SORT_ORDER;
+            case PetEntry.SORT_BREED:
+                // The breed ID of the breed table follows the breed, so SQLite sees that each
+                // breed comes once from the breed index, and the pets of a breed come from the
+                // breed index of the pets already sorted
+                return PetEntry.COLUMN_PET_BREED + ", " + PetDbHelper.COLUMN_BREED_ID + ", "
+                        + PAGE_SORT_ORDER;
+            case PetEntry.SORT_WEIGHT:
+                return PetEntry.COLUMN_PET_WEIGHT + ", " + PetEntry._ID;
+            default:
+                throw new IllegalArgumentException("Unknown sort " + sort + " for " + uri);
+        }
+    }
+
+    /**
+     * Returns the view to read the pets in the order of the given sort parameter from.
+     */
+    private static String petsTable(String sort) {
+        return PetEntry.SORT_BREED.equals(sort) ? PetDbHelper.LIVE_PETS_BY_BREED
+                : PetDbHelper.LIVE_PETS;
+    }
+
+    /**
+     * Count the pets that pass the filters of the given count URI. Without a weight range the
+     * count comes from the summary, otherwise from the index of the weight range.
+     */
+    private static SqlQuery buildCountQuery(Uri uri) {
+        Selection filter = new Selection(null, null);
+        filter.addFilter(uri, null);
+        if (uri.getQueryParameter(PetEntry.QUERY_PARAMETER_MIN_WEIGHT) != null
+                || uri.getQueryParameter(PetEntry.QUERY_PARAMETER_MAX_WEIGHT) != null) {
+            return new SqlQuery("SELECT COUNT(*) AS " + PetEntry._COUNT + " FROM "
+                    + PetDbHelper.LIVE_PETS + " WHERE " + filter.mWhere, filter.mArgs);
+        }
+
+        String column = SummaryEntry.COLUMN_PET_COUNT;
+        String gender = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_GENDER);
+        if (gender != null) {
+            switch (Integer.parseInt(gender)) {
+                case PetEntry.GENDER_MALE:
+                    column = SummaryEntry.COLUMN_MALE_COUNT;
+                    break;
+                case PetEntry.GENDER_FEMALE:
+                    column = SummaryEntry.COLUMN_FEMALE_COUNT;
+                    break;
+                default:
+                    column = SummaryEntry.COLUMN_UNKNOWN_GENDER_COUNT;
+                    break;
+            }
+        }
+        String breed = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_BREED);
+        // A breed without pets has no summary, the aggregate still returns a row for it
+        return new SqlQuery("SELECT IFNULL(MAX(" + column + "), 0) AS " + PetEntry._COUNT
+                + " FROM " + SummaryEntry.TABLE_NAME + " WHERE "
+                + PetDbHelper.SUMMARY_COLUMN_SCOPE + "=? AND " + SummaryEntry.COLUMN_BREED + "=?",
+                new String[] {
+                        String.valueOf(breed == null ? PetDbHelper.SUMMARY_SCOPE_ALL
+                                : PetDbHelper.SUMMARY_SCOPE_BREED),
+                        breed == null ? "" : breed });
+    }
+
+    /**
+     * A selection and its arguments, built up one term at a time. All the values go in as
+     * arguments, so the SQL stays the same for any value and the database can reuse it.
+     */
+    private static final class Selection {
+
+        String mWhere;
+        String[] mArgs;
+
+        Selection(String where, String[] args) {
+            mWhere = where;
+            mArgs = args;
+        }
+
+        /** Returns whether the given URI has any of the filter parameters. */
+        static boolean hasFilter(Uri uri) {
+            return uri.getQueryParameter(PetEntry.QUERY_PARAMETER_GENDER) != null
+                    || uri.getQueryParameter(PetEntry.QUERY_PARAMETER_MIN_WEIGHT) != null
+                    || uri.getQueryParameter(PetEntry.QUERY_PARAMETER_MAX_WEIGHT) != null
+                    || uri.getQueryParameter(PetEntry.QUERY_PARAMETER_BREED) != null;
+        }
+
+        /** Add a term that must hold as well. */
+        void add(String term, String... args) {
+            mWhere = DatabaseUtils.concatenateWhere(mWhere, term);
+            mArgs = DatabaseUtils.appendSelectionArgs(mArgs, args);
+        }
+
+        /**
+         * Add the filter parameters of the given URI, see {@link PetEntry#buildCatalogUri}.
+         * Each of them is a comparison on an indexed column. Those whose index doesn't give the
+         * pets in the given sort order are hidden from the query planner with a unary plus, so
+         * that it walks the index of the order and tests them on the way, rather than looking
+         * them up and sorting all the pets they pick.
+         *
+         * @param sort the sort parameter the pets are read in, or null if they aren't sorted
+         * @throws IllegalArgumentException if a filter value is invalid
+         */
+        void addFilter(Uri uri, String sort) {
+            boolean byBreed = PetEntry.SORT_BREED.equals(sort);
+            boolean byWeight = PetEntry.SORT_WEIGHT.equals(sort);
+            String gender = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_GENDER);
+            if (gender != null) {
+                int value = parseInt(uri, gender);
+                if (!PetEntry.isValidGender(value)) {
+                    throw new IllegalArgumentException("Invalid gender for " + uri);
+                }
+                // The gender indexes go on with the name and the weight
+                addComparison(PetEntry.COLUMN_PET_GENDER, "=", value, !byBreed);
+            }
+            String minWeight = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_MIN_WEIGHT);
+            if (minWeight != null) {
+                addComparison(PetEntry.COLUMN_PET_WEIGHT, ">=", parseInt(uri, minWeight),
+                        sort == null || byWeight);
+            }
+            String maxWeight = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_MAX_WEIGHT);
+            if (maxWeight != null) {
+                addComparison(PetEntry.COLUMN_PET_WEIGHT, "<=", parseInt(uri, maxWeight),
+                        sort == null || byWeight);
+            }
+            String breed = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_BREED);
+            if (breed != null) {
+                if (breed.isEmpty()) {
+                    // The pets without a breed all have the same breed ID, see
+                    // PetStatements.getBreedId
+                    addComparison(PetDbHelper.COLUMN_BREED_ID, "=", PetDbHelper.NO_BREED_ID,
+                            !byWeight);
+                } else {
+                    add((byWeight ? "+" : "") + PetEntry.COLUMN_PET_BREED + "=?", breed);
+                }
+            }
+        }
+
+        /**
+         * Add the comparison of an integer column with a value. The unary plus that hides the
+         * column from the query planner also drops its integer affinity, so the value, which
+         * goes in as a string, is then cast to compare as a number.
+         *
+         * @param indexed whether the planner may look the value up in an index of the column
+         */
+        private void addComparison(String column, String operator, long value,
+                                   boolean indexed) {
+            if (indexed) {
+                add(column + operator + "?", String.valueOf(value));
+            } else {
+                add("+" + column + operator + "CAST(? AS INTEGER)", String.valueOf(value));
+            }
+        }
+
+        private static int parseInt(Uri uri, String value) {
+            try {
+                return Integer.parseInt(value);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid filter " + value + " for " + uri);
+            }
+        }
+    }
+
+    /**
+     * Search the pets by name and breed with the full-text index. Every word of the search term
+     * has to start a word of the name or the breed. The statement reads the matches in the
+     * order of the index, with the columns of {@link PetRowCache#COLUMNS} and the offsets of
+     * the matching words, and {@link #rankSearch} puts the best ones first.
+     *
+     * @return the statement, or null if the term has no words
+     */
+    private static SqlQuery buildSearchQuery(Uri uri, String[] projection, String selection,
+                                             String[] selectionArgs) {
+        if (!PetRowCache.canProject(projection)) {
+            throw new IllegalArgumentException("Invalid projection for " + uri);
+        }
+        String match = buildMatchQuery(uri.getLastPathSegment());
+        if (match == null) {
+            return null;
+        }
+
+        String limit = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_LIMIT);
+        String candidates = null;
+        if (limit != null) {
+            try {
+                int results = Integer.parseInt(limit);
+                if (results <= 0) {
+                    throw new IllegalArgumentException("Invalid limit for " + uri);
+                }
+                candidates = String.valueOf((long) results * SEARCH_CANDIDATES_PER_RESULT);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid limit for " + uri);
+            }
+        }
+
+        String[] columns = new String[PetRowCache.COLUMNS.length + 1];
+        for (int i = 0; i < PetRowCache.COLUMNS.length; i++) {
+            columns[i] = PetDbHelper.LIVE_PETS + "." + PetRowCache.COLUMNS[i];
+        }
+        columns[PetRowCache.COLUMNS.length] = "length(offsets(" + PetDbHelper.SEARCH_TABLE_NAME
+                + "))";
+        Selection filter = new Selection(PetDbHelper.SEARCH_TABLE_NAME + " MATCH ?",
+                new String[] { match });
+        filter.add(selection, selectionArgs);
+        return new SqlQuery(SQLiteQueryBuilder.buildQueryString(false, PetDbHelper.LIVE_PETS
+                + " JOIN " + PetDbHelper.SEARCH_TABLE_NAME + " ON " + PetDbHelper.LIVE_PETS + "."
+                + PetEntry._ID + " = " + PetDbHelper.SEARCH_TABLE_NAME + ".docid", columns,
+                filter.mWhere, null, null, null, candidates), filter.mArgs);
+    }
+
+    /**
+     * Rank the matches of a search read by the statement of {@link #buildSearchQuery}: pets
+     * whose name starts with the first word come first, then the pets with the most matching
+     * words, then by name. The ranking is done here, so SQLite never sorts the matches, which
+     * for a short prefix are most of the pets: with a limit, only so many times the limit of
+     * matches are read and ranked.
+     *
+     * @param matches the matches, closed when they're ranked
+     */
+    private static Cursor rankSearch(Cursor matches, Uri uri, String[] projection) {
+        String match = buildMatchQuery(uri.getLastPathSegment());
+        final String firstWord = match.substring(0, match.indexOf('*'));
+        final int hitsColumn = PetRowCache.COLUMNS.length;
+        ArrayList<Object[]> rows = new ArrayList<>();
+        try {
+            while (matches.moveToNext()) {
+                Object[] row = Arrays.copyOf(PetRowCache.readRow(matches), hitsColumn + 1);
+                row[hitsColumn] = matches.getInt(hitsColumn);
+                rows.add(row);
+            }
+        } finally {
+            matches.close();
+        }
+
+        Collections.sort(rows, new Comparator<Object[]>() {
+            @Override
+            public int compare(Object[] a, Object[] b) {
+                String aName = (String) a[1];
+                String bName = (String) b[1];
+                boolean aFirst = aName.regionMatches(true, 0, firstWord, 0, firstWord.length());
+                boolean bFirst = bName.regionMatches(true, 0, firstWord, 0, firstWord.length());
+                if (aFirst != bFirst) {
+                    return aFirst ? -1 : 1;
+                }
+                int aHits = (Integer) a[hitsColumn];
+                int bHits = (Integer) b[hitsColumn];
+                if (aHits != bHits) {
+                    return aHits > bHits ? -1 : 1;
+                }
+                int names = aName.compareTo(bName);
+                if (names != 0) {
+                    return names;
+                }
+                long aId = (Long) a[0];
+                long bId = (Long) b[0];
+                return aId < bId ? -1 : (aId == bId ? 0 : 1);
+            }
+        });
+
+        String limit = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_LIMIT);
+        if (limit != null && rows.size() > Integer.parseInt(limit)) {
+            rows.subList(Integer.parseInt(limit), rows.size()).clear();
+        }
+        return PetRowCache.project(rows, projection);
+    }
+
+    /**
+     * Turn a search term into a full-text query that matches every word of the term as a prefix,
+     * for example "golden ret" becomes "golden* ret*". Anything but letters and digits separates
+     * words, so the term can't inject full-text query syntax.
+     *
+     * @return the full-text query, or null if the term has no words
+     */
+    private static String buildMatchQuery(String term) {
+        StringBuilder match = new StringBuilder();
+        boolean inWord = false;
+        for (int i = 0; i < term.length(); i++) {
+            char c = term.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                match.append(c);
+                inWord = true;
+            } else if (inWord) {
+                match.append("* ");
+                inWord = false;
+            }
+        }
+        if (inWord) {
+            match.append('*');
+        }
+        if (match.length() == 0) {
+            return null;
+        }
+        return match.toString().trim();
+    }
+
     //                              (101 - H)
     // (101 - I) go to CatalogActivity.java
     // the return value will be uri to tell us where exactly the pet inserted (Row ID)
     @Override
     public Uri insert(Uri uri, ContentValues contentValues) {
+        long start = System.nanoTime();
         // (101 - H - 1)
         // check if there is a match
         final int match = sUriMatcher.match(uri);
@@ -187,7 +1015,10 @@ public class PetProvider extends ContentProvider {
         switch (match) {
             case PETS:
                 //(101 - H) insert the pet into the database
-                return insertPet(uri, contentValues);
+                Uri newUri = insertPet(uri, contentValues);
+                mStats.record(match - PETS, ProviderStats.OPERATION_INSERT, start,
+                        newUri != null ? 1 : 0, 0);
+                return newUri;
             default:
                 throw new IllegalArgumentException("Insertion is not supported for " + uri);
         }
@@ -199,43 +1030,39 @@ public class PetProvider extends ContentProvider {
      * Return the new content URI
      * for that specific row in the database.
      */
-    private Uri insertPet(Uri uri, ContentValues values) {
+    private Uri insertPet(final Uri uri, final ContentValues values) {
         //(101 - K)
-        //(101 - K - 1)
-        //Add Data Validation or sanity check for our app
-        // Check that the name is not null
-        String name = values.getAsString(PetEntry.COLUMN_PET_NAME);
-        if (name == null) {
-            throw new IllegalArgumentException("Pet requires a name");
-        }
-        //(101 - K - 2)
-        // Check that the gender is valid
-        // we pass (as argument) to the isValidGender() the integer number
-        // inside the ContentValue coming from the user
-        Integer gender = values.getAsInteger(PetEntry.COLUMN_PET_GENDER);
-        if (gender == null || !PetEntry.isValidGender(gender)) {
-            throw new IllegalArgumentException("Pet requires valid gender");
-        }
-        //(101 - K - 3)
-        //(101 - K - 4) Go to PetContract.java
-        // If the weight is provided, check that it's greater than or equal to 0 kg
-        Integer weight = values.getAsInteger(PetEntry.COLUMN_PET_WEIGHT);
-        if (weight != null && weight < 0) {
-            throw new IllegalArgumentException("Pet requires valid weight");
-        }
-        //(101 - K - 5)
-        // No need to check the breed, any value is valid (including null).
+        // Check the values before touching the database
+        validateNewPet(values);
 
         // (101 - H - 3 - a)
-        // Get writable database
-        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        // Get writable database, on the writer thread
+        return write(new PetWriteQueue.Write<Uri>() {
+            @Override
+            public Uri run(SQLiteDatabase database) {
+                return insertPet(database, uri, values);
+            }
+        });
+    }
+
+    /**
+     * Insert a validated pet on the writer thread, and return its content URI or null if it
+     * couldn't be inserted.
+     */
+    private Uri insertPet(SQLiteDatabase database, Uri uri, final ContentValues values) {
         // (101 - H - 3 - b)
         // Insert the new pet with the given values
         // we will get the row ID as a return value we can get benefit from
         // this Id in many things like
         // 1- check with it if the pet inserted or no
         // 2- add it we the return uri to the caller activity
-        long id = database.insert(PetEntry.TABLE_NAME, null, values);
+        long id;
+        if (hasOnlyPetColumns(values)) {
+            id = insertPet(database, values);
+        } else {
+            // Let the database report the unknown columns
+            id = database.insert(PetEntry.TABLE_NAME, null, toPetColumns(database, values));
+        }
         // (101 - H - 3 - c)
         // If the ID is -1, then the insertion failed. Log an error and return null.
         if (id == -1) {
@@ -243,9 +1070,25 @@ public class PetProvider extends ContentProvider {
             return null;
         }
 
+        final long newId = id;
+        afterCommit(new Runnable() {
+            @Override
+            public void run() {
+                // The new pet is likely to be opened again soon, keep it in the cache. Only
+                // once it's committed: a batch that rolls back drops it with the whole cache.
+                // A later write of the pet in the same batch invalidates it after this.
+                mRowCache.put(new Object[] {
+                        newId,
+                        values.getAsString(PetEntry.COLUMN_PET_NAME),
+                        values.getAsString(PetEntry.COLUMN_PET_BREED),
+                        values.getAsInteger(PetEntry.COLUMN_PET_GENDER),
+                        getWeight(values) }, mRowCache.getGeneration());
+            }
+        });
+
         //(107 - B)
-        // Notify all listeners that the data has changed for the pet content URI
-        getContext().getContentResolver().notifyChange(uri, null);
+        // Notify all listeners that the pet has been inserted
+        notifyChange(PetEntry.CHANGE_INSERT, new long[] { id });
 
         // (101 - H - 3 - d)
         // ContentUris.withAppendedId() :
@@ -254,22 +1097,363 @@ public class PetProvider extends ContentProvider {
         // Return the new URI with the ID (of the newly inserted row) appended at the end
         return ContentUris.withAppendedId(uri, id);
     }
-    // (101 - L)
-    // the return of this method will be the number of rows inserted into the database
-    @Override
-    public int update(Uri uri, ContentValues contentValues, String selection,
-                      String[] selectionArgs) {
-        // (101 - L - 1)
-        // Figure out if the URI matcher can match the URI to a specific code
-        // and do not forget those codes we defined them early in the step (101 - E - 2)
-        // with all possible paths
-        final int match = sUriMatcher.match(uri);
-        //(101 - L - 2)
-        // decide which path to go down
-        switch (match) {
-            case PETS:
-                return updatePet(uri, contentValues, selection, selectionArgs);
-            case PET_ID:
+
+    /**
+     * Insert a validated pet with the compiled insert statement.
+     *
+     * @return the ID of the new pet, or -1 if it couldn't be inserted
+     */
+    private long insertPet(SQLiteDatabase database, ContentValues values) {
+        return mStatements.insert(database,
+                values.getAsString(PetEntry.COLUMN_PET_NAME),
+                values.getAsString(PetEntry.COLUMN_PET_BREED),
+                values.getAsInteger(PetEntry.COLUMN_PET_GENDER),
+                getWeight(values));
+    }
+
+    /**
+     * Returns the weight in the given content values, the weight column defaults to 0 when it
+     * isn't provided.
+     */
+    private static int getWeight(ContentValues values) {
+        Integer weight = values.getAsInteger(PetEntry.COLUMN_PET_WEIGHT);
+        return weight == null ? 0 : weight;
+    }
+
+    /**
+     * Returns whether the given content values only hold columns of the pets table, other
+     * than the ID. Only then can they go through the compiled statements.
+     */
+    private static boolean hasOnlyPetColumns(ContentValues values) {
+        int count = 0;
+        if (values.containsKey(PetEntry.COLUMN_PET_NAME)) {
+            count++;
+        }
+        if (values.containsKey(PetEntry.COLUMN_PET_BREED)) {
+            count++;
+        }
+        if (values.containsKey(PetEntry.COLUMN_PET_GENDER)) {
+            count++;
+        }
+        if (values.containsKey(PetEntry.COLUMN_PET_WEIGHT)) {
+            count++;
+        }
+        return count == values.size();
+    }
+
+    /**
+     * Check that the given content values describe a valid new pet, the same rules apply to
+     * {@link #insert} and {@link #bulkInsert}.
+     *
+     * @throws IllegalArgumentException if the name, gender or weight is invalid
+     */
+    static void validateNewPet(ContentValues values) {
+        //(101 - K - 1)
+        //Add Data Validation or sanity check for our app
+        // Check that the name is not null
+        String name = values.getAsString(PetEntry.COLUMN_PET_NAME);
+        if (name == null) {
+            throw new IllegalArgumentException("Pet requires a name");
+        }
+        //(101 - K - 2)
+        // Check that the gender is valid
+        // we pass (as argument) to the isValidGender() the integer number
+        // inside the ContentValue coming from the user
+        Integer gender = values.getAsInteger(PetEntry.COLUMN_PET_GENDER);
+        if (gender == null || !PetEntry.isValidGender(gender)) {
+            throw new IllegalArgumentException("Pet requires valid gender");
+        }
+        //(101 - K - 3)
+        //(101 - K - 4) Go to PetContract.java
+        // If the weight is provided, check that it's greater than or equal to 0 kg
+        Integer weight = values.getAsInteger(PetEntry.COLUMN_PET_WEIGHT);
+        if (weight != null && weight < 0) {
+            throw new IllegalArgumentException("Pet requires valid weight");
+        }
+        //(101 - K - 5)
+        // No need to check the breed, any value is valid (including null).
+    }
+
+    /**
+     * Insert many pets at once. The rows are written in a single transaction on the writer
+     * thread with the compiled insert statement, and listeners are notified only once at the
+     * end.
+     *
+     * Every row is checked like {@link #insert} checks its values, and a row that isn't a valid
+     * pet, or that the database refuses, is left out while the others are still inserted. Only the
+     * number of rows left out is logged, {@link PetEntry#METHOD_BULK_INSERT} tells the caller
+     * which ones they are.
+     *
+     * @return the number of rows inserted
+     */
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        long start = System.nanoTime();
+        final int match = sUriMatcher.match(uri);
+        if (match != PETS) {
+            throw new IllegalArgumentException("Insertion is not supported for " + uri);
+        }
+        long[] ids = bulkInsert(values);
+        int rowsInserted = 0;
+        for (int i = 0; i < ids.length; i++) {
+            if (ids[i] != -1) {
+                rowsInserted++;
+            }
+        }
+        if (rowsInserted != values.length) {
+            Log.w(LOG_TAG, (values.length - rowsInserted) + " of " + values.length
+                    + " rows of the bulk insert for " + uri + " were not inserted");
+        }
+        mStats.record(match - PETS, ProviderStats.OPERATION_BULK_INSERT, start, rowsInserted,
+                0);
+        return rowsInserted;
+    }
+
+    /**
+     * Insert the valid pets among the given rows in one write, see
+     * {@link PetEntry#METHOD_BULK_INSERT}.
+     *
+     * @return the ID of the new pet of each row, or -1 for a row that wasn't inserted
+     */
+    private long[] bulkInsert(final ContentValues[] values) {
+        final boolean[] valid = new boolean[values.length];
+        for (int i = 0; i < values.length; i++) {
+            try {
+                validateNewPet(values[i]);
+                // Unknown columns can't go through the compiled statement
+                valid[i] = hasOnlyPetColumns(values[i]);
+            } catch (IllegalArgumentException e) {
+                valid[i] = false;
+            }
+        }
+
+        return write(new PetWriteQueue.Write<long[]>() {
+            @Override
+            public long[] run(SQLiteDatabase database) {
+                long[] ids = new long[values.length];
+                // IDs of the new rows, for the change notification
+                long[] insertedIds = new long[values.length];
+                int rowsInserted = 0;
+                for (int i = 0; i < values.length; i++) {
+                    // A row the database refuses is only rolled back on its own
+                    ids[i] = valid[i] ? insertPet(database, values[i]) : -1;
+                    if (ids[i] != -1) {
+                        insertedIds[rowsInserted++] = ids[i];
+                    }
+                }
+                // Notify all listeners once for the whole batch
+                if (rowsInserted != 0) {
+                    notifyChange(PetEntry.CHANGE_INSERT,
+                            Arrays.copyOf(insertedIds, rowsInserted));
+                }
+                return ids;
+            }
+        });
+    }
+
+    /**
+     * Apply a batch of insert, update and delete operations in a single transaction.
+     * Either every operation is applied or none of them is. Change notifications are held back
+     * until the transaction commits, and each changed pet is notified only once.
+     *
+     * The transaction is only broken up at operations built with
+     * {@link ContentProviderOperation.Builder#withYieldAllowed(boolean)}: there the batch gives
+     * the database to waiting readers with {@link SQLiteDatabase#yieldIfContendedSafely(long)},
+     * which commits the operations applied so far. Their changes are sent then, and if a
+     * later operation fails only the operations after the last yield are rolled back.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        PendingChanges pending = new PendingChanges();
+        mPendingChanges.set(pending);
+
+        boolean succeeded = false;
+        mMaintenance.beginWrite();
+        database.beginTransaction();
+        try {
+            final int count = operations.size();
+            ContentProviderResult[] results = new ContentProviderResult[count];
+            for (int i = 0; i < count; i++) {
+                ContentProviderOperation operation = operations.get(i);
+                if (i > 0 && operation.isYieldAllowed()
+                        && database.yieldIfContendedSafely(BATCH_YIELD_DELAY_MS)) {
+                    // The operations so far are committed and a later failure won't roll them
+                    // back, so their changes are sent now and the next ones are held back
+                    // on their own
+                    mStatements.endTransaction(true);
+                    pending.send();
+                    pending = new PendingChanges();
+                    mPendingChanges.set(pending);
+                }
+                results[i] = operation.apply(this, results, i);
+            }
+            database.setTransactionSuccessful();
+            succeeded = true;
+            return results;
+        } finally {
+            database.endTransaction();
+            mMaintenance.endWrite();
+            mPendingChanges.remove();
+            mStatements.endTransaction(succeeded);
+            // A failure rolled back the operations since the last yield, the changes held back
+            // for them are dropped with them
+            if (succeeded) {
+                pending.send();
+            }
+        }
+    }
+
+    /**
+     * Notify listeners that the given pets have changed. Inside {@link #applyBatch} the change
+     * is only remembered, and notified when the batch is done.
+     *
+     * @param change the kind of change, for example {@link PetEntry#CHANGE_UPDATE}
+     * @param ids    IDs of the pets that changed, or null if there are too many to list
+     */
+    private void notifyChange(String change, long[] ids) {
+        PendingChanges pending = mPendingChanges.get();
+        if (pending != null) {
+            pending.add(change, ids);
+        } else {
+            sendChange(getContext().getContentResolver(), change, ids);
+        }
+    }
+
+    /**
+     * Apply a change to the row cache once the write is committed. Inside a batch that is when
+     * the batch commits, and not at all if it rolls back.
+     *
+     * Until then readers on other connections still see the rows as they were, and a reader
+     * that misses the cache would put the old row back into it. Invalidating the cache after
+     * the commit bumps its generation past any such reader.
+     */
+    private void afterCommit(Runnable change) {
+        PendingChanges pending = mPendingChanges.get();
+        if (pending != null) {
+            pending.mAfterCommit.add(change);
+        } else {
+            change.run();
+        }
+    }
+
+    /**
+     * Send a change notification for the given pets. Observers of {@link PetEntry#CONTENT_URI}
+     * and of any single pet receive it.
+     */
+    private static void sendChange(ContentResolver resolver, String change, long[] ids) {
+        if (ids == null || ids.length > PetEntry.MAX_CHANGED_IDS) {
+            // Too many pets changed, tell the observers that anything may have changed
+            resolver.notifyChange(PetEntry.CONTENT_URI, null);
+        } else {
+            resolver.notifyChange(PetEntry.buildChangeUri(change, ids), null);
+        }
+    }
+
+    /**
+     * Returns the IDs of the pets that match the given selection, or null if there are more
+     * than {@link PetEntry#MAX_CHANGED_IDS} of them. Used to notify which pets an update or a
+     * delete is about to change.
+     */
+    private static long[] queryChangedIds(SQLiteDatabase database, String selection,
+                                          String[] selectionArgs) {
+        Cursor cursor = database.query(PetDbHelper.LIVE_PETS,
+                new String[] { PetEntry._ID },
+                selection, selectionArgs, null, null, null,
+                String.valueOf(PetEntry.MAX_CHANGED_IDS + 1));
+        try {
+            if (cursor.getCount() > PetEntry.MAX_CHANGED_IDS) {
+                return null;
+            }
+            long[] ids = new long[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                ids[i] = cursor.getLong(0);
+            }
+            return ids;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Changes made by a batch that are waiting to be notified. The IDs are merged by kind of
+     * change, so a pet touched by several operations is notified once.
+     */
+    private final class PendingChanges {
+
+        /** IDs of the changed pets, by kind of change */
+        private final LinkedHashMap<String, LinkedHashSet<Long>> mIds = new LinkedHashMap<>();
+
+        /** Whether too many pets changed to list them */
+        private boolean mTooMany;
+
+        /** Changes to the row cache, applied before the notifications are sent */
+        private final ArrayList<Runnable> mAfterCommit = new ArrayList<>();
+
+        void add(String change, long[] ids) {
+            if (mTooMany) {
+                return;
+            }
+            if (ids == null) {
+                mTooMany = true;
+                mIds.clear();
+                return;
+            }
+            LinkedHashSet<Long> changed = mIds.get(change);
+            if (changed == null) {
+                changed = new LinkedHashSet<>();
+                mIds.put(change, changed);
+            }
+            for (long id : ids) {
+                changed.add(id);
+            }
+            if (changed.size() > PetEntry.MAX_CHANGED_IDS) {
+                mTooMany = true;
+                mIds.clear();
+            }
+        }
+
+        void send() {
+            // Observers query again as soon as they are notified, the cache has to be ready
+            for (Runnable change : mAfterCommit) {
+                change.run();
+            }
+            ContentResolver resolver = getContext().getContentResolver();
+            if (mTooMany) {
+                sendChange(resolver, null, null);
+                return;
+            }
+            for (Map.Entry<String, LinkedHashSet<Long>> entry : mIds.entrySet()) {
+                long[] ids = new long[entry.getValue().size()];
+                int i = 0;
+                for (long id : entry.getValue()) {
+                    ids[i++] = id;
+                }
+                sendChange(resolver, entry.getKey(), ids);
+            }
+        }
+    }
+
+    // (101 - L)
+    // the return of this method will be the number of rows inserted into the database
+    @Override
+    public int update(Uri uri, ContentValues contentValues, String selection,
+                      String[] selectionArgs) {
+        long start = System.nanoTime();
+        int rowsUpdated;
+        // (101 - L - 1)
+        // Figure out if the URI matcher can match the URI to a specific code
+        // and do not forget those codes we defined them early in the step (101 - E - 2)
+        // with all possible paths
+        final int match = sUriMatcher.match(uri);
+        //(101 - L - 2)
+        // decide which path to go down
+        switch (match) {
+            case PETS:
+                rowsUpdated = updatePet(uri, contentValues, selection, selectionArgs);
+                break;
+            case PET_ID:
                 // For the PET_ID code, extract out the ID from the URI,
                 // so we know which row to update. Selection will be "_id=?" and selection
                 // arguments will be a String array containing the actual ID.
@@ -281,10 +1465,16 @@ public class PetProvider extends ContentProvider {
                 //      because the selectionArgs is a string array
                 selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
                 //(101 - L - 7)
-                return updatePet(uri, contentValues, selection, selectionArgs);
+                rowsUpdated = updatePet(uri, contentValues, selection, selectionArgs);
+                break;
+            case PET_DELETED:
+                rowsUpdated = restorePets(uri, contentValues);
+                break;
             default:
                 throw new IllegalArgumentException("Update is not supported for " + uri);
         }
+        mStats.record(match - PETS, ProviderStats.OPERATION_UPDATE, start, rowsUpdated, 0);
+        return rowsUpdated;
     }
     //(101 - L - 3)
     // it is better for u to check the whole insert method first befor
@@ -294,7 +1484,8 @@ public class PetProvider extends ContentProvider {
      * specified in the selection and selection arguments (which could be 0 or 1 or more pets).
      * Return the number of rows that were successfully updated.
      */
-    private int updatePet(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+    private int updatePet(final Uri uri, final ContentValues values, String selection,
+                          String[] selectionArgs) {
         //(101 - L - 4)
         //do the sanity check
         // If the {@link PetEntry#COLUMN_PET_NAME} key is present,
@@ -341,17 +1532,65 @@ public class PetProvider extends ContentProvider {
             return 0;
         }
         //(101 - L - 5)
-        // Otherwise, get writable database to update the data
-        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        // Otherwise, get writable database to update the data, on the writer thread
+        final String finalSelection = selection;
+        final String[] finalSelectionArgs = selectionArgs;
+        return write(new PetWriteQueue.Write<Integer>() {
+            @Override
+            public Integer run(SQLiteDatabase database) {
+                return updatePet(database, uri, values, finalSelection, finalSelectionArgs);
+            }
+        });
+    }
+
+    /**
+     * Update validated pets on the writer thread, and return the number of rows updated.
+     */
+    private int updatePet(SQLiteDatabase database, Uri uri, final ContentValues values,
+                          String selection, String[] selectionArgs) {
         //(101 - L - 6 - a)
         // Perform the update on the database and get the number of rows affected
-        int rowsUpdated = database.update(PetEntry.TABLE_NAME, values, selection, selectionArgs);
+        int rowsUpdated;
+        long[] ids;
+        if (sUriMatcher.match(uri) == PET_ID) {
+            ids = new long[] { ContentUris.parseId(uri) };
+            if (values.size() == 4 && hasOnlyPetColumns(values)) {
+                // Every column is given, like when the editor saves a pet, so the compiled
+                // update statement can be used
+                rowsUpdated = mStatements.update(database, ids[0],
+                        values.getAsString(PetEntry.COLUMN_PET_NAME),
+                        values.getAsString(PetEntry.COLUMN_PET_BREED),
+                        values.getAsInteger(PetEntry.COLUMN_PET_GENDER),
+                        getWeight(values));
+            } else {
+                rowsUpdated = database.update(PetEntry.TABLE_NAME,
+                        toPetColumns(database, values), selectPets(selection), selectionArgs);
+            }
+        } else {
+            // Find out which pets the update changes, in the same transaction as the update
+            database.beginTransaction();
+            try {
+                ids = queryChangedIds(database, selection, selectionArgs);
+                rowsUpdated = database.update(PetEntry.TABLE_NAME,
+                        toPetColumns(database, values), selectPets(selection), selectionArgs);
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+        }
 
         //(107 - C)
-        // If 1 or more rows were updated, then notify all listeners that the data at the
-        // given URI has changed
+        // If 1 or more rows were updated, then notify all listeners that these pets
+        // have changed
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            final long[] updatedIds = ids;
+            afterCommit(new Runnable() {
+                @Override
+                public void run() {
+                    mRowCache.invalidate(updatedIds);
+                }
+            });
+            notifyChange(PetEntry.CHANGE_UPDATE, ids);
         }
 
         //(101 - L - 6 - b)
@@ -359,17 +1598,48 @@ public class PetProvider extends ContentProvider {
         return rowsUpdated;
     }
 
+    /**
+     * Restore the deleted pets that aren't purged yet, the ones deleted since the time on the
+     * URI if it has one, see {@link PetEntry#buildRestoreUri}.
+     *
+     * @return the number of pets restored
+     */
+    private int restorePets(Uri uri, ContentValues values) {
+        if (values != null && values.size() != 0) {
+            throw new IllegalArgumentException("Deleted pets can only be restored as they were: "
+                    + uri);
+        }
+        long since = 0;
+        String sinceString = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_DELETED_SINCE);
+        if (sinceString != null) {
+            try {
+                since = Long.parseLong(sinceString);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid deletion time for " + uri);
+            }
+        }
+        // A pet that isn't deleted has a deletion time of 0
+        final String[] selectionArgs = { String.valueOf(Math.max(since, 1)) };
+        return write(new PetWriteQueue.Write<Integer>() {
+            @Override
+            public Integer run(SQLiteDatabase database) {
+                ContentValues restored = new ContentValues();
+                restored.put(PetDbHelper.COLUMN_DELETED, 0);
+                int rowsRestored = database.update(PetEntry.TABLE_NAME, restored,
+                        PetDbHelper.COLUMN_DELETED + ">=?", selectionArgs);
+                if (rowsRestored != 0) {
+                    notifyChange(PetEntry.CHANGE_INSERT, null);
+                }
+                return rowsRestored;
+            }
+        });
+    }
+
     //                              (101 - M)
     // returns the value of the numbers of rows deleted into the database
     @Override
-    public int delete(Uri uri, String selection, String[] selectionArgs) {
-        //(101 - M - 1)
-        // Get writable database
-        SQLiteDatabase database = mDbHelper.getWritableDatabase();
-
-        //(101 - M - 3 - a)
-        // Track the number of rows that were deleted
-        int rowsDeleted;
+    public int delete(final Uri uri, final String selection, final String[] selectionArgs) {
+        long start = System.nanoTime();
 
         //(101 - M - 2)
         // Figure out if the URI matcher can match the URI to a specific code
@@ -380,34 +1650,600 @@ public class PetProvider extends ContentProvider {
         //decide which path to go dawn
         switch (match) {
             case PETS:
-                // Delete all rows that match the selection and selection args
-                rowsDeleted = database.delete(PetEntry.TABLE_NAME, selection, selectionArgs);
-                break;
             case PET_ID:
-                // Delete a single row given by the ID in the URI
-                selection = PetEntry._ID + "=?";
-                // ContentUris.parseId(uri)):
-                //      this will extract the last segment of the uri path into a number for us
-                // then String.valueOf() :
-                //      this will convert this segment into a string
-                //      because the selectionArgs is a string array
-                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
-                rowsDeleted = database.delete(PetEntry.TABLE_NAME, selection, selectionArgs);
                 break;
+            case PET_STATS:
+                // Deleting the statistics starts counting again
+                mStats.reset();
+                mRowCache.resetCounts();
+                return 0;
             default:
                 throw new IllegalArgumentException("Deletion is not supported for " + uri);
         }
+
+        //(101 - M - 1)
+        // Get writable database, on the writer thread
+        int rowsDeleted;
+        if (match == PETS) {
+            rowsDeleted = deletePets(selection, selectionArgs);
+        } else {
+            rowsDeleted = write(new PetWriteQueue.Write<Integer>() {
+                @Override
+                public Integer run(SQLiteDatabase database) {
+                    return deletePet(database, uri);
+                }
+            });
+        }
+        mStats.record(match - PETS, ProviderStats.OPERATION_DELETE, start, rowsDeleted, 0);
+
+        // Return the number of rows deleted
+        return rowsDeleted;
+
+    }
+
+    /**
+     * Delete the pets that match the selection, and return the number of rows deleted. The
+     * pets are only marked as deleted with the time of the delete, which leaves every index
+     * but one alone, and they can be restored until {@link PetPurger} removes them.
+     *
+     * The pets are deleted in chunks of {@link #mDeleteChunkRows} in ID order, each its own
+     * write on the writer thread, so deleting every pet neither holds the writer for the
+     * whole table nor keeps all their IDs. A failure leaves the chunks before it deleted. The
+     * observers are notified once at the end, with the IDs of the pets if there are few.
+     */
+    private int deletePets(final String selection, final String[] selectionArgs) {
+        final long deletedAt = System.currentTimeMillis();
+        int rowsDeleted = 0;
+        // IDs of the deleted pets while there are few enough to notify them
+        long[] ids = new long[0];
+        long lastId = -1;
+        while (true) {
+            final String[] chunkArgs = DatabaseUtils.appendSelectionArgs(
+                    new String[] { String.valueOf(lastId) }, selectionArgs);
+            long[] chunk = write(new PetWriteQueue.Write<long[]>() {
+                @Override
+                public long[] run(SQLiteDatabase database) {
+                    return deleteChunk(database, DatabaseUtils.concatenateWhere(
+                            PetEntry._ID + ">?", selection), chunkArgs, deletedAt);
+                }
+            });
+            rowsDeleted += chunk.length;
+            if (ids != null && rowsDeleted <= PetEntry.MAX_CHANGED_IDS) {
+                ids = Arrays.copyOf(ids, rowsDeleted);
+                System.arraycopy(chunk, 0, ids, rowsDeleted - chunk.length, chunk.length);
+            } else {
+                ids = null;
+            }
+            if (chunk.length < mDeleteChunkRows) {
+                break;
+            }
+            lastId = chunk[chunk.length - 1];
+        }
+
         // (107 - D)
-        // If 1 or more rows were deleted, then notify all listeners that the data at the
-        // given URI has changed
+        // If 1 or more rows were deleted, then notify all listeners that these pets
+        // have changed
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            afterCommit(new Runnable() {
+                @Override
+                public void run() {
+                    mPurger.schedule();
+                }
+            });
+            // Without the IDs the observers are told that anything may have changed
+            notifyChange(PetEntry.CHANGE_DELETE, ids);
         }
+        return rowsDeleted;
+    }
 
-        // Return the number of rows deleted
+    /**
+     * Mark the next chunk of the pets that match the selection as deleted, on the writer
+     * thread.
+     *
+     * @return the IDs of the pets deleted in ID order, fewer than {@link #mDeleteChunkRows}
+     * once there are no more
+     */
+    private long[] deleteChunk(SQLiteDatabase database, String selection,
+                               String[] selectionArgs, long deletedAt) {
+        Cursor cursor = database.query(PetDbHelper.LIVE_PETS, new String[] { PetEntry._ID },
+                selection, selectionArgs, null, null, PetEntry._ID,
+                String.valueOf(mDeleteChunkRows));
+        final long[] ids;
+        try {
+            ids = new long[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                ids[i] = cursor.getLong(0);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        ContentValues tombstone = new ContentValues();
+        tombstone.put(PetDbHelper.COLUMN_DELETED, deletedAt);
+        // The deletion time takes one of the arguments
+        int chunkSize = MAX_SQL_ARGUMENTS - 1;
+        for (int from = 0; from < ids.length; from += chunkSize) {
+            int to = Math.min(from + chunkSize, ids.length);
+            database.update(PetEntry.TABLE_NAME, tombstone, PetEntry._ID + " IN "
+                    + argumentList(to - from), toArguments(ids, from, to));
+        }
+        if (ids.length != 0) {
+            afterCommit(new Runnable() {
+                @Override
+                public void run() {
+                    mRowCache.invalidate(ids);
+                }
+            });
+        }
+        return ids;
+    }
+
+    /**
+     * Delete the pet given by the ID in the URI on the writer thread, and return the number of
+     * rows deleted. Like any delete, the pet is only marked as deleted.
+     */
+    private int deletePet(SQLiteDatabase database, Uri uri) {
+        //(101 - M - 3 - a)
+        // Delete a single row given by the ID in the URI, with the compiled
+        // delete statement
+        // ContentUris.parseId(uri)):
+        //      this will extract the last segment of the uri path into a number for us
+        final long[] ids = { ContentUris.parseId(uri) };
+        int rowsDeleted = mStatements.delete(database, ids[0], System.currentTimeMillis());
+        // (107 - D)
+        // If the row was deleted, then notify all listeners that the pet has changed
+        if (rowsDeleted != 0) {
+            afterCommit(new Runnable() {
+                @Override
+                public void run() {
+                    mRowCache.invalidate(ids);
+                    mPurger.schedule();
+                }
+            });
+            notifyChange(PetEntry.CHANGE_DELETE, ids);
+        }
         return rowsDeleted;
+    }
+
+    /**
+     * Run one of the methods of {@link PetEntry} that read or write many pets with a single
+     * binder call, see {@link PetEntry#METHOD_GET_PETS_BY_IDS}. The pets are given and returned
+     * as arrays, and each statement handles as many of them as SQLite takes arguments, instead
+     * of a query, update or delete and a cursor window for each pet.
+     */
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        long start = System.nanoTime();
+        int route;
+        if (PetEntry.METHOD_GET_PETS_BY_IDS.equals(method)) {
+            route = CALL_GET_PETS_BY_IDS;
+        } else if (PetEntry.METHOD_UPDATE_WEIGHTS.equals(method)) {
+            route = CALL_UPDATE_WEIGHTS;
+        } else if (PetEntry.METHOD_DELETE_BY_IDS.equals(method)) {
+            route = CALL_DELETE_BY_IDS;
+        } else if (PetEntry.METHOD_BULK_INSERT.equals(method)) {
+            route = CALL_BULK_INSERT;
+        } else {
+            throw new IllegalArgumentException("Unsupported method " + method);
+        }
+
+        Bundle result;
+        int rowsAffected = 0;
+        int rowsReturned = 0;
+        if (route == CALL_BULK_INSERT) {
+            result = bulkInsert(extras);
+            rowsAffected = result.getLongArray(PetEntry.EXTRA_IDS).length
+                    - result.getIntArray(PetEntry.EXTRA_FAILED_ROWS).length;
+            mStats.record(route - PETS, ProviderStats.OPERATION_CALL, start, rowsAffected, 0);
+            return result;
+        }
+        long[] ids = extras != null ? extras.getLongArray(PetEntry.EXTRA_IDS) : null;
+        if (ids == null) {
+            throw new IllegalArgumentException("Pet IDs are required for " + method);
+        }
+        switch (route) {
+            case CALL_GET_PETS_BY_IDS:
+                mMaintenance.noteActivity();
+                result = getPetsByIds(ids);
+                rowsReturned = result.getLongArray(PetEntry.EXTRA_IDS).length;
+                break;
+            case CALL_UPDATE_WEIGHTS:
+                result = updateWeights(ids, extras.getIntArray(PetEntry.EXTRA_WEIGHTS));
+                rowsAffected = result.getLongArray(PetEntry.EXTRA_IDS).length;
+                break;
+            default:
+                result = deleteByIds(ids);
+                rowsAffected = result.getLongArray(PetEntry.EXTRA_IDS).length;
+                break;
+        }
+        mStats.record(route - PETS, ProviderStats.OPERATION_CALL, start, rowsAffected,
+                rowsReturned);
+        return result;
+    }
+
+    /**
+     * Insert the given pets and report the rows that failed, see
+     * {@link PetEntry#METHOD_BULK_INSERT}.
+     */
+    private Bundle bulkInsert(Bundle extras) {
+        Parcelable[] rows = extras != null
+                ? extras.getParcelableArray(PetEntry.EXTRA_VALUES) : null;
+        if (rows == null) {
+            throw new IllegalArgumentException("Pet values are required for "
+                    + PetEntry.METHOD_BULK_INSERT);
+        }
+        ContentValues[] values = new ContentValues[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            if (!(rows[i] instanceof ContentValues)) {
+                throw new IllegalArgumentException("Row " + i + " of "
+                        + PetEntry.METHOD_BULK_INSERT + " isn't a ContentValues");
+            }
+            values[i] = (ContentValues) rows[i];
+        }
+
+        long[] ids = bulkInsert(values);
+        int[] failedRows = new int[ids.length];
+        int failed = 0;
+        for (int i = 0; i < ids.length; i++) {
+            if (ids[i] == -1) {
+                failedRows[failed++] = i;
+            }
+        }
+        Bundle result = new Bundle();
+        result.putLongArray(PetEntry.EXTRA_IDS, ids);
+        result.putIntArray(PetEntry.EXTRA_FAILED_ROWS, Arrays.copyOf(failedRows, failed));
+        return result;
+    }
+
+    /**
+     * Read the given pets, see {@link PetEntry#METHOD_GET_PETS_BY_IDS}.
+     */
+    private Bundle getPetsByIds(long[] ids) {
+        // In order and without duplicates, the chunks then come back one after the other in
+        // ID order
+        long[] sortedIds = Arrays.copyOf(ids, ids.length);
+        Arrays.sort(sortedIds);
+        int count = 0;
+        for (int i = 0; i < sortedIds.length; i++) {
+            if (i == 0 || sortedIds[i] != sortedIds[i - 1]) {
+                sortedIds[count++] = sortedIds[i];
+            }
+        }
+
+        SQLiteDatabase database = mDbHelper.getReadableDatabase();
+        long[] petIds = new long[count];
+        String[] names = new String[count];
+        String[] breeds = new String[count];
+        int[] genders = new int[count];
+        int[] weights = new int[count];
+        int rows = 0;
+        for (int from = 0; from < count; from += MAX_SQL_ARGUMENTS) {
+            int to = Math.min(from + MAX_SQL_ARGUMENTS, count);
+            Cursor cursor = database.query(PetDbHelper.LIVE_PETS, PetRowCache.COLUMNS,
+                    PetEntry._ID + " IN " + argumentList(to - from),
+                    toArguments(sortedIds, from, to), null, null, PetEntry._ID);
+            try {
+                while (cursor.moveToNext()) {
+                    petIds[rows] = cursor.getLong(0);
+                    names[rows] = cursor.getString(1);
+                    breeds[rows] = cursor.getString(2);
+                    genders[rows] = cursor.getInt(3);
+                    // A pet without a weight weighs 0, like in the catalog
+                    weights[rows] = cursor.getInt(4);
+                    rows++;
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        Bundle result = new Bundle();
+        result.putLongArray(PetEntry.EXTRA_IDS, Arrays.copyOf(petIds, rows));
+        result.putStringArray(PetEntry.EXTRA_NAMES, Arrays.copyOf(names, rows));
+        result.putStringArray(PetEntry.EXTRA_BREEDS, Arrays.copyOf(breeds, rows));
+        result.putIntArray(PetEntry.EXTRA_GENDERS, Arrays.copyOf(genders, rows));
+        result.putIntArray(PetEntry.EXTRA_WEIGHTS, Arrays.copyOf(weights, rows));
+        return result;
+    }
+
+    /**
+     * Change the weights of the given pets, see {@link PetEntry#METHOD_UPDATE_WEIGHTS}.
+     */
+    private Bundle updateWeights(long[] ids, int[] weights) {
+        if (weights == null || weights.length != ids.length) {
+            throw new IllegalArgumentException("Each pet requires a weight");
+        }
+        // A pet given twice gets the first weight
+        final HashMap<Long, Integer> weightsById = new HashMap<>();
+        for (int i = 0; i < ids.length; i++) {
+            if (weights[i] < 0) {
+                throw new IllegalArgumentException("Pet requires valid weight");
+            }
+            if (!weightsById.containsKey(ids[i])) {
+                weightsById.put(ids[i], weights[i]);
+            }
+        }
+        final long[] petIds = new long[weightsById.size()];
+        int i = 0;
+        for (long id : weightsById.keySet()) {
+            petIds[i++] = id;
+        }
+        Arrays.sort(petIds);
+
+        long[] updatedIds = write(new PetWriteQueue.Write<long[]>() {
+            @Override
+            public long[] run(SQLiteDatabase database) {
+                return updateWeights(database, petIds, weightsById);
+            }
+        });
+        Bundle result = new Bundle();
+        result.putLongArray(PetEntry.EXTRA_IDS, updatedIds);
+        return result;
+    }
+
+    /**
+     * Change the weights of the given pets on the writer thread, and return the IDs of the
+     * pets that were updated. Each chunk finds out which of the pets aren't deleted, and sets
+     * all their weights with a single statement.
+     */
+    private long[] updateWeights(SQLiteDatabase database, long[] ids,
+                                 HashMap<Long, Integer> weightsById) {
+        long[] updatedIds = new long[ids.length];
+        int rowsUpdated = 0;
+        // Each pet takes three arguments: its ID and weight in the CASE, and its ID in the IN
+        int chunkSize = MAX_SQL_ARGUMENTS / 3;
+        for (int from = 0; from < ids.length; from += chunkSize) {
+            long[] liveIds = queryLiveIds(database, ids, from,
+                    Math.min(from + chunkSize, ids.length));
+            if (liveIds.length == 0) {
+                continue;
+            }
+            StringBuilder sql = new StringBuilder("UPDATE " + PetEntry.TABLE_NAME + " SET "
+                    + PetEntry.COLUMN_PET_WEIGHT + " = CASE " + PetEntry._ID);
+            Object[] bindArgs = new Object[liveIds.length * 3];
+            for (int i = 0; i < liveIds.length; i++) {
+                sql.append(" WHEN ? THEN ?");
+                bindArgs[2 * i] = liveIds[i];
+                bindArgs[2 * i + 1] = weightsById.get(liveIds[i]);
+                bindArgs[2 * liveIds.length + i] = liveIds[i];
+                updatedIds[rowsUpdated] = liveIds[i];
+                rowsUpdated++;
+            }
+            sql.append(" END WHERE ").append(PetEntry._ID).append(" IN ")
+                    .append(argumentList(liveIds.length));
+            database.execSQL(sql.toString(), bindArgs);
+        }
+
+        final long[] changedIds = Arrays.copyOf(updatedIds, rowsUpdated);
+        if (rowsUpdated != 0) {
+            afterCommit(new Runnable() {
+                @Override
+                public void run() {
+                    mRowCache.invalidate(changedIds);
+                }
+            });
+            notifyChange(PetEntry.CHANGE_UPDATE, changedIds);
+        }
+        return changedIds;
+    }
+
+    /**
+     * Delete the given pets, see {@link PetEntry#METHOD_DELETE_BY_IDS}. Like any delete, the
+     * pets are only marked as deleted until {@link PetPurger} removes them.
+     */
+    private Bundle deleteByIds(final long[] ids) {
+        long[] deletedIds = write(new PetWriteQueue.Write<long[]>() {
+            @Override
+            public long[] run(SQLiteDatabase database) {
+                return deleteByIds(database, ids);
+            }
+        });
+        Bundle result = new Bundle();
+        result.putLongArray(PetEntry.EXTRA_IDS, deletedIds);
+        return result;
+    }
+
+    /**
+     * Delete the given pets on the writer thread, and return the IDs of the pets that were
+     * deleted.
+     */
+    private long[] deleteByIds(SQLiteDatabase database, long[] ids) {
+        long[] deletedIds = new long[ids.length];
+        int rowsDeleted = 0;
+        ContentValues tombstone = new ContentValues();
+        tombstone.put(PetDbHelper.COLUMN_DELETED, System.currentTimeMillis());
+        // The deletion time takes one of the arguments
+        int chunkSize = MAX_SQL_ARGUMENTS - 1;
+        for (int from = 0; from < ids.length; from += chunkSize) {
+            long[] liveIds = queryLiveIds(database, ids, from,
+                    Math.min(from + chunkSize, ids.length));
+            if (liveIds.length == 0) {
+                continue;
+            }
+            database.update(PetEntry.TABLE_NAME, tombstone, PetEntry._ID + " IN "
+                    + argumentList(liveIds.length), toArguments(liveIds, 0, liveIds.length));
+            System.arraycopy(liveIds, 0, deletedIds, rowsDeleted, liveIds.length);
+            rowsDeleted += liveIds.length;
+        }
+
+        final long[] changedIds = Arrays.copyOf(deletedIds, rowsDeleted);
+        if (rowsDeleted != 0) {
+            afterCommit(new Runnable() {
+                @Override
+                public void run() {
+                    mRowCache.invalidate(changedIds);
+                    mPurger.schedule();
+                }
+            });
+            notifyChange(PetEntry.CHANGE_DELETE, changedIds);
+        }
+        return changedIds;
+    }
+
+    /**
+     * Returns the IDs of the pets among ids[from..to) that aren't deleted, each once. Run it in
+     * the transaction of the write that changes them, so they are the pets it changes.
+     */
+    private static long[] queryLiveIds(SQLiteDatabase database, long[] ids, int from, int to) {
+        Cursor cursor = database.query(PetEntry.TABLE_NAME, new String[] { PetEntry._ID },
+                PetDbHelper.COLUMN_DELETED + "=0 AND " + PetEntry._ID + " IN "
+                        + argumentList(to - from),
+                toArguments(ids, from, to), null, null, null);
+        try {
+            long[] liveIds = new long[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                liveIds[i] = cursor.getLong(0);
+            }
+            return liveIds;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns a list of the given number of arguments for an IN, like "(?,?,?)".
+     */
+    private static String argumentList(int count) {
+        StringBuilder arguments = new StringBuilder(2 * count + 1);
+        for (int i = 0; i < count; i++) {
+            arguments.append(i == 0 ? "(?" : ",?");
+        }
+        return arguments.append(')').toString();
+    }
+
+    /**
+     * Returns ids[from..to) as selection arguments.
+     */
+    private static String[] toArguments(long[] ids, int from, int to) {
+        String[] arguments = new String[to - from];
+        for (int i = from; i < to; i++) {
+            arguments[i - from] = String.valueOf(ids[i]);
+        }
+        return arguments;
+    }
+
+    /**
+     * Run a write on the writer thread, where it's committed together with the writes of other
+     * threads, and return its result once it's committed. Inside {@link #applyBatch} or on the
+     * writer thread a transaction is already open, so the write runs right away instead.
+     */
+    private <T> T write(PetWriteQueue.Write<T> write) {
+        if (mPendingChanges.get() != null) {
+            return write.run(mDbHelper.getWritableDatabase());
+        }
+        return mWriteQueue.submit(write);
+    }
 
+    /**
+     * Open an export URI for reading. The pets are written into a pipe by a background thread
+     * while the caller reads the other end.
+     */
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        String format;
+        switch (sUriMatcher.match(uri)) {
+            case PET_EXPORT:
+                format = PetEntry.EXPORT_FORMAT_CSV;
+                break;
+            case PET_EXPORT_FORMAT:
+                format = uri.getLastPathSegment();
+                break;
+            default:
+                throw new FileNotFoundException("Cannot open " + uri);
+        }
+        return openExport(uri, mode, format);
+    }
+
+    /**
+     * Open the export URI in the first format that matches the MIME type filter, CSV or JSON.
+     */
+    @Override
+    public AssetFileDescriptor openTypedAssetFile(Uri uri, String mimeTypeFilter, Bundle opts)
+            throws FileNotFoundException {
+        if (sUriMatcher.match(uri) != PET_EXPORT) {
+            return super.openTypedAssetFile(uri, mimeTypeFilter, opts);
+        }
+        String format;
+        if (ClipDescription.compareMimeTypes(PetEntry.EXPORT_CSV_TYPE, mimeTypeFilter)) {
+            format = PetEntry.EXPORT_FORMAT_CSV;
+        } else if (ClipDescription.compareMimeTypes(PetEntry.EXPORT_JSON_TYPE, mimeTypeFilter)) {
+            format = PetEntry.EXPORT_FORMAT_JSON;
+        } else {
+            throw new FileNotFoundException("Cannot export " + uri + " as " + mimeTypeFilter);
+        }
+        return new AssetFileDescriptor(openExport(uri, "r", format), 0,
+                AssetFileDescriptor.UNKNOWN_LENGTH);
+    }
+
+    @Override
+    public String[] getStreamTypes(Uri uri, String mimeTypeFilter) {
+        switch (sUriMatcher.match(uri)) {
+            case PET_EXPORT:
+                ArrayList<String> types = new ArrayList<>();
+                for (String type : new String[] {
+                        PetEntry.EXPORT_CSV_TYPE, PetEntry.EXPORT_JSON_TYPE }) {
+                    if (ClipDescription.compareMimeTypes(type, mimeTypeFilter)) {
+                        types.add(type);
+                    }
+                }
+                return types.isEmpty() ? null : types.toArray(new String[types.size()]);
+            case PET_EXPORT_FORMAT:
+                return super.getStreamTypes(uri, mimeTypeFilter);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Start streaming all the pets in the given format into a pipe.
+     *
+     * @return the end of the pipe to read from
+     */
+    private ParcelFileDescriptor openExport(Uri uri, String mode, String format)
+            throws FileNotFoundException {
+        if (!"r".equals(mode)) {
+            throw new FileNotFoundException("The export of the pets is read-only: " + uri);
+        }
+        return openPipeHelper(uri, exportType(uri, format), null, format, mExporter);
     }
+
+    /**
+     * Returns the MIME type of the given export format.
+     *
+     * @throws IllegalArgumentException if the format isn't supported
+     */
+    private static String exportType(Uri uri, String format) {
+        if (PetEntry.EXPORT_FORMAT_CSV.equals(format)) {
+            return PetEntry.EXPORT_CSV_TYPE;
+        }
+        if (PetEntry.EXPORT_FORMAT_JSON.equals(format)) {
+            return PetEntry.EXPORT_JSON_TYPE;
+        }
+        throw new IllegalArgumentException("Unknown export format for " + uri);
+    }
+
+    /**
+     * Give memory back when the system runs low: drop half of the cached pets while the app is
+     * in the background, and all of them when it's about to be killed.
+     */
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            mRowCache.invalidate(null);
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            mRowCache.trimToSize(mRowCache.maxSize() / 2);
+        }
+        Log.v(LOG_TAG, "Trimmed memory at level " + level + ", row cache hits: "
+                + mRowCache.getHitCount() + ", misses: " + mRowCache.getMissCount());
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        mRowCache.invalidate(null);
+    }
+
     //                                          (101 - N)
     //(102) go to list_item.xml
     //The purpose of this method is to return a String that describes the type of the data
@@ -435,6 +2271,22 @@ public class PetProvider extends ContentProvider {
                 return PetEntry.CONTENT_LIST_TYPE;
             case PET_ID:
                 return PetEntry.CONTENT_ITEM_TYPE;
+            case PET_SEARCH:
+                return PetEntry.CONTENT_LIST_TYPE;
+            case PET_STATS:
+                return StatsEntry.CONTENT_LIST_TYPE;
+            case PET_COUNT:
+            case PET_SUMMARY:
+            case BREED_SUMMARY:
+                return SummaryEntry.CONTENT_ITEM_TYPE;
+            case BREED_SUMMARIES:
+                return SummaryEntry.CONTENT_LIST_TYPE;
+            case PET_EXPORT:
+                return PetEntry.EXPORT_CSV_TYPE;
+            case PET_EXPORT_FORMAT:
+                return exportType(uri, uri.getLastPathSegment());
+            case PET_DELETED:
+                return PetEntry.CONTENT_LIST_TYPE;
             default:
                 throw new IllegalStateException("Unknown URI " + uri + " with match " + match);
         }
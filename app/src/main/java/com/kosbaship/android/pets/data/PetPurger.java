@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kosbaship.android.pets.data;
+
+import android.database.DatabaseUtils;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Process;
+import android.util.Log;
+
+import com.kosbaship.android.pets.data.PetContract.PetEntry;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Removes the tombstones of deleted pets once they are old enough that the delete can't be
+ * undone any more, on a background thread. The tombstones are removed a few hundred at a time,
+ * each chunk being a write of the {@link PetWriteQueue}, so the provider's writes are never held
+ * up for long. The pages they leave free are then given back to the file system the same way,
+ * with incremental vacuum.
+ */
+final class PetPurger {
+
+    private final PetDbHelper mDbHelper;
+    private final PetWriteQueue mWriteQueue;
+    private final long mDelayMs;
+    private final int mChunkRows;
+    private final int mVacuumPages;
+
+    private final ScheduledExecutorService mExecutor = new ScheduledThreadPoolExecutor(1,
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "PetPurger");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    /** The next purge, if one is scheduled and hasn't started yet */
+    private ScheduledFuture<?> mScheduled;
+
+    private volatile boolean mClosed;
+
+    /**
+     * @param delayMs     how long a deleted pet is kept before it's purged, in milliseconds
+     * @param chunkRows   the number of pets each chunk of the purge removes at most
+     * @param vacuumPages the number of free pages each chunk of the vacuum gives back at most
+     */
+    PetPurger(PetDbHelper dbHelper, PetWriteQueue writeQueue, long delayMs, int chunkRows,
+              int vacuumPages) {
+        if (delayMs < 0 || chunkRows < 1 || vacuumPages < 1) {
+            throw new IllegalArgumentException("Invalid purge settings");
+        }
+        mDbHelper = dbHelper;
+        mWriteQueue = writeQueue;
+        mDelayMs = delayMs;
+        mChunkRows = chunkRows;
+        mVacuumPages = vacuumPages;
+    }
+
+    /**
+     * Purge the pets that were deleted long enough ago right away, for example the ones the
+     * app left behind the last time it ran.
+     */
+    void start() {
+        schedule(0);
+    }
+
+    /**
+     * Purge the pets deleted just now once they are old enough. Call it after each delete.
+     */
+    void schedule() {
+        schedule(mDelayMs);
+    }
+
+    /**
+     * Stop purging once the current chunk is done. The tombstones left are purged the next
+     * time the provider starts.
+     */
+    synchronized void close() {
+        mClosed = true;
+        mExecutor.shutdownNow();
+    }
+
+    private synchronized void schedule(long delayMs) {
+        // A purge that is already scheduled is due no later than this one, and it schedules
+        // the next one for the pets that are too recent for it
+        if (mClosed || mScheduled != null) {
+            return;
+        }
+        mScheduled = mExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                synchronized (PetPurger.this) {
+                    mScheduled = null;
+                }
+                try {
+                    purge();
+                } catch (SQLException e) {
+                    // What is left is purged the next time
+                    Log.e(PetDbHelper.LOG_TAG, "Purge failed", e);
+                }
+            }
+        }, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void purge() {
+        long start = System.nanoTime();
+        final long deletedBefore = System.currentTimeMillis() - mDelayMs;
+        int rows = 0;
+        int chunkRows;
+        do {
+            if (mClosed) {
+                return;
+            }
+            chunkRows = mWriteQueue.submit(new PetWriteQueue.Write<Integer>() {
+                @Override
+                public Integer run(SQLiteDatabase database) {
+                    return purgeChunk(database, deletedBefore, mChunkRows);
+                }
+            });
+            rows += chunkRows;
+        } while (chunkRows == mChunkRows);
+
+        int pages = 0;
+        if (rows != 0
+                && PetDbHelper.isIncrementalVacuum(mDbHelper.getReadableDatabase())) {
+            int chunkPages;
+            do {
+                if (mClosed) {
+                    return;
+                }
+                chunkPages = mWriteQueue.submit(new PetWriteQueue.Write<Integer>() {
+                    @Override
+                    public Integer run(SQLiteDatabase database) {
+                        return PetDbHelper.incrementalVacuum(database, mVacuumPages);
+                    }
+                });
+                pages += chunkPages;
+            } while (chunkPages == mVacuumPages);
+        }
+        if (rows != 0) {
+            Log.i(PetDbHelper.LOG_TAG, "Purged " + rows + " pets and " + pages + " pages in "
+                    + (System.nanoTime() - start) / 1000000 + " ms");
+        }
+
+        // Come back for the pets that were deleted too recently to purge them now
+        long oldest = DatabaseUtils.longForQuery(mDbHelper.getReadableDatabase(),
+                "SELECT IFNULL(MIN(" + PetDbHelper.COLUMN_DELETED + "), 0) FROM "
+                        + PetEntry.TABLE_NAME + " WHERE " + PetDbHelper.COLUMN_DELETED + ">0",
+                null);
+        if (oldest != 0) {
+            schedule(Math.max(0, oldest + mDelayMs - System.currentTimeMillis()));
+        }
+    }
+
+    /**
+     * Remove the oldest tombstones, inside the transaction of the writer thread. The triggers
+     * take the pets out of the search index, the summary already left them out.
+     *
+     * @return the number of pets removed
+     */
+    private static int purgeChunk(SQLiteDatabase database, long deletedBefore, int chunkRows) {
+        return database.delete(PetEntry.TABLE_NAME, PetEntry._ID + " IN (SELECT "
+                + PetEntry._ID + " FROM " + PetEntry.TABLE_NAME + " WHERE "
+                + PetDbHelper.COLUMN_DELETED + ">0 AND " + PetDbHelper.COLUMN_DELETED
+                + "<? LIMIT " + chunkRows + ")", new String[] { String.valueOf(deletedBefore) });
+    }
+}
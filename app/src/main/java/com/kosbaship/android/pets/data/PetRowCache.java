@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kosbaship.android.pets.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.util.LruCache;
+
+import com.kosbaship.android.pets.data.PetContract.PetEntry;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded cache of single pet rows by ID, most recently used first. It lets
+ * {@link PetProvider} answer the query of one pet without going to the database.
+ *
+ * Readers that fill the cache from the database must take a {@link #getGeneration()} before
+ * they read, so a row read before a write can't be cached after that write invalidated it.
+ */
+final class PetRowCache {
+
+    /** All the columns of a pet, in the order the cached rows hold them */
+    static final String[] COLUMNS = {
+            PetEntry._ID,
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_GENDER,
+            PetEntry.COLUMN_PET_WEIGHT };
+
+    /** The cached rows, each one holds the values of {@link #COLUMNS} */
+    private final LruCache<Long, Object[]> mRows;
+
+    /** Bumped by every invalidation */
+    private final AtomicLong mGeneration = new AtomicLong();
+
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+
+    /**
+     * @param maxSize maximum number of pets in the cache
+     */
+    PetRowCache(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Invalid cache size " + maxSize);
+        }
+        mRows = new LruCache<>(maxSize);
+    }
+
+    /**
+     * Returns whether the given projection can be answered from the cache, that is whether it
+     * only names columns of the pets table.
+     */
+    static boolean canProject(String[] projection) {
+        if (projection == null) {
+            return true;
+        }
+        for (String column : projection) {
+            if (columnIndex(column) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns a cursor over the cached pet with the given ID and columns, or null if the pet
+     * isn't in the cache. The projection must pass {@link #canProject}.
+     */
+    Cursor query(long id, String[] projection) {
+        Object[] row = mRows.get(id);
+        if (row == null) {
+            mMisses.incrementAndGet();
+            return null;
+        }
+        mHits.incrementAndGet();
+        return project(row, projection);
+    }
+
+    /**
+     * Returns the current generation, to pass to {@link #put(Object[], long)} after reading
+     * the row from the database.
+     */
+    long getGeneration() {
+        return mGeneration.get();
+    }
+
+    /**
+     * Cache a row read from the database, unless the cache was invalidated since the given
+     * generation was taken.
+     *
+     * @param row        the values of {@link #COLUMNS}
+     * @param generation the generation taken before the row was read
+     */
+    void put(Object[] row, long generation) {
+        long id = ((Number) row[0]).longValue();
+        synchronized (this) {
+            if (generation == mGeneration.get()) {
+                mRows.put(id, row);
+            }
+        }
+    }
+
+    /**
+     * Cache a row read from the first row of a cursor holding {@link #COLUMNS}, unless the cache
+     * was invalidated since the given generation was taken.
+     *
+     * @return the cached row, or null if the cursor is empty
+     */
+    Object[] put(Cursor cursor, long generation) {
+        if (!cursor.moveToFirst()) {
+            return null;
+        }
+        Object[] row = readRow(cursor);
+        put(row, generation);
+        return row;
+    }
+
+    /**
+     * Returns the current row of a cursor whose first columns are {@link #COLUMNS}.
+     */
+    static Object[] readRow(Cursor cursor) {
+        Object[] row = new Object[COLUMNS.length];
+        row[0] = cursor.getLong(0);
+        row[1] = cursor.getString(1);
+        row[2] = cursor.getString(2);
+        row[3] = cursor.getInt(3);
+        row[4] = cursor.getInt(4);
+        return row;
+    }
+
+    /**
+     * Remove the given pets from the cache, or every pet if the IDs are null.
+     */
+    void invalidate(long[] ids) {
+        synchronized (this) {
+            mGeneration.incrementAndGet();
+            if (ids == null) {
+                mRows.evictAll();
+                return;
+            }
+            for (long id : ids) {
+                mRows.remove(id);
+            }
+        }
+    }
+
+    /**
+     * Shrink the cache to the given number of pets, dropping the least recently used ones.
+     */
+    void trimToSize(int size) {
+        mRows.trimToSize(size);
+    }
+
+    /** Returns the maximum number of pets in the cache. */
+    int maxSize() {
+        return mRows.maxSize();
+    }
+
+    /** Returns the number of pet queries answered from the cache. */
+    long getHitCount() {
+        return mHits.get();
+    }
+
+    /** Returns the number of pet queries that had to go to the database. */
+    long getMissCount() {
+        return mMisses.get();
+    }
+
+    /** Set the hit and miss counts back to 0. */
+    void resetCounts() {
+        mHits.set(0);
+        mMisses.set(0);
+    }
+
+    /**
+     * Returns a cursor over the given columns of a cached row.
+     */
+    static Cursor project(Object[] row, String[] projection) {
+        return project(Collections.singletonList(row), projection);
+    }
+
+    /**
+     * Returns a cursor over the given columns of rows holding the values of {@link #COLUMNS},
+     * in the order of the list. The projection must pass {@link #canProject}.
+     */
+    static Cursor project(List<Object[]> rows, String[] projection) {
+        if (projection == null) {
+            projection = COLUMNS;
+        }
+        int[] indexes = new int[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            indexes[i] = columnIndex(projection[i]);
+        }
+        MatrixCursor cursor = new MatrixCursor(projection, rows.size());
+        for (Object[] row : rows) {
+            Object[] values = new Object[indexes.length];
+            for (int i = 0; i < indexes.length; i++) {
+                values[i] = row[indexes[i]];
+            }
+            cursor.addRow(values);
+        }
+        return cursor;
+    }
+
+    /**
+     * Returns the index of the given column in {@link #COLUMNS}, or -1 if it isn't a column.
+     */
+    private static int columnIndex(String column) {
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (COLUMNS[i].equals(column)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,311 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kosbaship.android.pets.data;
+
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+import android.text.TextUtils;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.kosbaship.android.pets.data.PetContract.PetEntry;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compiled statements for the single pet operations of {@link PetProvider}: insert, update,
+ * delete and lookup by ID. The SQL of these operations never changes, so each statement is
+ * compiled once and reused, and its arguments are bound with their own types instead of going
+ * through {@link android.content.ContentValues}.
+ *
+ * A statement can only be used by one thread at a time, so each kind of statement is kept in a
+ * small pool that threads take from and give back to.
+ *
+ * The pets refer to their breed by ID, so the statements also turn breeds into breed IDs. The
+ * IDs of the breeds seen recently are cached, so most writes don't have to look up their breed.
+ */
+final class PetStatements {
+
+    /** Maximum number of idle statements kept of each kind */
+    private static final int MAX_IDLE_STATEMENTS = 4;
+
+    /** Maximum number of breed IDs kept in the cache */
+    private static final int MAX_CACHED_BREEDS = 256;
+
+    /** SQL to insert a pet */
+    private static final String SQL_INSERT = "INSERT INTO " + PetEntry.TABLE_NAME + " ("
+            + PetEntry.COLUMN_PET_NAME + ", "
+            + PetDbHelper.COLUMN_BREED_ID + ", "
+            + PetEntry.COLUMN_PET_GENDER + ", "
+            + PetEntry.COLUMN_PET_WEIGHT + ") VALUES (?, ?, ?, ?)";
+
+    /** SQL to update all the columns of a pet by ID, unless it's deleted */
+    private static final String SQL_UPDATE = "UPDATE " + PetEntry.TABLE_NAME + " SET "
+            + PetEntry.COLUMN_PET_NAME + "=?, "
+            + PetDbHelper.COLUMN_BREED_ID + "=?, "
+            + PetEntry.COLUMN_PET_GENDER + "=?, "
+            + PetEntry.COLUMN_PET_WEIGHT + "=? WHERE " + PetEntry._ID + "=? AND "
+            + PetDbHelper.COLUMN_DELETED + "=0";
+
+    /** SQL to delete a pet by ID, which leaves a tombstone with the time of the delete */
+    private static final String SQL_DELETE = "UPDATE " + PetEntry.TABLE_NAME + " SET "
+            + PetDbHelper.COLUMN_DELETED + "=? WHERE " + PetEntry._ID + "=? AND "
+            + PetDbHelper.COLUMN_DELETED + "=0";
+
+    /**
+     * SQL to read all the columns of a pet by ID. A statement can't return a row, so this one
+     * goes through a cursor, but its text is always the same so the database connection
+     * reuses the statement it compiled for it.
+     */
+    private static final String SQL_QUERY = "SELECT "
+            + PetEntry._ID + ", "
+            + PetEntry.COLUMN_PET_NAME + ", "
+            + PetEntry.COLUMN_PET_BREED + ", "
+            + PetEntry.COLUMN_PET_GENDER + ", "
+            + PetEntry.COLUMN_PET_WEIGHT + " FROM " + PetDbHelper.LIVE_PETS
+            + " WHERE " + PetEntry._ID + "=?";
+
+    /** SQL to look up the ID of a breed */
+    private static final String SQL_QUERY_BREED = "SELECT " + PetDbHelper.COLUMN_BREED_ID
+            + " FROM " + PetDbHelper.BREEDS_TABLE_NAME
+            + " WHERE " + PetEntry.COLUMN_PET_BREED + "=?";
+
+    /** SQL to add a breed */
+    private static final String SQL_INSERT_BREED = "INSERT INTO "
+            + PetDbHelper.BREEDS_TABLE_NAME + " (" + PetEntry.COLUMN_PET_BREED + ") VALUES (?)";
+
+    private final Pool mInserts = new Pool(SQL_INSERT);
+    private final Pool mUpdates = new Pool(SQL_UPDATE);
+    private final Pool mDeletes = new Pool(SQL_DELETE);
+    private final Pool mBreedQueries = new Pool(SQL_QUERY_BREED);
+    private final Pool mBreedInserts = new Pool(SQL_INSERT_BREED);
+
+    /**
+     * IDs of committed breeds, by breed. Breeds are never deleted, so an ID stays right for
+     * as long as the database exists.
+     */
+    private final LruCache<String, Long> mBreedIds = new LruCache<>(MAX_CACHED_BREEDS);
+
+    /**
+     * Breeds added by the open transaction of each thread. They only go into
+     * {@link #mBreedIds} once it commits, a rollback takes them out of the database again.
+     */
+    private final ThreadLocal<HashMap<String, Long>> mNewBreeds =
+            new ThreadLocal<HashMap<String, Long>>() {
+                @Override
+                protected HashMap<String, Long> initialValue() {
+                    return new HashMap<>();
+                }
+            };
+
+    /**
+     * Insert a pet.
+     *
+     * @param breed the breed of the pet, or null if it's unknown
+     * @return the ID of the new pet, or -1 if it couldn't be inserted
+     */
+    long insert(SQLiteDatabase database, String name, String breed, int gender, int weight) {
+        SQLiteStatement statement = mInserts.acquire(database);
+        try {
+            bindPet(statement, name, getBreedId(database, breed), gender, weight);
+            return statement.executeInsert();
+        } catch (SQLException e) {
+            // Like SQLiteDatabase.insert(), report the failure with -1
+            Log.e(PetProvider.LOG_TAG, "Error inserting " + name, e);
+            return -1;
+        } finally {
+            mInserts.release(statement);
+        }
+    }
+
+    /**
+     * Update all the columns of the pet with the given ID.
+     *
+     * @param breed the breed of the pet, or null if it's unknown
+     * @return the number of pets updated, 0 or 1
+     */
+    int update(SQLiteDatabase database, long id, String name, String breed, int gender,
+               int weight) {
+        SQLiteStatement statement = mUpdates.acquire(database);
+        try {
+            bindPet(statement, name, getBreedId(database, breed), gender, weight);
+            statement.bindLong(5, id);
+            return statement.executeUpdateDelete();
+        } finally {
+            mUpdates.release(statement);
+        }
+    }
+
+    /**
+     * Delete the pet with the given ID, unless it's already deleted. The pet is only marked as
+     * deleted, {@link PetPurger} removes it later.
+     *
+     * @param deletedAt time of the delete, in milliseconds since the epoch
+     * @return the number of pets deleted, 0 or 1
+     */
+    int delete(SQLiteDatabase database, long id, long deletedAt) {
+        SQLiteStatement statement = mDeletes.acquire(database);
+        try {
+            statement.bindLong(1, deletedAt);
+            statement.bindLong(2, id);
+            return statement.executeUpdateDelete();
+        } finally {
+            mDeletes.release(statement);
+        }
+    }
+
+    /**
+     * Returns the ID of the given breed, and adds the breed if it's new. This must run inside
+     * a transaction, which reports its end with {@link #endTransaction}.
+     *
+     * @param breed the breed, or null or empty for the pets without a breed
+     */
+    long getBreedId(SQLiteDatabase database, String breed) {
+        if (TextUtils.isEmpty(breed)) {
+            return PetDbHelper.NO_BREED_ID;
+        }
+        Long cached = mBreedIds.get(breed);
+        if (cached != null) {
+            return cached;
+        }
+        HashMap<String, Long> newBreeds = mNewBreeds.get();
+        cached = newBreeds.get(breed);
+        if (cached != null) {
+            return cached;
+        }
+
+        SQLiteStatement statement = mBreedQueries.acquire(database);
+        try {
+            statement.bindString(1, breed);
+            long id = statement.simpleQueryForLong();
+            mBreedIds.put(breed, id);
+            return id;
+        } catch (SQLiteDoneException e) {
+            // Not in the database yet, it's added below
+        } finally {
+            mBreedQueries.release(statement);
+        }
+
+        statement = mBreedInserts.acquire(database);
+        try {
+            statement.bindString(1, breed);
+            long id = statement.executeInsert();
+            newBreeds.put(breed, id);
+            return id;
+        } finally {
+            mBreedInserts.release(statement);
+        }
+    }
+
+    /**
+     * Tell the statements that the transaction of the current thread has ended. The breeds it
+     * added are cached if it committed, and forgotten if it rolled back.
+     */
+    void endTransaction(boolean committed) {
+        HashMap<String, Long> newBreeds = mNewBreeds.get();
+        if (committed) {
+            for (Map.Entry<String, Long> entry : newBreeds.entrySet()) {
+                mBreedIds.put(entry.getKey(), entry.getValue());
+            }
+        }
+        newBreeds.clear();
+    }
+
+    /**
+     * Returns a cursor over all the columns of the pet with the given ID, in the order of
+     * {@link PetRowCache#COLUMNS}. It's empty if there is no such pet.
+     */
+    Cursor query(SQLiteDatabase database, long id) {
+        return database.rawQuery(SQL_QUERY, new String[] { String.valueOf(id) });
+    }
+
+    /**
+     * Close all the idle statements. Statements in use are closed when they are given back.
+     */
+    void close() {
+        mInserts.close();
+        mUpdates.close();
+        mDeletes.close();
+        mBreedQueries.close();
+        mBreedInserts.close();
+    }
+
+    /**
+     * Bind the columns of a pet to the first four arguments of a statement.
+     */
+    private static void bindPet(SQLiteStatement statement, String name, long breedId, int gender,
+                                int weight) {
+        statement.bindString(1, name);
+        statement.bindLong(2, breedId);
+        statement.bindLong(3, gender);
+        statement.bindLong(4, weight);
+    }
+
+    /**
+     * Idle statements compiled from the same SQL.
+     */
+    private static final class Pool {
+
+        private final String mSql;
+        private final ArrayDeque<SQLiteStatement> mIdle = new ArrayDeque<>();
+        private boolean mClosed;
+
+        Pool(String sql) {
+            mSql = sql;
+        }
+
+        /**
+         * Take an idle statement, or compile a new one if there is none.
+         */
+        SQLiteStatement acquire(SQLiteDatabase database) {
+            SQLiteStatement statement;
+            synchronized (this) {
+                statement = mIdle.poll();
+            }
+            if (statement == null) {
+                statement = database.compileStatement(mSql);
+            }
+            return statement;
+        }
+
+        /**
+         * Give back a statement taken with {@link #acquire}. It's closed if the pool is full.
+         */
+        void release(SQLiteStatement statement) {
+            statement.clearBindings();
+            synchronized (this) {
+                if (!mClosed && mIdle.size() < MAX_IDLE_STATEMENTS) {
+                    mIdle.push(statement);
+                    return;
+                }
+            }
+            statement.close();
+        }
+
+        synchronized void close() {
+            mClosed = true;
+            for (SQLiteStatement statement : mIdle) {
+                statement.close();
+            }
+            mIdle.clear();
+        }
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kosbaship.android.pets.data;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the writes of {@link PetProvider} on a single writer thread. Writes that arrive together
+ * are committed in one transaction, so concurrent callers share a commit instead of each
+ * waiting for the database lock and paying for their own. Every caller still waits for its
+ * write to commit and gets its own result.
+ *
+ * If any write of a batch fails, the batch is rolled back and its writes are run again one
+ * transaction each, so a failing write never takes the others down with it.
+ */
+final class PetWriteQueue {
+
+    /**
+     * A write to run on the writer thread, inside the transaction of its batch.
+     */
+    interface Write<T> {
+        T run(SQLiteDatabase database);
+    }
+
+    /**
+     * Interface for hearing about the transactions of the writer thread.
+     */
+    interface BatchListener {
+        /** Called on the writer thread before a transaction begins. */
+        void onBatchStart();
+
+        /**
+         * Called on the writer thread after a transaction ended, before the callers of its
+         * writes get their results.
+         *
+         * @param committed whether the transaction was committed, false if it rolled back
+         */
+        void onBatchEnd(boolean committed);
+    }
+
+    /**
+     * A write waiting for its result.
+     */
+    private static final class Task<T> {
+
+        private final Write<T> mWrite;
+        private final CountDownLatch mDone = new CountDownLatch(1);
+        private T mResult;
+        private RuntimeException mError;
+
+        Task(Write<T> write) {
+            mWrite = write;
+        }
+
+        void run(SQLiteDatabase database) {
+            mResult = null;
+            mError = null;
+            try {
+                mResult = mWrite.run(database);
+            } catch (RuntimeException e) {
+                mError = e;
+            }
+        }
+    }
+
+    private final PetDbHelper mDbHelper;
+    private final long mWindowNanos;
+    private final int mMaxBatchSize;
+    private final BatchListener mListener;
+    private final BlockingQueue<Task<?>> mQueue = new LinkedBlockingQueue<>();
+
+    /** The writer thread, started by the first write */
+    private Thread mThread;
+
+    private boolean mClosed;
+
+    /**
+     * @param windowMs     how long a batch waits for more writes after its first one, in
+     *                     milliseconds, 0 to only take the writes that are already waiting
+     * @param maxBatchSize maximum number of writes committed in one transaction
+     */
+    PetWriteQueue(PetDbHelper dbHelper, long windowMs, int maxBatchSize,
+                  BatchListener listener) {
+        if (windowMs < 0 || maxBatchSize < 1) {
+            throw new IllegalArgumentException("Invalid batch window " + windowMs
+                    + " or size " + maxBatchSize);
+        }
+        mDbHelper = dbHelper;
+        mWindowNanos = TimeUnit.MILLISECONDS.toNanos(windowMs);
+        mMaxBatchSize = maxBatchSize;
+        mListener = listener;
+    }
+
+    /**
+     * Run a write on the writer thread and wait until its transaction commits. It must not be
+     * called from the writer thread itself, or from a thread holding a transaction.
+     *
+     * @return the result of the write
+     * @throws RuntimeException the exception thrown by the write, or by the commit
+     */
+    <T> T submit(Write<T> write) {
+        Task<T> task = new Task<>(write);
+        synchronized (this) {
+            if (mClosed) {
+                // The writer is gone, run the write on its own
+                runBatch(Collections.<Task<?>>singletonList(task));
+                return result(task);
+            }
+            if (mThread == null) {
+                mThread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        runWriter();
+                    }
+                }, "PetWriteQueue");
+                mThread.setDaemon(true);
+                mThread.start();
+            }
+            mQueue.add(task);
+        }
+
+        boolean interrupted = false;
+        while (true) {
+            try {
+                task.mDone.await();
+                break;
+            } catch (InterruptedException e) {
+                // The write can't be taken back, keep waiting for it
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return result(task);
+    }
+
+    /**
+     * Stop the writer thread once the writes already waiting are done. Later writes run on the
+     * thread that submits them.
+     */
+    synchronized void close() {
+        mClosed = true;
+        if (mThread != null) {
+            mThread.interrupt();
+        }
+    }
+
+    private static <T> T result(Task<T> task) {
+        if (task.mError != null) {
+            throw task.mError;
+        }
+        return task.mResult;
+    }
+
+    /**
+     * The loop of the writer thread: take a batch of writes and commit it, until closed.
+     */
+    private void runWriter() {
+        List<Task<?>> batch = new ArrayList<>(mMaxBatchSize);
+        while (true) {
+            try {
+                batch.add(mQueue.take());
+                mQueue.drainTo(batch, mMaxBatchSize - batch.size());
+
+                // Give the writes that are on their way a chance to join this commit
+                long deadline = System.nanoTime() + mWindowNanos;
+                while (batch.size() < mMaxBatchSize) {
+                    long wait = deadline - System.nanoTime();
+                    Task<?> task = wait > 0 ? mQueue.poll(wait, TimeUnit.NANOSECONDS) : null;
+                    if (task == null) {
+                        break;
+                    }
+                    batch.add(task);
+                    mQueue.drainTo(batch, mMaxBatchSize - batch.size());
+                }
+            } catch (InterruptedException e) {
+                // Closed, finish what was already asked for
+                mQueue.drainTo(batch);
+                runBatches(batch);
+                return;
+            }
+            runBatches(batch);
+            batch.clear();
+        }
+    }
+
+    /**
+     * Commit the given writes in one transaction, or one by one if that fails, and release
+     * their callers.
+     */
+    private void runBatches(List<Task<?>> batch) {
+        try {
+            if (!runBatch(batch) && batch.size() > 1) {
+                for (Task<?> task : batch) {
+                    runBatch(Collections.<Task<?>>singletonList(task));
+                }
+            }
+        } finally {
+            for (Task<?> task : batch) {
+                task.mDone.countDown();
+            }
+        }
+    }
+
+    /**
+     * Run the given writes in one transaction. It's only committed if every write succeeds.
+     *
+     * @return false if a write failed and the transaction was rolled back
+     */
+    private boolean runBatch(List<Task<?>> batch) {
+        boolean committed = false;
+        mListener.onBatchStart();
+        try {
+            SQLiteDatabase database = mDbHelper.getWritableDatabase();
+            boolean succeeded = true;
+            database.beginTransaction();
+            try {
+                for (Task<?> task : batch) {
+                    task.run(database);
+                    if (task.mError != null) {
+                        succeeded = false;
+                        break;
+                    }
+                }
+                if (succeeded) {
+                    database.setTransactionSuccessful();
+                }
+            } finally {
+                database.endTransaction();
+            }
+            committed = succeeded;
+            return succeeded;
+        } catch (RuntimeException e) {
+            // The database couldn't be opened or the commit failed, every write failed with it
+            for (Task<?> task : batch) {
+                if (task.mError == null) {
+                    task.mError = e;
+                }
+            }
+            return true;
+        } finally {
+            mListener.onBatchEnd(committed);
+        }
+    }
+}
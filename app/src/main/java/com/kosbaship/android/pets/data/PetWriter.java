@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kosbaship.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.SQLException;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.kosbaship.android.pets.data.PetContract.PetEntry;
+
+import java.util.HashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Writes pets through {@link PetProvider} on a background thread, so a slow commit never holds
+ * up the main thread. The writes run one at a time in the order they were asked for, and their
+ * callbacks are called on the main thread.
+ *
+ * Saving a pet again while an earlier save of the same pet is still waiting to run merges the
+ * two saves into a single write with the latest values. Deleting a pet drops the saves of that
+ * pet that are still waiting.
+ */
+public final class PetWriter {
+
+    /**
+     * Interface for hearing back from a write.
+     */
+    public interface Callback {
+        /**
+         * Called on the main thread when the write is done.
+         *
+         * @param uri          the content URI of the new pet for an insert, or the URI written
+         *                     to otherwise; null if an insert failed
+         * @param rowsAffected number of pets inserted, updated or deleted, 0 if the write failed
+         */
+        void onWriteComplete(Uri uri, int rowsAffected);
+    }
+
+    /**
+     * A write that was asked for. It can be cancelled until it starts.
+     */
+    public final class Request {
+
+        private final int mOperation;
+        private final Uri mUri;
+        private ContentValues mValues;
+        private Callback mCallback;
+        private boolean mStarted;
+        private boolean mCancelled;
+
+        private Request(int operation, Uri uri, ContentValues values, Callback callback) {
+            mOperation = operation;
+            mUri = uri;
+            mValues = values;
+            mCallback = callback;
+        }
+
+        /**
+         * Cancel the write. If it hasn't started yet it won't be done at all, otherwise it
+         * finishes but its callback isn't called.
+         *
+         * @return true if the write won't be done
+         */
+        public boolean cancel() {
+            synchronized (mLock) {
+                mCancelled = true;
+                mCallback = null;
+                if (mOperation == UPDATE && mPendingUpdates.get(mUri) == this) {
+                    mPendingUpdates.remove(mUri);
+                }
+                return !mStarted;
+            }
+        }
+    }
+
+    // The operations of a request
+    private static final int INSERT = 0;
+    private static final int UPDATE = 1;
+    private static final int DELETE = 2;
+
+    private static PetWriter sInstance;
+
+    private final ContentResolver mResolver;
+    private final Executor mExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final Object mLock = new Object();
+
+    /** Updates that haven't started yet by URI, later saves of the same pet are merged into them */
+    private final HashMap<Uri, Request> mPendingUpdates = new HashMap<>();
+
+    private PetWriter(Context context) {
+        mResolver = context.getContentResolver();
+    }
+
+    /**
+     * Returns the writer of the app. Writes outlive the activity that asked for them.
+     */
+    public static synchronized PetWriter getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new PetWriter(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Insert a new pet.
+     *
+     * @param callback called with the content URI of the new pet, may be null
+     */
+    public Request insert(ContentValues values, Callback callback) {
+        Request request = new Request(INSERT, PetEntry.CONTENT_URI, new ContentValues(values),
+                callback);
+        submit(request);
+        return request;
+    }
+
+    /**
+     * Save the given values into an existing pet. If a save of the same pet is still waiting
+     * to run, the values are merged into it, and it's returned with this callback instead of
+     * its own.
+     *
+     * @param uri      the content URI of the pet
+     * @param callback called with the number of pets updated, may be null
+     */
+    public Request update(Uri uri, ContentValues values, Callback callback) {
+        synchronized (mLock) {
+            Request pending = mPendingUpdates.get(uri);
+            if (pending != null) {
+                // The newer values win, the older save has nothing left to report
+                pending.mValues.putAll(values);
+                pending.mCallback = callback;
+                return pending;
+            }
+            Request request = new Request(UPDATE, uri, new ContentValues(values), callback);
+            mPendingUpdates.put(uri, request);
+            submit(request);
+            return request;
+        }
+    }
+
+    /**
+     * Delete pets. A save of the same URI that is still waiting to run is cancelled.
+     *
+     * @param uri      the content URI of a pet, or {@link PetEntry#CONTENT_URI} for all pets
+     * @param callback called with the number of pets deleted, may be null
+     */
+    public Request delete(Uri uri, Callback callback) {
+        synchronized (mLock) {
+            Request pending = mPendingUpdates.get(uri);
+            if (pending != null) {
+                pending.cancel();
+            }
+        }
+        Request request = new Request(DELETE, uri, null, callback);
+        submit(request);
+        return request;
+    }
+
+    private void submit(final Request request) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                write(request);
+            }
+        });
+    }
+
+    /**
+     * Do the write of a request, on the background thread.
+     */
+    private void write(final Request request) {
+        ContentValues values;
+        synchronized (mLock) {
+            if (request.mCancelled) {
+                return;
+            }
+            request.mStarted = true;
+            if (request.mOperation == UPDATE) {
+                // Later saves of this pet can't be merged into this one anymore
+                mPendingUpdates.remove(request.mUri);
+            }
+            values = request.mValues;
+        }
+
+        Uri uri = request.mUri;
+        int rowsAffected = 0;
+        try {
+            switch (request.mOperation) {
+                case INSERT:
+                    uri = mResolver.insert(request.mUri, values);
+                    rowsAffected = uri != null ? 1 : 0;
+                    break;
+                case UPDATE:
+                    rowsAffected = mResolver.update(request.mUri, values, null, null);
+                    break;
+                default:
+                    rowsAffected = mResolver.delete(request.mUri, null, null);
+                    break;
+            }
+        } catch (IllegalArgumentException | SQLException e) {
+            // The pet wasn't valid or the database refused it, report it as a failed write
+            Log.e(PetProvider.LOG_TAG, "Failed to write " + request.mUri, e);
+            if (request.mOperation == INSERT) {
+                uri = null;
+            }
+        }
+
+        final Uri resultUri = uri;
+        final int resultRows = rowsAffected;
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Callback callback;
+                synchronized (mLock) {
+                    callback = request.mCallback;
+                }
+                if (callback != null) {
+                    callback.onWriteComplete(resultUri, resultRows);
+                }
+            }
+        });
+    }
+}
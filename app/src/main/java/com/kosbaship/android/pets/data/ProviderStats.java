@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kosbaship.android.pets.data;
+
+import android.database.CrossProcessCursorWrapper;
+import android.database.Cursor;
+import android.database.CursorWindow;
+import android.database.MatrixCursor;
+
+import com.kosbaship.android.pets.data.PetContract.StatsEntry;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters of the calls to {@link PetProvider}, by route and by operation. Recording a call
+ * only updates atomic counters, it never takes a lock, so it can stay on in production builds.
+ */
+final class ProviderStats {
+
+    /** Operation: {@link PetProvider#query} */
+    static final int OPERATION_QUERY = 0;
+    /** Operation: {@link PetProvider#insert} */
+    static final int OPERATION_INSERT = 1;
+    /** Operation: {@link PetProvider#bulkInsert} */
+    static final int OPERATION_BULK_INSERT = 2;
+    /** Operation: {@link PetProvider#update} */
+    static final int OPERATION_UPDATE = 3;
+    /** Operation: {@link PetProvider#delete} */
+    static final int OPERATION_DELETE = 4;
+    /** Operation: {@link PetProvider#call} */
+    static final int OPERATION_CALL = 5;
+
+    /** Names of the operations, as they appear in {@link StatsEntry#COLUMN_OPERATION} */
+    private static final String[] OPERATION_NAMES = {
+            "query", "insert", "bulk_insert", "update", "delete", "call" };
+
+    // Slots of the counters of one route and operation, followed by the histogram buckets
+    private static final int CALLS = 0;
+    private static final int ROWS_AFFECTED = 1;
+    private static final int ROWS_RETURNED = 2;
+    private static final int TOTAL_NANOS = 3;
+    private static final int MAX_NANOS = 4;
+    private static final int FIRST_BUCKET = 5;
+    private static final int SLOTS = FIRST_BUCKET + StatsEntry.HISTOGRAM_BUCKETS;
+
+    /** Names of the routes, as they appear in {@link StatsEntry#COLUMN_ROUTE} */
+    private final String[] mRoutes;
+
+    /** Counters of each route and operation, by route * number of operations + operation */
+    private final AtomicLongArray[] mCounters;
+
+    /**
+     * @param routes names of the routes, the index of a route is used to record its calls
+     */
+    ProviderStats(String[] routes) {
+        mRoutes = routes.clone();
+        mCounters = new AtomicLongArray[routes.length * OPERATION_NAMES.length];
+        for (int i = 0; i < mCounters.length; i++) {
+            mCounters[i] = new AtomicLongArray(SLOTS);
+        }
+    }
+
+    /**
+     * Record a call that completed.
+     *
+     * @param route        index of the route of the call
+     * @param operation    the operation, for example {@link #OPERATION_QUERY}
+     * @param startNanos   {@link System#nanoTime()} when the call started
+     * @param rowsAffected number of rows inserted, updated or deleted
+     * @param rowsReturned number of rows returned by a query
+     */
+    void record(int route, int operation, long startNanos, int rowsAffected, int rowsReturned) {
+        long nanos = System.nanoTime() - startNanos;
+        AtomicLongArray counters = mCounters[route * OPERATION_NAMES.length + operation];
+        counters.incrementAndGet(CALLS);
+        if (rowsAffected != 0) {
+            counters.addAndGet(ROWS_AFFECTED, rowsAffected);
+        }
+        if (rowsReturned != 0) {
+            counters.addAndGet(ROWS_RETURNED, rowsReturned);
+        }
+        counters.addAndGet(TOTAL_NANOS, nanos);
+        long max;
+        do {
+            max = counters.get(MAX_NANOS);
+        } while (nanos > max && !counters.compareAndSet(MAX_NANOS, max, nanos));
+        counters.incrementAndGet(FIRST_BUCKET + bucketOf(nanos / 1000));
+    }
+
+    /**
+     * Record a query that completed, and return the cursor to hand to the caller in place of
+     * the given one. The latency is the time until the cursor was ready. The rows are counted
+     * as the caller reads them, and added when it closes the cursor: counting them here would
+     * run the whole query before the caller reads its first window.
+     *
+     * @param route      index of the route of the call
+     * @param startNanos {@link System#nanoTime()} when the call started
+     */
+    Cursor recordQuery(int route, long startNanos, Cursor cursor) {
+        record(route, OPERATION_QUERY, startNanos, 0, 0);
+        return new CountingCursor(cursor,
+                mCounters[route * OPERATION_NAMES.length + OPERATION_QUERY]);
+    }
+
+    /**
+     * Returns the histogram bucket of the given latency: bucket 0 holds the calls that took
+     * less than 1 microsecond, bucket i the ones that took from 2^(i-1) up to 2^i microseconds,
+     * and the last bucket everything slower.
+     */
+    private static int bucketOf(long micros) {
+        int bucket = 64 - Long.numberOfLeadingZeros(micros);
+        return Math.min(bucket, StatsEntry.HISTOGRAM_BUCKETS - 1);
+    }
+
+    /**
+     * Add a row for each route and operation that was called to the given cursor, which has
+     * the columns of {@link StatsEntry#COLUMNS}.
+     */
+    void addRows(MatrixCursor cursor) {
+        for (int route = 0; route < mRoutes.length; route++) {
+            for (int operation = 0; operation < OPERATION_NAMES.length; operation++) {
+                AtomicLongArray counters =
+                        mCounters[route * OPERATION_NAMES.length + operation];
+                long calls = counters.get(CALLS);
+                if (calls == 0) {
+                    continue;
+                }
+                StringBuilder histogram = new StringBuilder();
+                for (int i = 0; i < StatsEntry.HISTOGRAM_BUCKETS; i++) {
+                    if (i > 0) {
+                        histogram.append(',');
+                    }
+                    histogram.append(counters.get(FIRST_BUCKET + i));
+                }
+                cursor.newRow()
+                        .add(mRoutes[route])
+                        .add(OPERATION_NAMES[operation])
+                        .add(calls)
+                        .add(counters.get(ROWS_AFFECTED))
+                        .add(counters.get(ROWS_RETURNED))
+                        .add(counters.get(TOTAL_NANOS) / 1000)
+                        .add(counters.get(MAX_NANOS) / 1000)
+                        .add(histogram.toString());
+            }
+        }
+    }
+
+    /**
+     * Set all the counters back to 0. Calls that complete meanwhile may be partly counted.
+     */
+    void reset() {
+        for (AtomicLongArray counters : mCounters) {
+            for (int i = 0; i < SLOTS; i++) {
+                counters.set(i, 0);
+            }
+        }
+    }
+
+    /**
+     * A cursor that counts the rows its caller got to, as one past the furthest position it
+     * moved to or filled a window up to, and adds them to the rows returned when it's closed.
+     * It passes the windows through, so a cursor sent to another process is still copied by
+     * the database rather than row by row.
+     */
+    private static final class CountingCursor extends CrossProcessCursorWrapper {
+
+        private final AtomicLongArray mCounters;
+        private int mRowsRead;
+        private boolean mCounted;
+
+        CountingCursor(Cursor cursor, AtomicLongArray counters) {
+            super(cursor);
+            mCounters = counters;
+        }
+
+        @Override
+        public boolean moveToPosition(int position) {
+            return count(super.moveToPosition(position));
+        }
+
+        @Override
+        public boolean move(int offset) {
+            return count(super.move(offset));
+        }
+
+        @Override
+        public boolean moveToFirst() {
+            return count(super.moveToFirst());
+        }
+
+        @Override
+        public boolean moveToLast() {
+            return count(super.moveToLast());
+        }
+
+        @Override
+        public boolean moveToNext() {
+            return count(super.moveToNext());
+        }
+
+        @Override
+        public void fillWindow(int position, CursorWindow window) {
+            super.fillWindow(position, window);
+            mRowsRead = Math.max(mRowsRead, window.getStartPosition() + window.getNumRows());
+        }
+
+        @Override
+        public void close() {
+            if (!mCounted) {
+                mCounted = true;
+                if (mRowsRead != 0) {
+                    mCounters.addAndGet(ROWS_RETURNED, mRowsRead);
+                }
+            }
+            super.close();
+        }
+
+        private boolean count(boolean moved) {
+            if (moved) {
+                mRowsRead = Math.max(mRowsRead, getPosition() + 1);
+            }
+            return moved;
+        }
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kosbaship.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+
+import com.kosbaship.android.pets.data.PetContract.PetEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Upgrades a database of the first version, and checks that {@link PetProvider} opens it and
+ * answers queries quickly while the background migrations of the upgrade run, and that the
+ * pets, their summary, the search table, the indexes and the statistics are complete once
+ * they are done.
+ *
+ * The database has 20,000 pets unless the upgrade.pets system property says otherwise, run
+ * it with a million with {@code ./gradlew :app:testDebugUnitTest -PupgradePets=1000000}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PetDbUpgradeTest {
+
+    private static final int PETS = Integer.getInteger("upgrade.pets", 20000);
+
+    /** Number of breeds of the pets, besides the pets without a breed */
+    private static final int BREEDS = 50;
+
+    /** Longest the background migrations may take */
+    private static final long MIGRATION_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(1) + PETS;
+
+    /**
+     * Longest a read may take while the migrations run. Robolectric runs one SQLite call at a
+     * time, so a read can wait for a whole chunk, and the longest chunks, which build an index
+     * or drop the old pets table, take time in proportion to the number of pets.
+     */
+    private static final long MAX_READ_MS = 500 + PETS / 500;
+
+    /**
+     * Longest the first query may take, which opens the database: the schema steps of the
+     * upgrade, which don't depend on the number of pets, and maybe a chunk of a migration.
+     */
+    private static final long MAX_OPEN_MS = 2000 + MAX_READ_MS;
+
+    /** The pets table of the first version of the database */
+    private static final String SQL_CREATE_VERSION_1_PETS_TABLE = "CREATE TABLE "
+            + PetEntry.TABLE_NAME + " ("
+            + PetEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+            + PetEntry.COLUMN_PET_NAME + " TEXT NOT NULL, "
+            + PetEntry.COLUMN_PET_BREED + " TEXT, "
+            + PetEntry.COLUMN_PET_GENDER + " INTEGER NOT NULL, "
+            + PetEntry.COLUMN_PET_WEIGHT + " INTEGER NOT NULL DEFAULT 0);";
+
+    /** Inserts the pets from the first to the second argument, every 51st without a breed */
+    private static final String SQL_INSERT_VERSION_1_PETS = "INSERT INTO "
+            + PetEntry.TABLE_NAME + " (" + PetEntry._ID + ", " + PetEntry.COLUMN_PET_NAME + ", "
+            + PetEntry.COLUMN_PET_BREED + ", " + PetEntry.COLUMN_PET_GENDER + ", "
+            + PetEntry.COLUMN_PET_WEIGHT + ") WITH RECURSIVE seq(x) AS (SELECT ? UNION ALL "
+            + "SELECT x + 1 FROM seq WHERE x < ?) SELECT x, 'Pet ' || ((x * 7919) % 1000003), "
+            + "CASE x % " + (BREEDS + 1) + " WHEN 0 THEN NULL ELSE 'Breed ' || (x % "
+            + (BREEDS + 1) + ") END, x % 3, (x * 31) % 100 FROM seq";
+
+    private PetDbHelper mDbHelper;
+    private PetProvider mProvider;
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        File file = RuntimeEnvironment.application.getDatabasePath("shelter.db");
+        file.getParentFile().mkdirs();
+        SQLiteDatabase database = SQLiteDatabase.openOrCreateDatabase(file, null);
+        try {
+            database.execSQL(SQL_CREATE_VERSION_1_PETS_TABLE);
+            for (int first = 1; first <= PETS; first += 10000) {
+                database.beginTransaction();
+                try {
+                    database.execSQL(SQL_INSERT_VERSION_1_PETS,
+                            new Object[] { first, Math.min(first + 9999, PETS) });
+                    database.setTransactionSuccessful();
+                } finally {
+                    database.endTransaction();
+                }
+            }
+            database.setVersion(1);
+        } finally {
+            database.close();
+        }
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+    }
+
+    @After
+    public void tearDown() {
+        if (mProvider != null) {
+            mProvider.shutdown();
+        }
+        if (mDbHelper != null) {
+            mDbHelper.close();
+        }
+    }
+
+    @Test
+    public void upgradesThePetsInTheBackground() {
+        long start = System.nanoTime();
+        mProvider = Robolectric.setupContentProvider(PetProvider.class,
+                PetContract.CONTENT_AUTHORITY);
+        // The first query waits for the schema steps of the upgrade, which run when the
+        // database is opened, but not for its migrations
+        assertPage();
+        long openMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("Opening the database took " + openMs + " ms", openMs <= MAX_OPEN_MS);
+
+        // The provider has opened the database, this connection won't upgrade it again
+        mDbHelper = new PetDbHelper(RuntimeEnvironment.application);
+        SQLiteDatabase database = mDbHelper.getReadableDatabase();
+        long deadline = System.currentTimeMillis() + MIGRATION_TIMEOUT_MS;
+        int reads = 0;
+        long slowestRead = 0;
+        while (DatabaseUtils.queryNumEntries(database, PetDbHelper.MIGRATIONS_TABLE_NAME) > 0) {
+            assertTrue("The migrations didn't end in time", System.currentTimeMillis() < deadline);
+            long readStart = System.nanoTime();
+            assertPage();
+            assertPet(1 + reads * 7919L % PETS);
+            slowestRead = Math.max(slowestRead, System.nanoTime() - readStart);
+            reads++;
+        }
+        assertTrue("No read ran during the migrations", reads > 0);
+        long slowestReadMs = TimeUnit.NANOSECONDS.toMillis(slowestRead);
+        assertTrue("The slowest read took " + slowestReadMs + " ms",
+                slowestReadMs <= MAX_READ_MS);
+
+        assertEquals(PETS, DatabaseUtils.queryNumEntries(database, PetEntry.TABLE_NAME));
+        assertEquals(PETS, DatabaseUtils.queryNumEntries(database,
+                PetDbHelper.SEARCH_TABLE_NAME));
+        assertEquals(PETS, count(PetEntry.CONTENT_COUNT_URI));
+        assertEquals(DatabaseUtils.longForQuery(database, "SELECT COUNT(*) FROM "
+                        + PetEntry.TABLE_NAME + " WHERE " + PetDbHelper.COLUMN_BREED_ID
+                        + "=(SELECT " + PetDbHelper.COLUMN_BREED_ID + " FROM "
+                        + PetDbHelper.BREEDS_TABLE_NAME + " WHERE " + PetEntry.COLUMN_PET_BREED
+                        + "='Breed 7')", null),
+                count(PetEntry.buildCountUri(PetEntry.buildCatalogUri(null, null, null, null,
+                        "Breed 7"))));
+        assertEquals("The indexes weren't built", 6, DatabaseUtils.longForQuery(database,
+                "SELECT COUNT(*) FROM sqlite_master WHERE type='index' AND tbl_name=? AND "
+                        + "sql IS NOT NULL", new String[] { PetEntry.TABLE_NAME }));
+        assertTrue("The pets weren't analyzed", DatabaseUtils.longForQuery(database,
+                "SELECT COUNT(*) FROM sqlite_stat1 WHERE tbl=?",
+                new String[] { PetEntry.TABLE_NAME }) > 0);
+    }
+
+    /**
+     * Check that the first page of the catalog is full.
+     */
+    private void assertPage() {
+        Cursor cursor = mResolver.query(PetEntry.buildPageUri(null, 0, 50), null, null, null,
+                null);
+        try {
+            assertEquals(50, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Check that the pet with the given ID can be read.
+     */
+    private void assertPet(long id) {
+        Cursor cursor = mResolver.query(ContentUris.withAppendedId(PetEntry.CONTENT_URI, id),
+                null, null, null, null);
+        try {
+            assertTrue("Pet " + id + " wasn't found", cursor.moveToFirst());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private long count(Uri uri) {
+        Cursor cursor = mResolver.query(uri, null, null, null, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
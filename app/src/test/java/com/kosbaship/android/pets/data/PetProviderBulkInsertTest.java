@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kosbaship.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.Bundle;
+
+import com.kosbaship.android.pets.data.PetContract.PetEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Tests of {@link PetProvider#bulkInsert}, which inserts the valid rows and leaves out the
+ * others.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PetProviderBulkInsertTest {
+
+    private PetProvider mProvider;
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.setupContentProvider(PetProvider.class,
+                PetContract.CONTENT_AUTHORITY);
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.shutdown();
+    }
+
+    @Test
+    public void insertsAllTheRowsAndNotifiesOnce() {
+        int notifications = shadowOf(mResolver).getNotifiedUris().size();
+
+        int inserted = mResolver.bulkInsert(PetEntry.CONTENT_URI, new ContentValues[] {
+                pet("Tommy", "Pomeranian"), pet("Garfield", null), pet("Binx", "Bombay") });
+
+        assertEquals(3, inserted);
+        assertEquals(3, countPets());
+        assertEquals(notifications + 1, shadowOf(mResolver).getNotifiedUris().size());
+    }
+
+    @Test
+    public void insertsTheValidRowsAroundAnInvalidOne() {
+        ContentValues nameless = pet("Garfield", null);
+        nameless.remove(PetEntry.COLUMN_PET_NAME);
+
+        int inserted = mResolver.bulkInsert(PetEntry.CONTENT_URI, new ContentValues[] {
+                pet("Tommy", "Pomeranian"), nameless, pet("Binx", "Bombay") });
+
+        assertEquals(2, inserted);
+        assertEquals(2, countPets());
+    }
+
+    @Test
+    public void reportsTheRowsThatFailed() {
+        ContentValues unknown = pet("Garfield", null);
+        unknown.put("owner", "Jon");
+        ContentValues negativeWeight = pet("Binx", "Bombay");
+        negativeWeight.put(PetEntry.COLUMN_PET_WEIGHT, -1);
+        Bundle extras = new Bundle();
+        extras.putParcelableArray(PetEntry.EXTRA_VALUES, new ContentValues[] {
+                unknown, pet("Tommy", "Pomeranian"), negativeWeight });
+
+        Bundle result = mResolver.call(PetEntry.CONTENT_URI, PetEntry.METHOD_BULK_INSERT, null,
+                extras);
+
+        assertArrayEquals(new int[] { 0, 2 }, result.getIntArray(PetEntry.EXTRA_FAILED_ROWS));
+        long[] ids = result.getLongArray(PetEntry.EXTRA_IDS);
+        assertEquals(3, ids.length);
+        assertEquals(-1, ids[0]);
+        assertTrue(ids[1] > 0);
+        assertEquals(-1, ids[2]);
+        assertEquals(1, countPets());
+    }
+
+    private static ContentValues pet(String name, String breed) {
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PET_NAME, name);
+        values.put(PetEntry.COLUMN_PET_BREED, breed);
+        values.put(PetEntry.COLUMN_PET_GENDER, PetEntry.GENDER_MALE);
+        values.put(PetEntry.COLUMN_PET_WEIGHT, 7);
+        return values;
+    }
+
+    private int countPets() {
+        Cursor cursor = mResolver.query(PetEntry.CONTENT_URI, null, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kosbaship.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+
+import com.kosbaship.android.pets.PetPage;
+import com.kosbaship.android.pets.data.PetContract.PetEntry;
+import com.kosbaship.android.pets.data.PetContract.SummaryEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks with EXPLAIN QUERY PLAN that every query the catalog makes of {@link PetProvider}
+ * comes out of the indexes: no step scans a table without an index, and none sorts the rows
+ * it found. The statements are the ones the provider runs, from
+ * {@link PetProvider#buildQuery}, for every sort, filter and page the catalog can ask for,
+ * and for its counts, searches and summaries.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PetQueryPlanTest {
+
+    /** Pets on a page of the catalog */
+    private static final int PAGE_SIZE = 50;
+
+    /** Results of a search of the catalog */
+    private static final int SEARCH_LIMIT = 100;
+
+    private static final String[] SORTS = {
+            PetEntry.SORT_NAME, PetEntry.SORT_BREED, PetEntry.SORT_WEIGHT };
+
+    private static final Integer[] GENDERS = {
+            null, PetEntry.GENDER_MALE, PetEntry.GENDER_FEMALE, PetEntry.GENDER_UNKNOWN };
+
+    /** The weight ranges of the catalog: any, light, medium and heavy */
+    private static final Integer[][] WEIGHTS = {
+            { null, null }, { null, 9 }, { 10, 30 }, { 31, null } };
+
+    /** Any breed, no breed, and a breed */
+    private static final String[] BREEDS = { null, "", "Bombay" };
+
+    private PetProvider mProvider;
+    private ContentResolver mResolver;
+    private PetDbHelper mDbHelper;
+    private SQLiteDatabase mDatabase;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.setupContentProvider(PetProvider.class,
+                PetContract.CONTENT_AUTHORITY);
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+        mDbHelper = new PetDbHelper(RuntimeEnvironment.application);
+        mDatabase = mDbHelper.getReadableDatabase();
+    }
+
+    @After
+    public void tearDown() {
+        mDbHelper.close();
+        mProvider.shutdown();
+    }
+
+    @Test
+    public void catalogPagesUseTheIndexes() {
+        for (Uri catalogUri : catalogUris(SORTS)) {
+            String sort = catalogUri.getQueryParameter(PetEntry.QUERY_PARAMETER_SORT);
+            assertUsesIndexes(PetEntry.buildPageUri(catalogUri, PAGE_SIZE), PetPage.PROJECTION);
+            assertUsesIndexes(PetEntry.buildPageUri(catalogUri, "Garfield", "Bombay", 10, 7,
+                    PAGE_SIZE), PetPage.PROJECTION);
+            if (PetEntry.SORT_BREED.equals(sort)) {
+                // The next page after the pets without a breed
+                assertUsesIndexes(PetEntry.buildPageUri(catalogUri, "Garfield", null, 10, 7,
+                        PAGE_SIZE), PetPage.PROJECTION);
+            }
+        }
+    }
+
+    @Test
+    public void catalogCountsUseTheIndexes() {
+        for (Uri catalogUri : catalogUris(SORTS)) {
+            assertUsesIndexes(PetEntry.buildCountUri(catalogUri),
+                    new String[] { PetEntry._COUNT });
+        }
+    }
+
+    @Test
+    public void catalogPatchesUseTheIndexes() {
+        // See CatalogActivity.patchPets, which reads the changed pets without sorting them
+        for (Uri uri : catalogUris(new String[] { null })) {
+            assertUsesIndexes(uri, PetPage.PROJECTION, PetEntry._ID + " IN (?,?)", "3", "7");
+        }
+    }
+
+    @Test
+    public void searchesUseTheFullTextIndex() {
+        assertUsesIndexes(PetEntry.buildSearchUri("gar", SEARCH_LIMIT), PetPage.PROJECTION);
+        assertUsesIndexes(PetEntry.buildSearchUri("golden ret", SEARCH_LIMIT),
+                PetPage.PROJECTION);
+    }
+
+    @Test
+    public void summariesUseTheIndexes() {
+        assertUsesIndexes(SummaryEntry.CONTENT_URI, null);
+        assertUsesIndexes(SummaryEntry.CONTENT_BREEDS_URI,
+                new String[] { SummaryEntry.COLUMN_BREED });
+        assertUsesIndexes(SummaryEntry.buildBreedUri("Bombay"), null);
+        assertUsesIndexes(PetEntry.CONTENT_COUNT_URI, new String[] { PetEntry._COUNT });
+    }
+
+    @Test
+    public void noBreedFilterFindsThePetsWithAnEmptyBreed() {
+        insertPet("Garfield", null);
+        insertPet("Tommy", "");
+        insertPet("Binx", "Bombay");
+
+        Uri catalogUri = PetEntry.buildCatalogUri(PetEntry.SORT_NAME, null, null, null, "");
+        assertEquals(Arrays.asList("Garfield", "Tommy"),
+                queryNames(PetEntry.buildPageUri(catalogUri, PAGE_SIZE)));
+    }
+
+    @Test
+    public void searchPutsTheNamesStartingWithTheFirstWordFirst() {
+        insertPet("Binx", "Garden cat");
+        insertPet("Garfield", "Tabby");
+        insertPet("Ginger", "Garden cat");
+
+        assertEquals(Arrays.asList("Garfield", "Binx", "Ginger"),
+                queryNames(PetEntry.buildSearchUri("gar", SEARCH_LIMIT)));
+        assertEquals(Arrays.asList("Garfield"),
+                queryNames(PetEntry.buildSearchUri("gar", 1)));
+    }
+
+    /**
+     * Returns the catalog URIs of the given sorts with every combination of filters the catalog
+     * offers.
+     */
+    private static List<Uri> catalogUris(String[] sorts) {
+        List<Uri> uris = new ArrayList<>();
+        for (String sort : sorts) {
+            for (Integer gender : GENDERS) {
+                for (Integer[] weight : WEIGHTS) {
+                    for (String breed : BREEDS) {
+                        uris.add(PetEntry.buildCatalogUri(sort, gender, weight[0], weight[1],
+                                breed));
+                    }
+                }
+            }
+        }
+        return uris;
+    }
+
+    /**
+     * Fail unless the statement the provider runs for the given query neither scans a table
+     * without an index nor sorts its rows, and the query runs.
+     */
+    private void assertUsesIndexes(Uri uri, String[] projection, String selection,
+                                   String... selectionArgs) {
+        PetProvider.SqlQuery query = mProvider.buildQuery(uri, projection, selection,
+                selectionArgs.length > 0 ? selectionArgs : null, null);
+        assertNotNull(uri.toString(), query);
+        List<String> plan = explain(query);
+        for (String step : plan) {
+            // A virtual table index other than 0 is a full-text lookup
+            boolean scan = step.startsWith("SCAN") && !step.contains(" USING ")
+                    && !step.matches(".* VIRTUAL TABLE INDEX [1-9].*");
+            if (scan || step.startsWith("USE TEMP B-TREE")) {
+                fail("\"" + step + "\" in the plan of " + uri + ", " + query.mSql + ": "
+                        + plan);
+            }
+        }
+
+        Cursor cursor = mResolver.query(uri, projection, selection,
+                selectionArgs.length > 0 ? selectionArgs : null, null);
+        assertNotNull(uri.toString(), cursor);
+        cursor.close();
+    }
+
+    private void assertUsesIndexes(Uri uri, String[] projection) {
+        assertUsesIndexes(uri, projection, null);
+    }
+
+    /**
+     * Returns the details of the steps of the plan of the given query.
+     */
+    private List<String> explain(PetProvider.SqlQuery query) {
+        List<String> plan = new ArrayList<>();
+        Cursor cursor = mDatabase.rawQuery("EXPLAIN QUERY PLAN " + query.mSql, query.mArgs);
+        try {
+            int detail = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                plan.add(cursor.getString(detail));
+            }
+        } finally {
+            cursor.close();
+        }
+        return plan;
+    }
+
+    private void insertPet(String name, String breed) {
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PET_NAME, name);
+        values.put(PetEntry.COLUMN_PET_BREED, breed);
+        values.put(PetEntry.COLUMN_PET_GENDER, PetEntry.GENDER_MALE);
+        values.put(PetEntry.COLUMN_PET_WEIGHT, 4);
+        mResolver.insert(PetEntry.CONTENT_URI, values);
+    }
+
+    private List<String> queryNames(Uri uri) {
+        List<String> names = new ArrayList<>();
+        Cursor cursor = mResolver.query(uri, PetPage.PROJECTION, null, null, null);
+        try {
+            int name = cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_NAME);
+            while (cursor.moveToNext()) {
+                names.add(cursor.getString(name));
+            }
+        } finally {
+            cursor.close();
+        }
+        return names;
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kosbaship.android.pets.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.os.Bundle;
+
+import com.kosbaship.android.pets.data.PetContract.PetEntry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.ParameterizedRobolectricTestRunner;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Reading and updating the weights of a set of pets with one {@link PetProvider#call}, against
+ * one query or update of each pet by its content URI. Each run is the whole set of pets.
+ */
+@RunWith(ParameterizedRobolectricTestRunner.class)
+public class BatchCallBenchmark extends ProviderBenchmark {
+
+    /** Numbers of pets of each call */
+    private static final int[] BATCH_SIZES = { 10, 100, 1000 };
+
+    /** Fewest runs of each batch size, for the biggest batches */
+    private static final int MIN_RUNS = 10;
+
+    @ParameterizedRobolectricTestRunner.Parameters(name = "{0} pets")
+    public static List<Object[]> sizes() {
+        return BenchmarkResults.getSizes();
+    }
+
+    public BatchCallBenchmark(int rows) {
+        super(rows);
+    }
+
+    @Test
+    public void benchmark() {
+        for (int batchSize : BATCH_SIZES) {
+            int ids = Math.min(batchSize, mRows);
+            int runs = Math.max(MIN_RUNS, mIterations / ids);
+            Latencies calls = new Latencies();
+            Latencies queries = new Latencies();
+            Latencies weightCalls = new Latencies();
+            Latencies updates = new Latencies();
+            // The first run is the warm up
+            for (int i = 0; i <= runs; i++) {
+                boolean measured = i > 0;
+                long[] batch = randomIds(ids);
+                long start = System.nanoTime();
+                getPetsByIds(batch);
+                add(measured, calls, start);
+
+                batch = randomIds(ids);
+                start = System.nanoTime();
+                for (long id : batch) {
+                    readAll(mResolver.query(ContentUris.withAppendedId(PetEntry.CONTENT_URI, id),
+                            null, null, null, null), null);
+                }
+                add(measured, queries, start);
+
+                batch = randomIds(ids);
+                int[] weights = randomWeights(ids);
+                start = System.nanoTime();
+                updateWeights(batch, weights);
+                add(measured, weightCalls, start);
+
+                batch = randomIds(ids);
+                weights = randomWeights(ids);
+                start = System.nanoTime();
+                for (int j = 0; j < ids; j++) {
+                    ContentValues values = new ContentValues();
+                    values.put(PetEntry.COLUMN_PET_WEIGHT, weights[j]);
+                    mResolver.update(ContentUris.withAppendedId(PetEntry.CONTENT_URI,
+                            batch[j]), values, null, null);
+                }
+                add(measured, updates, start);
+            }
+            String variant = ids + " ids";
+            report("call_" + PetEntry.METHOD_GET_PETS_BY_IDS, variant, calls);
+            report("pet_id_query_loop", variant, queries);
+            report("call_" + PetEntry.METHOD_UPDATE_WEIGHTS, variant, weightCalls);
+            report("pet_id_update_loop", variant, updates);
+        }
+    }
+
+    private void getPetsByIds(long[] ids) {
+        Bundle extras = new Bundle();
+        extras.putLongArray(PetEntry.EXTRA_IDS, ids);
+        Bundle result = mResolver.call(PetEntry.CONTENT_URI, PetEntry.METHOD_GET_PETS_BY_IDS,
+                null, extras);
+        // Read the columns like a caller would
+        long[] resultIds = result.getLongArray(PetEntry.EXTRA_IDS);
+        result.getStringArray(PetEntry.EXTRA_NAMES);
+        result.getStringArray(PetEntry.EXTRA_BREEDS);
+        result.getIntArray(PetEntry.EXTRA_GENDERS);
+        result.getIntArray(PetEntry.EXTRA_WEIGHTS);
+        assertEquals(distinct(ids), resultIds.length);
+    }
+
+    private void updateWeights(long[] ids, int[] weights) {
+        Bundle extras = new Bundle();
+        extras.putLongArray(PetEntry.EXTRA_IDS, ids);
+        extras.putIntArray(PetEntry.EXTRA_WEIGHTS, weights);
+        mResolver.call(PetEntry.CONTENT_URI, PetEntry.METHOD_UPDATE_WEIGHTS, null, extras);
+    }
+
+    private long[] randomIds(int count) {
+        long[] ids = new long[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = randomId();
+        }
+        return ids;
+    }
+
+    private int[] randomWeights(int count) {
+        int[] weights = new int[count];
+        for (int i = 0; i < count; i++) {
+            weights[i] = mRandom.nextInt(BenchmarkData.MAX_WEIGHT + 1);
+        }
+        return weights;
+    }
+
+    private static int distinct(long[] ids) {
+        long[] sorted = ids.clone();
+        Arrays.sort(sorted);
+        int count = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1]) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static void add(boolean measured, Latencies latencies, long startNanos) {
+        if (measured) {
+            latencies.addSince(startNanos);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kosbaship.android.pets.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.kosbaship.android.pets.data.PetContract.PetEntry;
+
+import java.util.Random;
+
+/**
+ * The pets the benchmarks run against. The same number of pets always gives the same database:
+ * pets 1 to N, with scattered names, the genders and weights in turn, and the breeds 1 to
+ * {@link #BREEDS} or none.
+ */
+final class BenchmarkData {
+
+    /** Number of breeds of the pets, besides the pets without a breed */
+    static final int BREEDS = 50;
+
+    /** Heaviest weight of the pets */
+    static final int MAX_WEIGHT = 99;
+
+    /** Number of pets written in each transaction while seeding the database */
+    private static final int SEED_CHUNK_ROWS = 10000;
+
+    private static final String SQL_INSERT_BREEDS = "INSERT INTO "
+            + PetDbHelper.BREEDS_TABLE_NAME + " (" + PetDbHelper.COLUMN_BREED_ID + ", "
+            + PetEntry.COLUMN_PET_BREED + ") WITH RECURSIVE seq(x) AS (SELECT 1 UNION ALL "
+            + "SELECT x + 1 FROM seq WHERE x < " + BREEDS + ") SELECT x, 'Breed ' || x FROM seq";
+
+    /** Inserts the pets from the first to the second argument, through the usual triggers */
+    private static final String SQL_INSERT_PETS = "INSERT INTO " + PetEntry.TABLE_NAME + " ("
+            + PetEntry._ID + ", " + PetEntry.COLUMN_PET_NAME + ", "
+            + PetDbHelper.COLUMN_BREED_ID + ", " + PetEntry.COLUMN_PET_GENDER + ", "
+            + PetEntry.COLUMN_PET_WEIGHT + ") WITH RECURSIVE seq(x) AS (SELECT ? UNION ALL "
+            + "SELECT x + 1 FROM seq WHERE x < ?) SELECT x, 'Pet ' || ((x * 7919) % 1000003), "
+            + "x % " + (BREEDS + 1) + ", x % 3, (x * 31) % " + (MAX_WEIGHT + 1) + " FROM seq";
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * Create the database of the app with the given number of pets, and its statistics, as
+     * the maintenance would have left them.
+     */
+    static void seed(Context context, int rows) {
+        PetDbHelper dbHelper = new PetDbHelper(context);
+        try {
+            SQLiteDatabase database = dbHelper.getWritableDatabase();
+            database.execSQL(SQL_INSERT_BREEDS);
+            for (int first = 1; first <= rows; first += SEED_CHUNK_ROWS) {
+                database.beginTransaction();
+                try {
+                    database.execSQL(SQL_INSERT_PETS, new Object[] {
+                            first, Math.min(first + SEED_CHUNK_ROWS - 1, rows) });
+                    database.setTransactionSuccessful();
+                } finally {
+                    database.endTransaction();
+                }
+            }
+            database.execSQL("ANALYZE;");
+        } finally {
+            dbHelper.close();
+        }
+    }
+
+    /**
+     * Returns the name of the given breed, from 1 to {@link #BREEDS}.
+     */
+    static String getBreed(int breed) {
+        return "Breed " + breed;
+    }
+
+    /**
+     * Returns the values of a new pet, like the ones of the database.
+     */
+    static ContentValues newPet(Random random) {
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PET_NAME, "Pet " + random.nextInt(1000003));
+        int breed = random.nextInt(BREEDS + 1);
+        values.put(PetEntry.COLUMN_PET_BREED, breed == 0 ? null : getBreed(breed));
+        values.put(PetEntry.COLUMN_PET_GENDER, random.nextInt(3));
+        values.put(PetEntry.COLUMN_PET_WEIGHT, random.nextInt(MAX_WEIGHT + 1));
+        return values;
+    }
+}
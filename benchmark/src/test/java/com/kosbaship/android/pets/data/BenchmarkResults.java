@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kosbaship.android.pets.data;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Settings and results of the benchmarks. The settings come from the system properties the
+ * build passes to the tests, and each result is printed and added as one JSON object per line
+ * to the file named by {@link #PROPERTY_OUTPUT}, so the numbers can be compared between runs.
+ */
+final class BenchmarkResults {
+
+    /** System property: comma separated numbers of pets to run the benchmarks with */
+    static final String PROPERTY_SIZES = "benchmark.sizes";
+
+    /** System property: number of runs of each operation */
+    static final String PROPERTY_ITERATIONS = "benchmark.iterations";
+
+    /** System property: file the results are added to, they are only printed without it */
+    static final String PROPERTY_OUTPUT = "benchmark.output";
+
+    private static final String DEFAULT_SIZES = "1000,10000,100000,1000000";
+    private static final int DEFAULT_ITERATIONS = 1000;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private BenchmarkResults() {
+    }
+
+    /**
+     * Returns the numbers of pets to run the benchmarks with, as the parameters of a
+     * parameterized test.
+     */
+    static List<Object[]> getSizes() {
+        List<Object[]> sizes = new ArrayList<>();
+        for (String size : System.getProperty(PROPERTY_SIZES, DEFAULT_SIZES).split(",")) {
+            sizes.add(new Object[] { Integer.parseInt(size.trim()) });
+        }
+        return sizes;
+    }
+
+    /**
+     * Returns the number of runs of each operation.
+     */
+    static int getIterations() {
+        return Integer.getInteger(PROPERTY_ITERATIONS, DEFAULT_ITERATIONS);
+    }
+
+    /**
+     * Report the runs of an operation that ran one after the other.
+     *
+     * @param benchmark name of the benchmark
+     * @param operation name of the operation
+     * @param variant   setting the operation ran with, for example a storage profile, or null
+     * @param rows      number of pets in the database
+     */
+    static void report(String benchmark, String operation, String variant, int rows,
+                       Latencies latencies) {
+        report(benchmark, operation, variant, rows, latencies, latencies.getTotalNanos());
+    }
+
+    /**
+     * Report the runs of an operation that took the given time in all, which is less than the
+     * sum of their latencies when they ran on several threads at once.
+     */
+    static synchronized void report(String benchmark, String operation, String variant,
+                                    int rows, Latencies latencies, long elapsedNanos) {
+        JSONObject result = new JSONObject();
+        try {
+            result.put("benchmark", benchmark);
+            result.put("operation", operation);
+            if (variant != null) {
+                result.put("variant", variant);
+            }
+            result.put("rows", rows);
+            result.put("ops", latencies.getCount());
+            result.put("ops_per_sec", elapsedNanos == 0 ? 0
+                    : latencies.getCount() * 1e9 / elapsedNanos);
+            result.put("p50_us", latencies.getPercentile(0.50) / 1000.0);
+            result.put("p99_us", latencies.getPercentile(0.99) / 1000.0);
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+        String line = result.toString();
+        System.out.println(line);
+
+        String output = System.getProperty(PROPERTY_OUTPUT);
+        if (output == null) {
+            return;
+        }
+        File file = new File(output);
+        file.getParentFile().mkdirs();
+        try {
+            Writer writer = new OutputStreamWriter(new FileOutputStream(file, true), UTF_8);
+            try {
+                writer.write(line);
+                writer.write('\n');
+            } finally {
+                writer.close();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot write the results to " + output, e);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kosbaship.android.pets.data;
+
+import android.content.ContentValues;
+
+import com.kosbaship.android.pets.data.PetContract.PetEntry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.ParameterizedRobolectricTestRunner;
+
+import java.util.List;
+
+/**
+ * Batches of pets written with one {@link PetProvider#bulkInsert} call, against the same
+ * batches written with one {@link PetProvider#insert} call per pet. Each run is one batch.
+ */
+@RunWith(ParameterizedRobolectricTestRunner.class)
+public class BulkInsertBenchmark extends ProviderBenchmark {
+
+    /** Number of pets in each batch */
+    private static final int BATCH_ROWS = 1000;
+
+    @ParameterizedRobolectricTestRunner.Parameters(name = "{0} pets")
+    public static List<Object[]> sizes() {
+        return BenchmarkResults.getSizes();
+    }
+
+    public BulkInsertBenchmark(int rows) {
+        super(rows);
+    }
+
+    @Test
+    public void benchmark() {
+        int batches = Math.max(1, mIterations / 100);
+        String variant = BATCH_ROWS + " rows";
+        Latencies bulk = new Latencies();
+        Latencies loop = new Latencies();
+        // One batch of each is the warm up
+        for (int i = 0; i <= batches; i++) {
+            ContentValues[] values = newBatch();
+            long start = System.nanoTime();
+            mResolver.bulkInsert(PetEntry.CONTENT_URI, values);
+            if (i > 0) {
+                bulk.addSince(start);
+            }
+
+            values = newBatch();
+            start = System.nanoTime();
+            for (ContentValues pet : values) {
+                mResolver.insert(PetEntry.CONTENT_URI, pet);
+            }
+            if (i > 0) {
+                loop.addSince(start);
+            }
+        }
+        report("bulk_insert", variant, bulk);
+        report("insert_loop", variant, loop);
+    }
+
+    private ContentValues[] newBatch() {
+        ContentValues[] values = new ContentValues[BATCH_ROWS];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = BenchmarkData.newPet(mRandom);
+        }
+        return values;
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kosbaship.android.pets.data;
+
+import android.content.Context;
+import android.net.Uri;
+
+import com.kosbaship.android.pets.PetPage;
+import com.kosbaship.android.pets.PetPageFile;
+import com.kosbaship.android.pets.PetPageLoader;
+import com.kosbaship.android.pets.data.PetContract.PetEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.ParameterizedRobolectricTestRunner;
+import org.robolectric.Robolectric;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Time from a cold start of the catalog to the first page of pets it can show: from the page
+ * saved by {@link PetPageFile}, and from a {@link PetProvider} that has just been created, which
+ * opens the database for the query of the first page. The catalog shows the saved page as soon
+ * as it's read, or else waits for the loader of the first page.
+ *
+ * The time to draw the page is the same either way and isn't part of it. The files stay in
+ * the cache of the file system between the runs, as they do when the app starts again soon.
+ */
+@RunWith(ParameterizedRobolectricTestRunner.class)
+public class ColdStartBenchmark {
+
+    /** Number of cold starts of the provider, each one opens its own connections */
+    private static final int PROVIDER_STARTS = 20;
+
+    /** The catalog the app starts with */
+    private static final Uri CATALOG_URI =
+            PetEntry.buildCatalogUri(PetEntry.SORT_NAME, null, null, null, null);
+
+    private final int mRows;
+    private final int mIterations = BenchmarkResults.getIterations();
+    private final Context mContext = RuntimeEnvironment.application;
+
+    @ParameterizedRobolectricTestRunner.Parameters(name = "{0} pets")
+    public static List<Object[]> sizes() {
+        return BenchmarkResults.getSizes();
+    }
+
+    public ColdStartBenchmark(int rows) {
+        mRows = rows;
+    }
+
+    @Before
+    public void setUp() {
+        BenchmarkData.seed(mContext, mRows);
+    }
+
+    @Test
+    public void benchmark() throws InterruptedException {
+        Uri pageUri = PetEntry.buildPageUri(CATALOG_URI, ProviderBenchmark.PAGE_SIZE);
+        Latencies provider = new Latencies();
+        PetPage firstPage = null;
+        // The first start is the warm up
+        for (int i = 0; i <= PROVIDER_STARTS; i++) {
+            long start = System.nanoTime();
+            PetProvider petProvider = Robolectric.setupContentProvider(PetProvider.class,
+                    PetContract.CONTENT_AUTHORITY);
+            try {
+                firstPage = new PetPageLoader(mContext, pageUri).loadInBackground();
+                if (i > 0) {
+                    provider.addSince(start);
+                }
+            } finally {
+                petProvider.shutdown();
+            }
+        }
+        assertEquals(Math.min(mRows, ProviderBenchmark.PAGE_SIZE), firstPage.size());
+
+        // The page is saved in the background, wait for it
+        PetPageFile.write(mContext, CATALOG_URI, firstPage);
+        long deadline = System.currentTimeMillis() + 10000;
+        while (PetPageFile.read(mContext, CATALOG_URI) == null) {
+            assertTrue("The first page wasn't saved", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+
+        Latencies pageFile = new Latencies();
+        int warmup = Math.max(1, mIterations / 10);
+        for (int i = 0; i < warmup + mIterations; i++) {
+            long start = System.nanoTime();
+            PetPage saved = PetPageFile.read(mContext, CATALOG_URI);
+            if (i >= warmup) {
+                pageFile.addSince(start);
+            }
+            assertEquals(firstPage.size(), saved.size());
+        }
+
+        String benchmark = getClass().getSimpleName();
+        BenchmarkResults.report(benchmark, "first_page", "provider", mRows, provider);
+        BenchmarkResults.report(benchmark, "first_page", "page_file", mRows, pageFile);
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kosbaship.android.pets.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+
+import com.kosbaship.android.pets.data.PetContract.PetEntry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.ParameterizedRobolectricTestRunner;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Throughput of inserts and updates through {@link PetProvider} from 1 to 32 threads at once,
+ * which {@link PetWriteQueue} commits together in batches. Each thread makes its share of the
+ * writes one after the other, and the operations per second are those of all the threads.
+ */
+@RunWith(ParameterizedRobolectricTestRunner.class)
+public class ConcurrentWriteBenchmark extends ProviderBenchmark {
+
+    private static final int[] WRITERS = { 1, 2, 4, 8, 16, 32 };
+
+    @ParameterizedRobolectricTestRunner.Parameters(name = "{0} pets")
+    public static List<Object[]> sizes() {
+        return BenchmarkResults.getSizes();
+    }
+
+    public ConcurrentWriteBenchmark(int rows) {
+        super(rows);
+    }
+
+    @Test
+    public void benchmark() throws Throwable {
+        // Warm up with a run of one writer that isn't reported
+        run(1, false, mWarmup, null);
+        for (int writers : WRITERS) {
+            int writes = Math.max(1, mIterations / writers);
+            String variant = writers + " writers";
+            run(writers, true, writes, variant);
+            run(writers, false, writes, variant);
+        }
+    }
+
+    /**
+     * Run the given number of writes on each of the given number of threads at once.
+     *
+     * @param insert  whether to insert new pets or to update the weight of random pets
+     * @param variant to report the writes under, or null not to report them
+     */
+    private void run(int writers, final boolean insert, final int writes, String variant)
+            throws Throwable {
+        final Latencies[] latencies = new Latencies[writers];
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread[] threads = new Thread[writers];
+        for (int i = 0; i < writers; i++) {
+            final Latencies writerLatencies = new Latencies();
+            final Random random = new Random(mRandom.nextLong());
+            latencies[i] = writerLatencies;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < writes; j++) {
+                            write(random, insert, writerLatencies);
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            });
+        }
+        long start = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long elapsed = System.nanoTime() - start;
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        if (variant == null) {
+            return;
+        }
+        Latencies all = new Latencies();
+        for (Latencies writerLatencies : latencies) {
+            all.addAll(writerLatencies);
+        }
+        BenchmarkResults.report(getClass().getSimpleName(), insert ? "insert" : "update",
+                variant, mRows, all, elapsed);
+    }
+
+    private void write(Random random, boolean insert, Latencies latencies) {
+        if (insert) {
+            ContentValues values = BenchmarkData.newPet(random);
+            long start = System.nanoTime();
+            mResolver.insert(PetEntry.CONTENT_URI, values);
+            latencies.addSince(start);
+        } else {
+            ContentValues values = new ContentValues();
+            values.put(PetEntry.COLUMN_PET_WEIGHT, random.nextInt(BenchmarkData.MAX_WEIGHT + 1));
+            long start = System.nanoTime();
+            mResolver.update(ContentUris.withAppendedId(PetEntry.CONTENT_URI,
+                    1 + random.nextInt(mRows)), values, null, null);
+            latencies.addSince(start);
+        }
+    }
+}
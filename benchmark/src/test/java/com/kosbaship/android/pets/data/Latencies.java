@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kosbaship.android.pets.data;
+
+import java.util.Arrays;
+
+/**
+ * Latencies of the runs of one operation of a benchmark, in nanoseconds.
+ */
+final class Latencies {
+
+    private long[] mNanos = new long[256];
+    private int mCount;
+
+    /**
+     * Add the latency of a run that started at the given {@link System#nanoTime()}.
+     */
+    void addSince(long startNanos) {
+        add(System.nanoTime() - startNanos);
+    }
+
+    void add(long nanos) {
+        if (mCount == mNanos.length) {
+            mNanos = Arrays.copyOf(mNanos, mCount * 2);
+        }
+        mNanos[mCount++] = nanos;
+    }
+
+    /**
+     * Add all the latencies of the given runs, for example those of another thread.
+     */
+    void addAll(Latencies other) {
+        for (int i = 0; i < other.mCount; i++) {
+            add(other.mNanos[i]);
+        }
+    }
+
+    int getCount() {
+        return mCount;
+    }
+
+    /**
+     * Returns the sum of the latencies, which is how long the runs took when they ran one
+     * after the other.
+     */
+    long getTotalNanos() {
+        long total = 0;
+        for (int i = 0; i < mCount; i++) {
+            total += mNanos[i];
+        }
+        return total;
+    }
+
+    /**
+     * Returns the latency that the given fraction of the runs took at most, by nearest rank,
+     * or 0 if there were no runs.
+     *
+     * @param fraction from 0 to 1, for example 0.99 for the p99
+     */
+    long getPercentile(double fraction) {
+        if (mCount == 0) {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(mNanos, mCount);
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(fraction * mCount);
+        return sorted[Math.max(rank, 1) - 1];
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kosbaship.android.pets.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.kosbaship.android.pets.data.PetContract.PetEntry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.ParameterizedRobolectricTestRunner;
+
+import java.util.List;
+
+/**
+ * Throughput and latency of the reads and writes of {@link PetProvider} as the database grows:
+ * lookups by ID, the catalog in full and by pages, and single inserts, updates and deletes.
+ */
+@RunWith(ParameterizedRobolectricTestRunner.class)
+public class PetProviderBenchmark extends ProviderBenchmark {
+
+    /** Most pets the full catalog queries read at each size, so the biggest ones run once */
+    private static final int FULL_CATALOG_ROWS = 2000000;
+
+    @ParameterizedRobolectricTestRunner.Parameters(name = "{0} pets")
+    public static List<Object[]> sizes() {
+        return BenchmarkResults.getSizes();
+    }
+
+    public PetProviderBenchmark(int rows) {
+        super(rows);
+    }
+
+    @Test
+    public void benchmark() {
+        // The reads run first, while every seeded pet is still there
+        benchmarkLookups();
+        benchmarkFullCatalog();
+        benchmarkPages();
+        benchmarkFilteredPages();
+        benchmarkInserts();
+        benchmarkUpdates();
+        benchmarkDeletes();
+    }
+
+    private void benchmarkLookups() {
+        Latencies latencies = new Latencies();
+        for (int i = 0; i < mWarmup + mIterations; i++) {
+            Uri uri = ContentUris.withAppendedId(PetEntry.CONTENT_URI, randomId());
+            long start = System.nanoTime();
+            readAll(mResolver.query(uri, null, null, null, null), null);
+            if (i >= mWarmup) {
+                latencies.addSince(start);
+            }
+        }
+        report("pet_id_query", null, latencies);
+    }
+
+    private void benchmarkFullCatalog() {
+        int runs = Math.max(1, Math.min(mIterations, FULL_CATALOG_ROWS / mRows));
+        Latencies latencies = new Latencies();
+        for (int i = 0; i < runs; i++) {
+            long start = System.nanoTime();
+            readAll(mResolver.query(PetEntry.CONTENT_URI, null, null, null, null), null);
+            latencies.addSince(start);
+        }
+        report("catalog_query", null, latencies);
+    }
+
+    /**
+     * Page through the catalog sorted by name, starting over at the end.
+     */
+    private void benchmarkPages() {
+        Uri catalogUri = PetEntry.buildCatalogUri(PetEntry.SORT_NAME, null, null, null, null);
+        Uri firstPageUri = PetEntry.buildPageUri(catalogUri, PAGE_SIZE);
+        Uri pageUri = firstPageUri;
+        Latencies latencies = new Latencies();
+        for (int i = 0; i < mWarmup + mIterations; i++) {
+            long start = System.nanoTime();
+            pageUri = readAll(mResolver.query(pageUri, null, null, null, null), catalogUri);
+            if (i >= mWarmup) {
+                latencies.addSince(start);
+            }
+            if (pageUri == null) {
+                pageUri = firstPageUri;
+            }
+        }
+        report("catalog_page_query", null, latencies);
+    }
+
+    /**
+     * The first pages of the catalog filtered by gender, weight and breed, and their counts.
+     */
+    private void benchmarkFilteredPages() {
+        Latencies gender = new Latencies();
+        Latencies weight = new Latencies();
+        Latencies breed = new Latencies();
+        Latencies count = new Latencies();
+        for (int i = 0; i < mWarmup + mIterations; i++) {
+            boolean measured = i >= mWarmup;
+            Uri catalogUri = PetEntry.buildCatalogUri(PetEntry.SORT_NAME,
+                    mRandom.nextInt(3), null, null, null);
+            queryFirstPage(catalogUri, measured ? gender : null);
+
+            int minWeight = mRandom.nextInt(BenchmarkData.MAX_WEIGHT - 10);
+            catalogUri = PetEntry.buildCatalogUri(PetEntry.SORT_WEIGHT, null, minWeight,
+                    minWeight + 10, null);
+            queryFirstPage(catalogUri, measured ? weight : null);
+
+            catalogUri = PetEntry.buildCatalogUri(PetEntry.SORT_NAME, null, null, null,
+                    BenchmarkData.getBreed(1 + mRandom.nextInt(BenchmarkData.BREEDS)));
+            queryFirstPage(catalogUri, measured ? breed : null);
+
+            long start = System.nanoTime();
+            Cursor cursor = mResolver.query(PetEntry.buildCountUri(catalogUri), null, null,
+                    null, null);
+            try {
+                cursor.moveToFirst();
+                cursor.getInt(0);
+            } finally {
+                cursor.close();
+            }
+            if (measured) {
+                count.addSince(start);
+            }
+        }
+        report("catalog_page_query", "gender", gender);
+        report("catalog_page_query", "weight", weight);
+        report("catalog_page_query", "breed", breed);
+        report("count_query", "breed", count);
+    }
+
+    private void queryFirstPage(Uri catalogUri, Latencies latencies) {
+        long start = System.nanoTime();
+        readAll(mResolver.query(PetEntry.buildPageUri(catalogUri, PAGE_SIZE), null, null, null,
+                null), catalogUri);
+        if (latencies != null) {
+            latencies.addSince(start);
+        }
+    }
+
+    private void benchmarkInserts() {
+        Latencies latencies = new Latencies();
+        for (int i = 0; i < mWarmup + mIterations; i++) {
+            ContentValues values = BenchmarkData.newPet(mRandom);
+            long start = System.nanoTime();
+            mResolver.insert(PetEntry.CONTENT_URI, values);
+            if (i >= mWarmup) {
+                latencies.addSince(start);
+            }
+        }
+        report("insert", null, latencies);
+    }
+
+    private void benchmarkUpdates() {
+        Latencies latencies = new Latencies();
+        for (int i = 0; i < mWarmup + mIterations; i++) {
+            ContentValues values = new ContentValues();
+            values.put(PetEntry.COLUMN_PET_WEIGHT, mRandom.nextInt(BenchmarkData.MAX_WEIGHT + 1));
+            Uri uri = ContentUris.withAppendedId(PetEntry.CONTENT_URI, randomId());
+            long start = System.nanoTime();
+            mResolver.update(uri, values, null, null);
+            if (i >= mWarmup) {
+                latencies.addSince(start);
+            }
+        }
+        report("update", null, latencies);
+    }
+
+    private void benchmarkDeletes() {
+        // Each delete takes a different pet, spread over the whole table
+        int deletes = Math.min(mWarmup + mIterations, mRows);
+        Latencies latencies = new Latencies();
+        for (int i = 0; i < deletes; i++) {
+            Uri uri = ContentUris.withAppendedId(PetEntry.CONTENT_URI,
+                    1 + (long) i * mRows / deletes);
+            long start = System.nanoTime();
+            mResolver.delete(uri, null, null);
+            if (i >= mWarmup) {
+                latencies.addSince(start);
+            }
+        }
+        report("delete", null, latencies);
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kosbaship.android.pets.data;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.kosbaship.android.pets.data.PetContract.PetEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.robolectric.Robolectric;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.Random;
+
+/**
+ * Base of the benchmarks that run against {@link PetProvider} with a given number of pets.
+ * Before each test the database is seeded with {@link BenchmarkData} and the provider is
+ * started, the calls then go through a {@link ContentResolver} like the ones of the app.
+ *
+ * Robolectric runs SQLite on the JVM and lets one call into it at a time, so the numbers are
+ * for comparing runs of the benchmarks with each other, not for what a device does.
+ */
+public abstract class ProviderBenchmark {
+
+    /** Number of pets on each page of the catalog */
+    static final int PAGE_SIZE = 50;
+
+    /** Number of pets in the database */
+    final int mRows;
+
+    /** Number of measured runs of each operation */
+    final int mIterations = BenchmarkResults.getIterations();
+
+    /** Number of runs of each operation before the measured ones, while the JIT warms up */
+    final int mWarmup = Math.max(1, mIterations / 10);
+
+    /** Source of the pets and IDs each operation picks, the same on every run */
+    final Random mRandom = new Random(42);
+
+    PetProvider mProvider;
+    ContentResolver mResolver;
+
+    ProviderBenchmark(int rows) {
+        mRows = rows;
+    }
+
+    @Before
+    public void setUp() {
+        BenchmarkData.seed(RuntimeEnvironment.application, mRows);
+        mProvider = Robolectric.setupContentProvider(PetProvider.class,
+                PetContract.CONTENT_AUTHORITY);
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.shutdown();
+    }
+
+    /**
+     * Report the runs of an operation of this benchmark, which ran one after the other.
+     */
+    void report(String operation, String variant, Latencies latencies) {
+        BenchmarkResults.report(getClass().getSimpleName(), operation, variant, mRows,
+                latencies);
+    }
+
+    /**
+     * Returns the ID of a random pet of the seeded database.
+     */
+    long randomId() {
+        return 1 + mRandom.nextInt(mRows);
+    }
+
+    /**
+     * Read all the pets of the given cursor, column by column like an adapter, and close it.
+     *
+     * @param catalogUri the catalog the cursor holds a page of, from
+     *                   {@link PetEntry#buildCatalogUri}, or null
+     * @return the URI of the page after the pets of the cursor if a catalog was given and the
+     * cursor held a full page, or else null
+     */
+    static Uri readAll(Cursor cursor, Uri catalogUri) {
+        try {
+            int idColumn = cursor.getColumnIndexOrThrow(PetEntry._ID);
+            int nameColumn = cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_NAME);
+            int breedColumn = cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_BREED);
+            int genderColumn = cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_GENDER);
+            int weightColumn = cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_WEIGHT);
+            int count = 0;
+            long id = 0;
+            String name = null;
+            String breed = null;
+            int weight = 0;
+            while (cursor.moveToNext()) {
+                id = cursor.getLong(idColumn);
+                name = cursor.getString(nameColumn);
+                breed = cursor.getString(breedColumn);
+                cursor.getInt(genderColumn);
+                weight = cursor.getInt(weightColumn);
+                count++;
+            }
+            if (catalogUri == null || count < PAGE_SIZE) {
+                return null;
+            }
+            return PetEntry.buildPageUri(catalogUri, name, breed, weight, id, PAGE_SIZE);
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kosbaship.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.kosbaship.android.pets.data.PetContract.PetEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.ParameterizedRobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Latency of the single pet operations of {@link PetProvider} with the compiled statements of
+ * {@link PetStatements}, against the same operations through the {@link SQLiteDatabase}
+ * methods that take {@link ContentValues} and selection arguments, which the provider used
+ * before and still falls back to. Both look up breeds the same way, and run each write in its
+ * own transaction like a write of the provider on its own.
+ */
+@RunWith(ParameterizedRobolectricTestRunner.class)
+public class StatementPoolBenchmark {
+
+    private static final String VARIANT_DATABASE = "database_methods";
+    private static final String VARIANT_STATEMENTS = "compiled_statements";
+
+    private static final String SELECTION_LIVE_ID = PetEntry._ID + "=? AND "
+            + PetDbHelper.COLUMN_DELETED + "=0";
+
+    private final int mRows;
+    private final int mIterations = BenchmarkResults.getIterations();
+    private final Random mRandom = new Random(42);
+    private PetDbHelper mDbHelper;
+    private PetStatements mStatements;
+    private SQLiteDatabase mDatabase;
+
+    @ParameterizedRobolectricTestRunner.Parameters(name = "{0} pets")
+    public static List<Object[]> sizes() {
+        return BenchmarkResults.getSizes();
+    }
+
+    public StatementPoolBenchmark(int rows) {
+        mRows = rows;
+    }
+
+    @Before
+    public void setUp() {
+        BenchmarkData.seed(RuntimeEnvironment.application, mRows);
+        mDbHelper = new PetDbHelper(RuntimeEnvironment.application);
+        mDatabase = mDbHelper.getWritableDatabase();
+        mStatements = new PetStatements();
+    }
+
+    @After
+    public void tearDown() {
+        mStatements.close();
+        mDbHelper.close();
+    }
+
+    @Test
+    public void benchmark() {
+        int warmup = Math.max(1, mIterations / 10);
+        // Each delete takes a different pet, spread over the whole table
+        int runs = Math.min(warmup + mIterations, mRows / 2);
+        Latencies[] inserts = { new Latencies(), new Latencies() };
+        Latencies[] updates = { new Latencies(), new Latencies() };
+        Latencies[] deletes = { new Latencies(), new Latencies() };
+        Latencies[] queries = { new Latencies(), new Latencies() };
+        for (int i = 0; i < runs; i++) {
+            boolean measured = i >= warmup;
+            // The variants take turns, so they see the database grow the same way
+            for (int variant = 0; variant < 2; variant++) {
+                boolean statements = variant == 1;
+                ContentValues pet = BenchmarkData.newPet(mRandom);
+                long start = System.nanoTime();
+                write(statements ? Write.INSERT_STATEMENT : Write.INSERT, 0, pet);
+                add(measured, inserts[variant], start);
+
+                long id = 1 + mRandom.nextInt(mRows);
+                pet = BenchmarkData.newPet(mRandom);
+                start = System.nanoTime();
+                write(statements ? Write.UPDATE_STATEMENT : Write.UPDATE, id, pet);
+                add(measured, updates[variant], start);
+
+                id = 1 + (long) (2 * i + variant) * (mRows / 2) / runs;
+                start = System.nanoTime();
+                write(statements ? Write.DELETE_STATEMENT : Write.DELETE, id, null);
+                add(measured, deletes[variant], start);
+
+                id = 1 + mRandom.nextInt(mRows);
+                start = System.nanoTime();
+                if (statements) {
+                    ProviderBenchmark.readAll(mStatements.query(mDatabase, id), null);
+                } else {
+                    ProviderBenchmark.readAll(mDatabase.query(PetDbHelper.LIVE_PETS,
+                            PetRowCache.COLUMNS, PetEntry._ID + "=?",
+                            new String[] { String.valueOf(id) }, null, null, null), null);
+                }
+                add(measured, queries[variant], start);
+            }
+        }
+        String[] variants = { VARIANT_DATABASE, VARIANT_STATEMENTS };
+        for (int variant = 0; variant < 2; variant++) {
+            report("insert", variants[variant], inserts[variant]);
+            report("update", variants[variant], updates[variant]);
+            report("delete", variants[variant], deletes[variant]);
+            report("pet_id_query", variants[variant], queries[variant]);
+        }
+    }
+
+    private enum Write {
+        INSERT, INSERT_STATEMENT, UPDATE, UPDATE_STATEMENT, DELETE, DELETE_STATEMENT
+    }
+
+    /**
+     * Run a write of a pet in its own transaction.
+     */
+    private void write(Write write, long id, ContentValues pet) {
+        boolean committed = false;
+        mDatabase.beginTransaction();
+        try {
+            String name = pet == null ? null : pet.getAsString(PetEntry.COLUMN_PET_NAME);
+            String breed = pet == null ? null : pet.getAsString(PetEntry.COLUMN_PET_BREED);
+            int gender = pet == null ? 0 : pet.getAsInteger(PetEntry.COLUMN_PET_GENDER);
+            int weight = pet == null ? 0 : pet.getAsInteger(PetEntry.COLUMN_PET_WEIGHT);
+            String[] selectionArgs = { String.valueOf(id) };
+            switch (write) {
+                case INSERT:
+                    mDatabase.insert(PetEntry.TABLE_NAME, null, toColumns(pet));
+                    break;
+                case INSERT_STATEMENT:
+                    mStatements.insert(mDatabase, name, breed, gender, weight);
+                    break;
+                case UPDATE:
+                    mDatabase.update(PetEntry.TABLE_NAME, toColumns(pet), SELECTION_LIVE_ID,
+                            selectionArgs);
+                    break;
+                case UPDATE_STATEMENT:
+                    mStatements.update(mDatabase, id, name, breed, gender, weight);
+                    break;
+                case DELETE:
+                    ContentValues values = new ContentValues();
+                    values.put(PetDbHelper.COLUMN_DELETED, System.currentTimeMillis());
+                    mDatabase.update(PetEntry.TABLE_NAME, values, SELECTION_LIVE_ID,
+                            selectionArgs);
+                    break;
+                case DELETE_STATEMENT:
+                    mStatements.delete(mDatabase, id, System.currentTimeMillis());
+                    break;
+            }
+            mDatabase.setTransactionSuccessful();
+            committed = true;
+        } finally {
+            mDatabase.endTransaction();
+            mStatements.endTransaction(committed);
+        }
+    }
+
+    /**
+     * Returns the columns of the pets table for the given pet, with its breed as a breed ID.
+     */
+    private ContentValues toColumns(ContentValues pet) {
+        ContentValues columns = new ContentValues(pet);
+        columns.remove(PetEntry.COLUMN_PET_BREED);
+        columns.put(PetDbHelper.COLUMN_BREED_ID, mStatements.getBreedId(mDatabase,
+                pet.getAsString(PetEntry.COLUMN_PET_BREED)));
+        return columns;
+    }
+
+    private static void add(boolean measured, Latencies latencies, long startNanos) {
+        if (measured) {
+            latencies.addSince(startNanos);
+        }
+    }
+
+    private void report(String operation, String variant, Latencies latencies) {
+        BenchmarkResults.report(getClass().getSimpleName(), operation, variant, mRows,
+                latencies);
+    }
+}
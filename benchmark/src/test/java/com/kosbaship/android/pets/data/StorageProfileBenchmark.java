@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kosbaship.android.pets.data;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import com.kosbaship.android.pets.data.PetContract.PetEntry;
+import com.kosbaship.android.pets.data.PetDbHelper.StorageProfile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.ParameterizedRobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Readers and a writer on the database at once, with each storage profile of
+ * {@link PetDbHelper} and with a rollback journal like the stock settings have. A writer on a
+ * rollback journal keeps the readers out while it commits, so the gain of a profile is in how
+ * much the readers get done while the writer runs.
+ *
+ * Robolectric lets one call into SQLite run at a time, so the gain is smaller than on a
+ * device, where the readers of a write-ahead log run on their own connections.
+ */
+@RunWith(ParameterizedRobolectricTestRunner.class)
+public class StorageProfileBenchmark {
+
+    /** The stock settings: a rollback journal, with the cache of the durable profile */
+    private static final StorageProfile ROLLBACK_JOURNAL = new StorageProfile("rollback_journal",
+            false, PetDbHelper.SYNCHRONOUS_FULL, 2 * 1024, 0, 30 * 1000);
+
+    /** Numbers of reader threads that run along with the writer */
+    private static final int[] READERS = { 1, 2, 4 };
+
+    private static final String SQL_READ_PAGE = "SELECT " + PetEntry._ID + ", "
+            + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED + ", "
+            + PetEntry.COLUMN_PET_GENDER + ", " + PetEntry.COLUMN_PET_WEIGHT + " FROM "
+            + PetDbHelper.LIVE_PETS + " WHERE " + PetEntry.COLUMN_PET_GENDER + "=? ORDER BY "
+            + PetEntry.COLUMN_PET_NAME + ", " + PetEntry._ID + " LIMIT "
+            + ProviderBenchmark.PAGE_SIZE;
+
+    private static final String SQL_UPDATE_WEIGHT = "UPDATE " + PetEntry.TABLE_NAME + " SET "
+            + PetEntry.COLUMN_PET_WEIGHT + "=? WHERE " + PetEntry._ID + "=?";
+
+    private final int mRows;
+    private final StorageProfile mProfile;
+    private final int mIterations = BenchmarkResults.getIterations();
+    private PetDbHelper mDbHelper;
+
+    @ParameterizedRobolectricTestRunner.Parameters(name = "{0} pets, {1}")
+    public static List<Object[]> parameters() {
+        List<Object[]> parameters = new ArrayList<>();
+        for (Object[] size : BenchmarkResults.getSizes()) {
+            for (StorageProfile profile : new StorageProfile[] {
+                    ROLLBACK_JOURNAL, StorageProfile.DURABLE, StorageProfile.THROUGHPUT }) {
+                parameters.add(new Object[] { size[0], profile.name });
+            }
+        }
+        return parameters;
+    }
+
+    public StorageProfileBenchmark(int rows, String profile) {
+        mRows = rows;
+        mProfile = ROLLBACK_JOURNAL.name.equals(profile) ? ROLLBACK_JOURNAL
+                : StorageProfile.forName(profile);
+    }
+
+    @Before
+    public void setUp() {
+        BenchmarkData.seed(RuntimeEnvironment.application, mRows);
+        mDbHelper = new PetDbHelper(RuntimeEnvironment.application, mProfile);
+    }
+
+    @After
+    public void tearDown() {
+        mDbHelper.close();
+    }
+
+    @Test
+    public void benchmark() throws Throwable {
+        final SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        for (int readers : READERS) {
+            final List<Latencies> reads = new ArrayList<>();
+            final Latencies writes = new Latencies();
+            final AtomicReference<Throwable> failure = new AtomicReference<>();
+            List<Thread> readerThreads = new ArrayList<>();
+            for (int i = 0; i < readers; i++) {
+                final Latencies latencies = new Latencies();
+                final Random random = new Random(i);
+                reads.add(latencies);
+                readerThreads.add(new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            for (int j = 0; j < mIterations; j++) {
+                                long start = System.nanoTime();
+                                ProviderBenchmark.readAll(database.rawQuery(SQL_READ_PAGE,
+                                        new String[] { String.valueOf(random.nextInt(3)) }),
+                                        null);
+                                latencies.addSince(start);
+                            }
+                        } catch (Throwable e) {
+                            failure.compareAndSet(null, e);
+                        }
+                    }
+                }));
+            }
+            // The writer updates one pet per transaction for as long as the readers run
+            final Thread[] readerArray = readerThreads.toArray(new Thread[readers]);
+            Thread writer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Random random = new Random(-1);
+                    try {
+                        while (isAlive(readerArray)) {
+                            long start = System.nanoTime();
+                            database.execSQL(SQL_UPDATE_WEIGHT, new Object[] {
+                                    random.nextInt(BenchmarkData.MAX_WEIGHT + 1),
+                                    1 + random.nextInt(mRows) });
+                            writes.addSince(start);
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            });
+
+            long start = System.nanoTime();
+            for (Thread thread : readerThreads) {
+                thread.start();
+            }
+            writer.start();
+            for (Thread thread : readerThreads) {
+                thread.join();
+            }
+            writer.join();
+            long elapsed = System.nanoTime() - start;
+            if (failure.get() != null) {
+                throw failure.get();
+            }
+
+            Latencies allReads = new Latencies();
+            for (Latencies latencies : reads) {
+                allReads.addAll(latencies);
+            }
+            String variant = mProfile.name + ", " + readers + " readers";
+            String benchmark = getClass().getSimpleName();
+            BenchmarkResults.report(benchmark, "page_read", variant, mRows, allReads, elapsed);
+            BenchmarkResults.report(benchmark, "update", variant, mRows, writes, elapsed);
+        }
+    }
+
+    private static boolean isAlive(Thread[] threads) {
+        for (Thread thread : threads) {
+            if (thread.isAlive()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}